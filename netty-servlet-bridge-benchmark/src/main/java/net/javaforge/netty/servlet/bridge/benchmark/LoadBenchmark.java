@@ -0,0 +1,370 @@
+/*
+ * Copyright 2013 by Maxim Kalina
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.javaforge.netty.servlet.bridge.benchmark;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.util.concurrent.DefaultEventExecutor;
+import net.javaforge.netty.servlet.bridge.ServletBridgeHandler;
+import net.javaforge.netty.servlet.bridge.config.ServletConfiguration;
+import net.javaforge.netty.servlet.bridge.config.WebappConfiguration;
+import net.javaforge.netty.servlet.bridge.dispatch.DispatchMode;
+import net.javaforge.netty.servlet.bridge.impl.ServletBridgeWebapp;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Closed loop load benchmark of the dispatch modes. Starts the bridge
+ * in-process and drives it with keep-alive connections, each sending its next
+ * request as soon as the previous response was read. Requests completed
+ * during the warmup are not measured.
+ * <p/>
+ * Arguments are given as <code>key=value</code> pairs:
+ * <ul>
+ * <li><code>mode</code> - dispatch mode, one of {@link DispatchMode} (WORKER)</li>
+ * <li><code>connections</code> - concurrent client connections (64)</li>
+ * <li><code>eventLoops</code> - server event loops (available processors)</li>
+ * <li><code>workers</code> - executor threads in WORKER mode (64)</li>
+ * <li><code>workersPerLoop</code> - workers per event loop in
+ * EVENT_LOOP_WORKER mode (16)</li>
+ * <li><code>sleep</code> - milliseconds the servlet blocks per request (1)</li>
+ * <li><code>size</code> - response body size in bytes (128)</li>
+ * <li><code>warmup</code> - warmup seconds (5)</li>
+ * <li><code>duration</code> - measured seconds (15)</li>
+ * </ul>
+ */
+public class LoadBenchmark {
+
+    private static final Logger log = LoggerFactory
+            .getLogger(LoadBenchmark.class);
+
+    private static final String PATH = "/bench/load";
+
+    public static class BlockingServlet extends HttpServlet {
+
+        private long sleep;
+
+        private byte[] body;
+
+        @Override
+        public void init() throws ServletException {
+            this.sleep = Long.parseLong(getInitParameter("sleep"));
+            this.body = new byte[Integer.parseInt(getInitParameter("size"))];
+            Arrays.fill(this.body, (byte) 'x');
+        }
+
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+                throws ServletException, IOException {
+            if (this.sleep > 0) {
+                try {
+                    Thread.sleep(this.sleep);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            resp.setContentType("text/plain");
+            resp.setContentLength(this.body.length);
+            resp.getOutputStream().write(this.body);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+
+        Map<String, String> options = new HashMap<String, String>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq <= 0)
+                throw new IllegalArgumentException("Expected key=value: " + arg);
+
+            options.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+
+        DispatchMode mode = DispatchMode.valueOf(option(options, "mode",
+                "WORKER"));
+        int connections = Integer.parseInt(option(options, "connections", "64"));
+        int eventLoops = Integer.parseInt(option(options, "eventLoops",
+                String.valueOf(Runtime.getRuntime().availableProcessors())));
+        int workers = Integer.parseInt(option(options, "workers", "64"));
+        int workersPerLoop = Integer.parseInt(option(options, "workersPerLoop",
+                "16"));
+        String sleep = option(options, "sleep", "1");
+        String size = option(options, "size", "128");
+        long warmup = Long.parseLong(option(options, "warmup", "5")) * 1000;
+        long duration = Long.parseLong(option(options, "duration", "15")) * 1000;
+
+        ExecutorService executor = null;
+        WebappConfiguration config = new WebappConfiguration()
+                .setDispatchMode(mode)
+                .addServletConfigurations(
+                        new ServletConfiguration(BlockingServlet.class, PATH)
+                                .addInitParameter("sleep", sleep)
+                                .addInitParameter("size", size));
+        if (mode == DispatchMode.WORKER) {
+            executor = Executors.newFixedThreadPool(workers);
+            config.setDispatchExecutor(executor);
+        } else if (mode == DispatchMode.EVENT_LOOP_WORKER) {
+            config.setWorkersPerEventLoop(workersPerLoop);
+        }
+
+        ServletBridgeWebapp webapp = ServletBridgeWebapp.get();
+        webapp.init(config, new DefaultChannelGroup(new DefaultEventExecutor()));
+
+        EventLoopGroup bossGroup = new NioEventLoopGroup(1);
+        EventLoopGroup workerGroup = new NioEventLoopGroup(eventLoops);
+        try {
+            Channel server = new ServerBootstrap()
+                    .group(bossGroup, workerGroup)
+                    .channel(NioServerSocketChannel.class)
+                    .childHandler(new ChannelInitializer<SocketChannel>() {
+                        @Override
+                        protected void initChannel(SocketChannel ch) {
+                            ch.pipeline().addLast("codec", new HttpServerCodec());
+                            ch.pipeline().addLast("handler",
+                                    new ServletBridgeHandler());
+                        }
+                    }).bind(new InetSocketAddress("127.0.0.1", 0)).sync()
+                    .channel();
+            int port = ((InetSocketAddress) server.localAddress()).getPort();
+
+            log.info("Running {} with {} connections, {} event loops, "
+                    + "{} ms servlet sleep", mode, connections, eventLoops, sleep);
+
+            Result result = run(port, connections, warmup, duration);
+
+            System.out.println(String.format(
+                    "mode=%s connections=%d sleep=%sms throughput=%.0f req/s "
+                            + "p50=%.2fms p99=%.2fms p999=%.2fms max=%.2fms errors=%d",
+                    mode, connections, sleep,
+                    result.requests * 1000.0 / duration,
+                    result.percentile(0.50), result.percentile(0.99),
+                    result.percentile(0.999), result.percentile(1.0),
+                    result.errors));
+            System.out.println(webapp.getDispatcher().getStatistics());
+
+            server.close().sync();
+        } finally {
+            webapp.destroy();
+            bossGroup.shutdownGracefully();
+            workerGroup.shutdownGracefully();
+            if (executor != null)
+                executor.shutdownNow();
+        }
+    }
+
+    private static String option(Map<String, String> options, String key,
+                                 String defaultValue) {
+        String value = options.get(key);
+        return value != null ? value : defaultValue;
+    }
+
+    private static Result run(final int port, int connections, long warmup,
+                              long duration) throws InterruptedException {
+
+        long start = System.currentTimeMillis();
+        final long measureFrom = start + warmup;
+        final long measureUntil = measureFrom + duration;
+
+        final Client[] clients = new Client[connections];
+        final CountDownLatch done = new CountDownLatch(connections);
+        for (int i = 0; i < connections; i++) {
+            final Client client = clients[i] = new Client();
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        client.run(port, measureFrom, measureUntil);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }, "bench-client-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        done.await();
+
+        Result result = new Result();
+        for (Client client : clients)
+            result.add(client);
+
+        return result;
+    }
+
+    private static class Result {
+
+        private long[] latencies = new long[0];
+
+        private int requests;
+
+        private int errors;
+
+        void add(Client client) {
+            int offset = this.latencies.length;
+            this.latencies = Arrays.copyOf(this.latencies, offset
+                    + client.count);
+            System.arraycopy(client.latencies, 0, this.latencies, offset,
+                    client.count);
+            this.requests += client.count;
+            this.errors += client.errors;
+        }
+
+        double percentile(double p) {
+            if (this.latencies.length == 0)
+                return Double.NaN;
+
+            Arrays.sort(this.latencies);
+            int index = (int) Math.ceil(p * this.latencies.length) - 1;
+            return this.latencies[Math.max(index, 0)] / 1e6;
+        }
+    }
+
+    /**
+     * A keep-alive connection reading responses with a content length, it
+     * reconnects after errors.
+     */
+    private static class Client {
+
+        private static final byte[] REQUEST = ("GET " + PATH + " HTTP/1.1\r\n"
+                + "Host: 127.0.0.1\r\n\r\n").getBytes();
+
+        private long[] latencies = new long[1024];
+
+        private int count;
+
+        private int errors;
+
+        private final byte[] buffer = new byte[8192];
+
+        private InputStream in;
+
+        private Socket inSocket;
+
+        void run(int port, long measureFrom, long measureUntil) {
+            Socket socket = null;
+            long now;
+            while ((now = System.currentTimeMillis()) < measureUntil) {
+                try {
+                    if (socket == null) {
+                        socket = new Socket("127.0.0.1", port);
+                        socket.setTcpNoDelay(true);
+                    }
+
+                    long begin = System.nanoTime();
+                    socket.getOutputStream().write(REQUEST);
+                    readResponse(socket);
+                    long latency = System.nanoTime() - begin;
+
+                    if (now >= measureFrom)
+                        record(latency);
+                } catch (IOException e) {
+                    if (now >= measureFrom)
+                        this.errors++;
+                    close(socket);
+                    socket = null;
+                }
+            }
+            close(socket);
+        }
+
+        private void record(long latency) {
+            if (this.count == this.latencies.length)
+                this.latencies = Arrays.copyOf(this.latencies, this.count * 2);
+            this.latencies[this.count++] = latency;
+        }
+
+        private void readResponse(Socket socket) throws IOException {
+            if (this.inSocket != socket) {
+                this.in = new BufferedInputStream(socket.getInputStream());
+                this.inSocket = socket;
+            }
+
+            String status = readLine();
+            if (!status.startsWith("HTTP/1.1 200"))
+                throw new IOException("Unexpected status: " + status);
+
+            int contentLength = -1;
+            String line;
+            while ((line = readLine()).length() > 0) {
+                int colon = line.indexOf(':');
+                if (colon > 0
+                        && line.substring(0, colon).trim()
+                        .equalsIgnoreCase("Content-Length"))
+                    contentLength = Integer.parseInt(line.substring(colon + 1)
+                            .trim());
+            }
+            if (contentLength < 0)
+                throw new IOException("Response without content length");
+
+            while (contentLength > 0) {
+                int read = this.in.read(this.buffer, 0,
+                        Math.min(contentLength, this.buffer.length));
+                if (read < 0)
+                    throw new EOFException();
+                contentLength -= read;
+            }
+        }
+
+        private String readLine() throws IOException {
+            StringBuilder line = new StringBuilder();
+            int c;
+            while ((c = this.in.read()) != '\n') {
+                if (c < 0)
+                    throw new EOFException();
+                if (c != '\r')
+                    line.append((char) c);
+            }
+            return line.toString();
+        }
+
+        private static void close(Socket socket) {
+            if (socket == null)
+                return;
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+}
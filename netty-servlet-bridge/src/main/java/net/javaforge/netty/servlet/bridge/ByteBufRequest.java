@@ -0,0 +1,70 @@
+/*
+ * Copyright 2013 by Maxim Kalina
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.javaforge.netty.servlet.bridge;
+
+import io.netty.buffer.ByteBuf;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Extension of the requests of the bridge giving access to the body as the
+ * buffers it was received in, without copying it into byte arrays. Servlets
+ * get hold of it through
+ * {@link net.javaforge.netty.servlet.bridge.impl.HttpServletRequestImpl#unwrap(javax.servlet.ServletRequest)}.
+ * <p/>
+ * Lifecycle of the content:
+ * <ul>
+ * <li>The methods consume the body just like reading the input stream does,
+ * both can be mixed and continue where the other stopped.</li>
+ * <li>They block until content arrives. With a read listener set they must
+ * only be called once <code>isReady()</code> returned <code>true</code>.</li>
+ * <li>Returned {@link ByteBuf}s are read-only and retained for the caller,
+ * who must release them. They stay valid until then, even beyond the
+ * request.</li>
+ * <li>Returned {@link ByteBuffer}s are read-only views of buffers the bridge
+ * releases once the request completes, i.e. once the servlet returned or the
+ * asynchronous context completed. They must not be used afterwards.</li>
+ * </ul>
+ */
+public interface ByteBufRequest {
+
+    /**
+     * @return the next chunk of the body as it was received, or
+     * <code>null</code> at the end of the body
+     */
+    ByteBuf readChunk() throws IOException;
+
+    /**
+     * @return the rest of the body, once it was received completely. Its
+     * chunks are composed rather than copied.
+     */
+    ByteBuf readContent() throws IOException;
+
+    /**
+     * @return a view of the next chunk of the body, or <code>null</code> at
+     * the end of the body
+     */
+    ByteBuffer readChunkBuffer() throws IOException;
+
+    /**
+     * @return views of the chunks making up the rest of the body, once it was
+     * received completely
+     */
+    ByteBuffer[] readContentBuffers() throws IOException;
+
+}
@@ -18,6 +18,17 @@ package net.javaforge.netty.servlet.bridge;
 
 import io.netty.channel.Channel;
 
+/**
+ * Channel of the request being processed by the current thread. It is bound by
+ * the {@link net.javaforge.netty.servlet.bridge.interceptor.ChannelInterceptor}
+ * on the thread which executes the filter chain, i.e. the event loop, a worker
+ * or a virtual thread, depending on the dispatch mode.
+ *
+ * @deprecated the bridge no longer reads the thread local, use
+ * {@link net.javaforge.netty.servlet.bridge.impl.RequestContext} which
+ * follows the request across threads
+ */
+@Deprecated
 public class ChannelThreadLocal {
 
     public static final ThreadLocal<Channel> channelThreadLocal = new ThreadLocal<Channel>();
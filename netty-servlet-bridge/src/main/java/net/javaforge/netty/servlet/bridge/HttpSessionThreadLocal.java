@@ -18,21 +18,29 @@ package net.javaforge.netty.servlet.bridge;
 
 import net.javaforge.netty.servlet.bridge.impl.HttpSessionImpl;
 import net.javaforge.netty.servlet.bridge.impl.ServletBridgeWebapp;
-import net.javaforge.netty.servlet.bridge.session.DefaultServletBridgeHttpSessionStore;
 import net.javaforge.netty.servlet.bridge.session.ServletBridgeHttpSessionStore;
 
+/**
+ * Session of the request being processed by the current thread. Like
+ * {@link ChannelThreadLocal}, it used to be bound by the
+ * {@link net.javaforge.netty.servlet.bridge.interceptor.HttpSessionInterceptor}
+ * on the thread which executes the filter chain.
+ *
+ * @deprecated sessions are bound to the
+ * {@link net.javaforge.netty.servlet.bridge.impl.RequestContext} of the
+ * request, the session store to the {@link ServletBridgeWebapp}
+ */
+@Deprecated
 public class HttpSessionThreadLocal {
 
     public static final ThreadLocal<HttpSessionImpl> sessionThreadLocal = new ThreadLocal<HttpSessionImpl>();
 
-    private static ServletBridgeHttpSessionStore sessionStore;
-
     public static ServletBridgeHttpSessionStore getSessionStore() {
-        return sessionStore;
+        return ServletBridgeWebapp.get().getSessionStore();
     }
 
     public static void setSessionStore(ServletBridgeHttpSessionStore store) {
-        sessionStore = store;
+        ServletBridgeWebapp.get().setSessionStore(store);
     }
 
     public static void set(HttpSessionImpl session) {
@@ -52,14 +60,10 @@ public class HttpSessionThreadLocal {
 
     public static HttpSessionImpl getOrCreate() {
         if (HttpSessionThreadLocal.get() == null) {
-            if (sessionStore == null) {
-                sessionStore = new DefaultServletBridgeHttpSessionStore();
-            }
-
-            HttpSessionImpl newSession = sessionStore.createSession();
+            HttpSessionImpl newSession = getSessionStore().createSession();
             newSession.setMaxInactiveInterval(ServletBridgeWebapp.get()
                     .getWebappConfig().getSessionTimeout());
-            sessionThreadLocal.set(sessionStore.createSession());
+            sessionThreadLocal.set(newSession);
         }
         return get();
     }
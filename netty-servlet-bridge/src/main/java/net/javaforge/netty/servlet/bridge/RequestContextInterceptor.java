@@ -0,0 +1,39 @@
+/*
+ * Copyright 2013 by Maxim Kalina
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.javaforge.netty.servlet.bridge;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import net.javaforge.netty.servlet.bridge.impl.RequestContext;
+
+/**
+ * An interceptor which keeps per-request state in the {@link RequestContext}
+ * of the request. Pipelined requests of a channel may be processed
+ * concurrently, so the context must be the one passed in rather than the one
+ * current on the channel. The handler calls these methods instead of the ones
+ * of {@link ServletBridgeInterceptor} without a context.
+ */
+public interface RequestContextInterceptor extends ServletBridgeInterceptor {
+
+    void onRequestReceived(ChannelHandlerContext ctx, HttpRequest e,
+                           RequestContext context);
+
+    void onRequestSuccessed(ChannelHandlerContext ctx, HttpRequest e,
+                            HttpResponse response, RequestContext context);
+
+}
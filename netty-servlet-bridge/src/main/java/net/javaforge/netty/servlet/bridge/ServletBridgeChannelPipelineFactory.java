@@ -29,10 +29,11 @@ import io.netty.util.Timer;
 import io.netty.util.concurrent.DefaultEventExecutor;
 import net.javaforge.netty.servlet.bridge.config.WebappConfiguration;
 import net.javaforge.netty.servlet.bridge.impl.ServletBridgeWebapp;
-import net.javaforge.netty.servlet.bridge.interceptor.ChannelInterceptor;
 import net.javaforge.netty.servlet.bridge.interceptor.HttpSessionInterceptor;
 import net.javaforge.netty.servlet.bridge.session.DefaultServletBridgeHttpSessionStore;
 import net.javaforge.netty.servlet.bridge.session.ServletBridgeHttpSessionStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 //import io.netty.channel.ChannelPipelineFactory;
 //import io.netty.handler.codec.http.HttpChunkAggregator;
@@ -42,6 +43,9 @@ public class ServletBridgeChannelPipelineFactory {
 //    implements
 //        ChannelPipelineFactory {
 
+    private static final Logger log = LoggerFactory
+            .getLogger(ServletBridgeChannelPipelineFactory.class);
+
     private DefaultEventExecutor eventExecutor = new DefaultEventExecutor();
 
     private ChannelGroup allChannels = new DefaultChannelGroup(eventExecutor);
@@ -66,9 +70,26 @@ public class ServletBridgeChannelPipelineFactory {
         new Thread(this.watchdog = new HttpSessionWatchdog()).start();
     }
 
+    /**
+     * Drains the in-flight requests for the configured drain timeout, then
+     * destroys the webapp and closes the remaining channels.
+     */
     public void shutdown() {
         this.watchdog.stopWatching();
-        ServletBridgeWebapp.get().destroy();
+
+        ServletBridgeWebapp webapp = ServletBridgeWebapp.get();
+        long drainTimeout = webapp.getWebappConfig().getDrainTimeout();
+        if (drainTimeout > 0) {
+            try {
+                if (!webapp.drain(drainTimeout))
+                    log.warn("{} requests still in flight after {} ms drain",
+                            webapp.getInFlightRequests(), drainTimeout);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        webapp.destroy();
         this.timer.stop();
         this.allChannels.close().awaitUninterruptibly();
     }
@@ -87,7 +108,6 @@ public class ServletBridgeChannelPipelineFactory {
     protected ServletBridgeHandler getServletBridgeHandler() {
 
         ServletBridgeHandler bridge = new ServletBridgeHandler();
-        bridge.addInterceptor(new ChannelInterceptor());
         bridge.addInterceptor(new HttpSessionInterceptor(
                 getHttpSessionStore()));
         return bridge;
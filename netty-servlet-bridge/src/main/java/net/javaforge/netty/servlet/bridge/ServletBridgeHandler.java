@@ -25,20 +25,44 @@ import io.netty.handler.ssl.SslHandler;
 import io.netty.handler.stream.ChunkedFile;
 import io.netty.handler.timeout.IdleStateEvent;
 import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.util.AttributeKey;
+import io.netty.util.ReferenceCountUtil;
+import net.javaforge.netty.servlet.bridge.config.ServletConfiguration;
+import net.javaforge.netty.servlet.bridge.config.WebappConfiguration;
+import net.javaforge.netty.servlet.bridge.dispatch.Cancellation;
+import net.javaforge.netty.servlet.bridge.dispatch.DispatchTask;
+import net.javaforge.netty.servlet.bridge.dispatch.Dispatcher;
+import net.javaforge.netty.servlet.bridge.dispatch.ReadThrottle;
+import net.javaforge.netty.servlet.bridge.impl.AsyncContextImpl;
 import net.javaforge.netty.servlet.bridge.impl.FilterChainImpl;
 import net.javaforge.netty.servlet.bridge.impl.HttpServletRequestImpl;
 import net.javaforge.netty.servlet.bridge.impl.HttpServletResponseImpl;
+import net.javaforge.netty.servlet.bridge.impl.RequestContext;
+import net.javaforge.netty.servlet.bridge.impl.RequestRecycler;
 import net.javaforge.netty.servlet.bridge.impl.ServletBridgeWebapp;
+import net.javaforge.netty.servlet.bridge.impl.ServletInputStreamImpl;
+import net.javaforge.netty.servlet.bridge.impl.ServletOutputStreamImpl;
+import net.javaforge.netty.servlet.bridge.mapping.UrlPatternMapper;
+import net.javaforge.netty.servlet.bridge.util.BodyDecompressor;
+import net.javaforge.netty.servlet.bridge.util.CannedResponse;
+import net.javaforge.netty.servlet.bridge.util.ReadGate;
 import net.javaforge.netty.servlet.bridge.util.Utils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.servlet.UnavailableException;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.io.UnsupportedEncodingException;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.RejectedExecutionException;
 
 import static io.netty.handler.codec.http.HttpHeaders.Names.*;
 import static io.netty.handler.codec.http.HttpHeaders.setContentLength;
@@ -53,6 +77,30 @@ public class ServletBridgeHandler extends IdleStateHandler {
     private static final Logger log = LoggerFactory
             .getLogger(ServletBridgeHandler.class);
 
+    private static final AttributeKey<ServletInputStreamImpl> REQUEST_BODY = AttributeKey
+            .valueOf(ServletBridgeHandler.class, "requestBody");
+
+    private static final AttributeKey<ServletOutputStreamImpl> RESPONSE_BODY = AttributeKey
+            .valueOf(ServletBridgeHandler.class, "responseBody");
+
+    private static final AttributeKey<PendingRequest> PENDING_REQUEST = AttributeKey
+            .valueOf(ServletBridgeHandler.class, "pendingRequest");
+
+    private static final AttributeKey<Boolean> CLOSE_AFTER_RESPONSE = AttributeKey
+            .valueOf(ServletBridgeHandler.class, "closeAfterResponse");
+
+    private static final AttributeKey<RequestPipeline> PIPELINE = AttributeKey
+            .valueOf(ServletBridgeHandler.class, "pipeline");
+
+    private static final CannedResponse BODY_TOO_LARGE = new CannedResponse(
+            REQUEST_ENTITY_TOO_LARGE);
+
+    private static final CannedResponse HEADERS_TOO_LARGE = new CannedResponse(
+            REQUEST_HEADER_FIELDS_TOO_LARGE);
+
+    private static final CannedResponse URI_TOO_LONG = new CannedResponse(
+            REQUEST_URI_TOO_LONG);
+
     private List<ServletBridgeInterceptor> interceptors;
 
 
@@ -84,11 +132,39 @@ public class ServletBridgeHandler extends IdleStateHandler {
     public void channelActive(ChannelHandlerContext ctx)
             throws Exception {
         log.debug("Opening new channel: {}", ctx.channel().id());
+        if (ServletBridgeWebapp.get().isDraining()) {
+            ctx.channel().close();
+            return;
+        }
+
         ServletBridgeWebapp.get().getSharedChannelGroup().add(ctx.channel());
+        this.configureWriteBuffer(ctx.channel().config());
+
+        ReadThrottle throttle = ServletBridgeWebapp.get().getDispatcher()
+                .getReadThrottle();
+        if (throttle != null)
+            throttle.onChannelActive(ctx.channel());
 
         ctx.fireChannelActive();
     }
 
+    private void configureWriteBuffer(ChannelConfig config) {
+        WebappConfiguration webapp = ServletBridgeWebapp.get().getWebappConfig();
+        int low = webapp.getWriteBufferLowWaterMark();
+        int high = webapp.getWriteBufferHighWaterMark();
+        if (high <= 0)
+            return;
+
+        // the marks are validated against each other, so the order matters
+        if (high >= config.getWriteBufferLowWaterMark()) {
+            config.setWriteBufferHighWaterMark(high);
+            config.setWriteBufferLowWaterMark(low);
+        } else {
+            config.setWriteBufferLowWaterMark(low);
+            config.setWriteBufferHighWaterMark(high);
+        }
+    }
+
     @Override
     public void channelIdle(ChannelHandlerContext ctx, IdleStateEvent e) {
         log.debug("Closing idle channel: {}", ctx.channel().id());
@@ -98,23 +174,85 @@ public class ServletBridgeHandler extends IdleStateHandler {
     @Override
     public void channelRead(ChannelHandlerContext ctx, Object e)
             throws Exception {
+        if (!this.holdPipelined(ctx, e))
+            this.handleMessage(ctx, e);
+    }
+
+    /**
+     * Queues a request received while the response to the previous request of
+     * the connection is still being produced, along with everything following
+     * it. Responses have to be sent in the order of the requests, so pipelined
+     * requests are only handled one after the other. Reading is suspended
+     * while requests wait.
+     *
+     * @return <code>true</code> if the message was queued
+     */
+    private boolean holdPipelined(ChannelHandlerContext ctx, Object e) {
+        RequestPipeline pipeline = ctx.channel().attr(PIPELINE).get();
+        if (pipeline == null || pipeline.waiting.isEmpty()
+                && !(e instanceof HttpRequest && pipeline.responding))
+            return false;
+
+        if (pipeline.waiting.isEmpty())
+            ReadGate.suspend(ctx.channel());
+        pipeline.waiting.add(e);
+        return true;
+    }
+
+    /**
+     * Handles the requests which waited for the response just written, up to
+     * the next request which has to wait for its own response.
+     */
+    private void responseWritten(ChannelHandlerContext ctx) {
+        RequestPipeline pipeline = ctx.channel().attr(PIPELINE).get();
+        if (pipeline == null)
+            return;
+
+        pipeline.responding = false;
+        Object e;
+        while ((e = pipeline.waiting.peek()) != null
+                && !(e instanceof HttpRequest && pipeline.responding)) {
+            pipeline.waiting.poll();
+            if (pipeline.waiting.isEmpty())
+                ReadGate.resume(ctx.channel());
+
+            try {
+                this.handleMessage(ctx, e);
+            } catch (Throwable t) {
+                exceptionCaught(ctx, t);
+            }
+        }
+    }
+
+    private void handleMessage(ChannelHandlerContext ctx, Object e)
+            throws Exception {
 
         if (e instanceof HttpRequest) {
             HttpRequest request = (HttpRequest) e;
 
-            String uri = request.getUri();
+            // routed and cached in its normalized form, while the request
+            // keeps the uri as it was received
+            String uri = UrlPatternMapper.normalize(request.getUri());
 
             if (uri.startsWith(uriPrefix)) {
-                if (HttpHeaders.is100ContinueExpected(request)) {
-                    ctx.channel().write(new DefaultHttpResponse(HTTP_1_1, CONTINUE));
+                RequestPipeline pipeline = ctx.channel().attr(PIPELINE).get();
+                if (pipeline == null) {
+                    pipeline = new RequestPipeline();
+                    ctx.channel().attr(PIPELINE).set(pipeline);
                 }
+                pipeline.responding = true;
 
-
-                FilterChainImpl chain = ServletBridgeWebapp.get().initializeChain(uri);
+                FilterChainImpl chain = ServletBridgeWebapp.get().initializeChain(
+                        ctx.channel(), uri);
 
                 if (chain.isValid()) {
+                    // servlet requests ask for the body once they read it
                     handleHttpServletRequest(ctx, request, chain);
                 } else if (ServletBridgeWebapp.get().getStaticResourcesFolder() != null) {
+                    if (HttpHeaders.is100ContinueExpected(request)) {
+                        ctx.channel().write(new DefaultFullHttpResponse(HTTP_1_1,
+                                CONTINUE, Unpooled.EMPTY_BUFFER));
+                    }
                     handleStaticResourceRequest(ctx, request);
                 } else {
                     throw new ServletBridgeRuntimeException(
@@ -123,29 +261,350 @@ public class ServletBridgeHandler extends IdleStateHandler {
             } else {
                 ctx.fireChannelRead(e);
             }
+        } else if (e instanceof HttpContent
+                && ctx.channel().attr(REQUEST_BODY).get() != null) {
+            ServletInputStreamImpl body = ctx.channel().attr(REQUEST_BODY).get();
+            if (e instanceof LastHttpContent) {
+                ctx.channel().attr(REQUEST_BODY).remove();
+                ReadThrottle throttle = ServletBridgeWebapp.get()
+                        .getDispatcher().getReadThrottle();
+                if (throttle != null)
+                    throttle.onBodyReceived(ctx.channel());
+            }
+
+            body.offer((HttpContent) e);
+
+            PendingRequest pending = ctx.channel().attr(PENDING_REQUEST).get();
+            if (pending != null && body.isOversized()) {
+                ctx.channel().attr(PENDING_REQUEST).remove();
+                body.close();
+                refuseHttpServletRequest(ctx, pending.request, BODY_TOO_LARGE);
+            } else if (pending != null
+                    && (body.isLastReceived() || body.getBufferedBytes() > pending.chain
+                    .getServletConfiguration().getAggregatedBodySize())) {
+                ctx.channel().attr(PENDING_REQUEST).remove();
+                dispatchHttpServletRequest(ctx, pending.request, pending.chain,
+                        body);
+            }
         } else {
             ctx.fireChannelRead(e);
         }
     }
 
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        RequestPipeline pipeline = ctx.channel().attr(PIPELINE).getAndRemove();
+        if (pipeline != null) {
+            Object waiting;
+            while ((waiting = pipeline.waiting.poll()) != null)
+                ReferenceCountUtil.release(waiting);
+        }
+
+        PendingRequest pending = ctx.channel().attr(PENDING_REQUEST)
+                .getAndRemove();
+
+        ServletInputStreamImpl body = ctx.channel().attr(REQUEST_BODY)
+                .getAndRemove();
+        if (body != null && pending != null)
+            body.close();
+        else if (body != null)
+            body.fail(new ClosedChannelException());
+
+        ServletOutputStreamImpl out = ctx.channel().attr(RESPONSE_BODY)
+                .getAndRemove();
+        if (out != null)
+            out.fail(new ClosedChannelException());
+
+        ServletBridgeWebapp.get().channelClosed(ctx.channel());
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void write(final ChannelHandlerContext ctx, Object msg,
+                      ChannelPromise promise) throws Exception {
+        if (msg instanceof HttpResponse
+                && ((HttpResponse) msg).getStatus().code() == CONTINUE.code()) {
+            super.write(ctx, msg, promise);
+            return;
+        }
+
+        // the connection can not be reused if the client still waits to send
+        // the body, which was never asked for
+        if (msg instanceof HttpResponse) {
+            ServletInputStreamImpl body = ctx.channel().attr(REQUEST_BODY).get();
+            if (body != null && body.cancelContinue()) {
+                HttpHeaders.setKeepAlive((HttpResponse) msg, false);
+                ctx.channel().attr(CLOSE_AFTER_RESPONSE).set(Boolean.TRUE);
+            }
+        }
+
+        // the request is finished once the last part of its response is written
+        if (msg instanceof LastHttpContent) {
+            if (ctx.channel().attr(CLOSE_AFTER_RESPONSE).getAndRemove() != null)
+                promise.addListener(ChannelFutureListener.CLOSE);
+            promise.addListener(new ChannelFutureListener() {
+                @Override
+                public void operationComplete(ChannelFuture future) {
+                    ServletBridgeWebapp.get().requestFinished(future.channel());
+                    responseWritten(ctx);
+                }
+            });
+        }
+
+        super.write(ctx, msg, promise);
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx)
+            throws Exception {
+        ServletOutputStreamImpl out = ctx.channel().attr(RESPONSE_BODY).get();
+        if (out != null)
+            out.onWritabilityChanged();
+
+        ctx.fireChannelWritabilityChanged();
+    }
+
     protected void handleHttpServletRequest(ChannelHandlerContext ctx,
                                             HttpRequest request, FilterChainImpl chain) throws Exception {
 
-        interceptOnRequestReceived(ctx, request);
+        ServletConfiguration servlet = chain.getServletConfiguration();
+        int aggregatedBodySize = servlet.getAggregatedBodySize();
+        int bufferSize = ServletBridgeWebapp.get().getWebappConfig()
+                .getRequestBodyBufferSize();
+        ServletInputStreamImpl body = new ServletInputStreamImpl(request,
+                ctx.channel(), bufferSize > 0 ? Math.max(bufferSize,
+                aggregatedBodySize) : 0);
+
+        ServletBridgeWebapp.get().requestStarted(ctx.channel());
+        CannedResponse refusal = checkLimits(request, servlet);
+        if (refusal != null) {
+            // content following the head is discarded
+            body.close();
+            if (!(request instanceof FullHttpRequest))
+                ctx.channel().attr(REQUEST_BODY).set(body);
+            refuseHttpServletRequest(ctx, request, refusal);
+            return;
+        }
 
-        DefaultFullHttpResponse response = new DefaultFullHttpResponse(HTTP_1_1, OK);
+        body.setMaxSize(servlet.getMaxRequestBodySize());
+        long maxDecompressedSize = servlet.getMaxDecompressedBodySize();
+        BodyDecompressor decompressor = maxDecompressedSize > 0 ? BodyDecompressor
+                .forEncoding(HttpHeaders.getHeader(request, CONTENT_ENCODING),
+                        maxDecompressedSize) : null;
+        if (decompressor != null) {
+            // the servlet reads a plain body of unknown length
+            request.headers().remove(CONTENT_ENCODING);
+            request.headers().remove(CONTENT_LENGTH);
+            body.setDecompressor(decompressor);
+        }
 
-        HttpServletResponseImpl resp = buildHttpServletResponse(response);
-        HttpServletRequestImpl req = buildHttpServletRequest(request, chain);
+        if (request instanceof FullHttpRequest) {
+            if (body.isOversized()) {
+                body.close();
+                refuseHttpServletRequest(ctx, request, BODY_TOO_LARGE);
+            } else {
+                dispatchHttpServletRequest(ctx, request, chain, body);
+            }
+            return;
+        }
+
+        // the body of a streamed request arrives while the servlet runs,
+        // unless it is small enough to be received first and not withheld
+        // until the servlet reads it
+        ctx.channel().attr(REQUEST_BODY).set(body);
+        ReadThrottle throttle = ServletBridgeWebapp.get().getDispatcher()
+                .getReadThrottle();
+        if (throttle != null)
+            throttle.onBodyStarted(ctx.channel());
+        if (aggregatedBodySize > 0 && !body.isContinueWithheld()
+                && (!HttpHeaders.isContentLengthSet(request) || HttpHeaders
+                .getContentLength(request) <= aggregatedBodySize))
+            ctx.channel().attr(PENDING_REQUEST).set(
+                    new PendingRequest(request, chain));
+        else
+            dispatchHttpServletRequest(ctx, request, chain, body);
+    }
+
+    /**
+     * @return the canned response refusing the request if it exceeds the
+     * limits of its servlet, judged by its head only, else <code>null</code>
+     */
+    private static CannedResponse checkLimits(HttpRequest request,
+                                              ServletConfiguration servlet) {
+        // the uri as received, which normalizing may have shortened
+        int maxUriLength = servlet.getMaxRequestUriLength();
+        if (maxUriLength > 0 && request.getUri().length() > maxUriLength)
+            return URI_TOO_LONG;
+
+        int maxHeaderSize = servlet.getMaxRequestHeaderSize();
+        if (maxHeaderSize > 0) {
+            int size = 0;
+            for (Map.Entry<String, String> header : request.headers())
+                size += header.getKey().length() + header.getValue().length() + 4;
+            if (size > maxHeaderSize)
+                return HEADERS_TOO_LARGE;
+        }
+
+        long maxBodySize = servlet.getMaxRequestBodySize();
+        long length = request instanceof FullHttpRequest ? ((FullHttpRequest) request)
+                .content().readableBytes() : HttpHeaders.getContentLength(request, -1);
+        if (maxBodySize > 0 && length > maxBodySize)
+            return BODY_TOO_LARGE;
+
+        return null;
+    }
 
+    /**
+     * Refuses a request exceeding the limits of its servlet with a canned
+     * response and closes the connection, as the client may still be sending
+     * the body. Must be called on the event loop.
+     */
+    protected void refuseHttpServletRequest(ChannelHandlerContext ctx,
+                                            HttpRequest request, CannedResponse refusal) {
+        log.debug("Refused request {}: {}", request.getUri(), refusal.getStatus());
 
-        chain.doFilter(req, resp);
+        ReferenceCountUtil.release(request);
+        ctx.channel().writeAndFlush(refusal.newResponse(false)).addListener(
+                ChannelFutureListener.CLOSE);
+    }
 
-        interceptOnRequestSuccessed(ctx, request, response);
+    protected void dispatchHttpServletRequest(ChannelHandlerContext ctx,
+                                              HttpRequest request, FilterChainImpl chain,
+                                              ServletInputStreamImpl body) {
+        ServletConfiguration servlet = chain.getServletConfiguration();
+        Cancellation cancellation = new Cancellation(ctx.channel(),
+                servlet.getDeadline());
+        RequestContext context = RequestContext.open(ctx.channel(), body,
+                cancellation);
+        body.setCancellation(cancellation);
+
+        Dispatcher dispatcher = ServletBridgeWebapp.get().getDispatcher();
+        try {
+            dispatcher.dispatch(servlet, ctx.channel().eventLoop(),
+                    new ServletTask(ctx, request, chain, context));
+            dispatcher.throttle(ctx.channel());
+        } catch (RejectedExecutionException e) {
+            context.release();
+            rejectHttpServletRequest(ctx, request, chain, e);
+        }
+    }
 
-        resp.getWriter().flush();
+    /**
+     * Sheds the request with the canned 503 of its servlet, without building
+     * the servlet request and response. Must be called on the event loop.
+     */
+    protected void rejectHttpServletRequest(ChannelHandlerContext ctx,
+                                            HttpRequest request, FilterChainImpl chain,
+                                            RejectedExecutionException cause) {
+        log.warn("Rejected request {}: {}", request.getUri(), cause.getMessage());
 
-        boolean keepAlive = HttpHeaders.isKeepAlive(request);
+        if (!ctx.channel().isActive()) {
+            ReferenceCountUtil.release(request);
+            return;
+        }
+
+        CannedResponse rejection = ServletBridgeWebapp.get().getDispatcher()
+                .getRejectionResponse(chain.getServletConfiguration());
+        boolean keepAlive = HttpHeaders.isKeepAlive(request)
+                && !ServletBridgeWebapp.get().isDraining();
+        ReferenceCountUtil.release(request);
+
+        ChannelFuture future = ctx.channel().writeAndFlush(
+                rejection.newResponse(keepAlive));
+        if (!keepAlive)
+            future.addListener(ChannelFutureListener.CLOSE);
+    }
+
+    /**
+     * Runs the filter chain on the thread chosen by the {@link Dispatcher},
+     * the response is written back on the event loop of the channel. If the
+     * servlet started asynchronous processing, the response is written once
+     * the asynchronous context completes.
+     *
+     * @return <code>true</code> if the servlet started asynchronous processing,
+     * in which case the request is released when the context completes
+     */
+    protected boolean executeHttpServletRequest(final ChannelHandlerContext ctx,
+                                                final HttpRequest request, FilterChainImpl chain,
+                                                RequestContext context) throws Exception {
+
+        interceptOnRequestReceived(ctx, request, context);
+
+        final DefaultFullHttpResponse response = new DefaultFullHttpResponse(HTTP_1_1, OK);
+
+        RequestRecycler recycler = RequestRecycler.get(ctx.channel());
+        HttpServletResponseImpl resp = recycler != null ? recycler
+                .reuseResponse(response) : null;
+        if (resp == null)
+            resp = buildHttpServletResponse(response);
+        resp.bind(ctx, request);
+        ctx.channel().attr(RESPONSE_BODY).set(resp.getOutputStreamImpl());
+
+        HttpServletRequestImpl req = recycler != null ? recycler.reuseRequest(
+                request, chain, context) : null;
+        if (req == null)
+            req = buildHttpServletRequest(request, chain, context);
+        req.setAttribute(Cancellation.ATTRIBUTE, context.getCancellation());
+        req.setAsyncSupport(resp, new AsyncCompletion(ctx, request, response,
+                req, resp, context, recycler));
+
+        if (recycler != null)
+            chain.doFilter(recycler.facade(req), recycler.facade(resp));
+        else
+            chain.doFilter(req, resp);
+
+        interceptOnRequestSuccessed(ctx, request, response, context);
+
+        final AsyncContextImpl asyncContext = req.getAsyncContextImpl();
+        if (asyncContext != null) {
+            // parked requests of disconnected clients are not kept until timeout
+            context.getCancellation().onDisconnect(new Runnable() {
+                @Override
+                public void run() {
+                    asyncContext.fail(new ClosedChannelException());
+                }
+            });
+            asyncContext.dispatchReturned();
+            return true;
+        }
+
+        completeHttpServletRequest(ctx, request, response, resp);
+        if (recycler != null)
+            recycler.recycle(req, resp);
+        return false;
+    }
+
+    /**
+     * Flushes the servlet response and writes it on the event loop, or ends it
+     * if it is streamed.
+     */
+    protected void completeHttpServletRequest(final ChannelHandlerContext ctx,
+                                              final HttpRequest request, final FullHttpResponse response,
+                                              HttpServletResponseImpl resp) throws IOException {
+
+        resp.flushWriter();
+        ctx.channel().attr(RESPONSE_BODY).compareAndSet(
+                resp.getOutputStreamImpl(), null);
+
+        if (resp.isStreaming()) {
+            resp.getOutputStreamImpl().finishStreaming();
+        } else if (ctx.executor().inEventLoop()) {
+            writeResponse(ctx, request, response);
+        } else {
+            ctx.executor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    writeResponse(ctx, request, response);
+                }
+            });
+        }
+    }
+
+    protected void writeResponse(ChannelHandlerContext ctx,
+                                 HttpRequest request, FullHttpResponse response) {
+
+        boolean keepAlive = HttpHeaders.isKeepAlive(request)
+                && !ServletBridgeWebapp.get().isDraining();
 
         if (keepAlive) {
 
@@ -155,6 +614,8 @@ public class ServletBridgeHandler extends IdleStateHandler {
             // -
             // http://www.w3.org/Protocols/HTTP/1.1/draft-ietf-http-v11-spec-01.html#Connection
             response.headers().set(CONNECTION, HttpHeaders.Values.KEEP_ALIVE);
+        } else {
+            response.headers().set(CONNECTION, HttpHeaders.Values.CLOSE);
         }
 
         // write response...
@@ -236,6 +697,8 @@ public class ServletBridgeHandler extends IdleStateHandler {
             });
         }
 
+        // ends the response, so the next request of the connection can follow
+        ch.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT);
     }
 
     @Override
@@ -251,6 +714,11 @@ public class ServletBridgeHandler extends IdleStateHandler {
                 return;
             }
 
+            if (cause instanceof UnavailableException) {
+                sendError(ctx, SERVICE_UNAVAILABLE);
+                return;
+            }
+
             if (ch.isActive()) {
                 sendError(ctx, INTERNAL_SERVER_ERROR);
             }
@@ -269,7 +737,7 @@ public class ServletBridgeHandler extends IdleStateHandler {
         } catch (UnsupportedEncodingException e) {
         }
 
-        FullHttpResponse response = new DefaultFullHttpResponse(HTTP_1_1, OK, byteBuf);
+        FullHttpResponse response = new DefaultFullHttpResponse(HTTP_1_1, status, byteBuf);
         HttpHeaders headers = response.headers();
 
         headers.add(CONTENT_TYPE, "text/plain;charset=utf-8");
@@ -281,34 +749,43 @@ public class ServletBridgeHandler extends IdleStateHandler {
     }
 
     private void interceptOnRequestReceived(ChannelHandlerContext ctx,
-                                            HttpRequest request) {
+                                            HttpRequest request, RequestContext context) {
         if (interceptors != null) {
             for (ServletBridgeInterceptor interceptor : interceptors) {
-                interceptor.onRequestReceived(ctx, request);
+                if (interceptor instanceof RequestContextInterceptor)
+                    ((RequestContextInterceptor) interceptor).onRequestReceived(
+                            ctx, request, context);
+                else
+                    interceptor.onRequestReceived(ctx, request);
             }
         }
 
     }
 
     private void interceptOnRequestSuccessed(ChannelHandlerContext ctx,
-                                             HttpRequest request, HttpResponse response) {
+                                             HttpRequest request, HttpResponse response,
+                                             RequestContext context) {
         if (interceptors != null) {
             for (ServletBridgeInterceptor interceptor : interceptors) {
-                interceptor.onRequestSuccessed(ctx, request, response);
+                if (interceptor instanceof RequestContextInterceptor)
+                    ((RequestContextInterceptor) interceptor).onRequestSuccessed(
+                            ctx, request, response, context);
+                else
+                    interceptor.onRequestSuccessed(ctx, request, response);
             }
         }
 
     }
 
-    // private void interceptOnRequestFailed(ChannelHandlerContext ctx,
-    // ExceptionEvent e, HttpResponse response) {
-    // if (this.interceptors != null) {
-    // for (ServletBridgeInterceptor interceptor : this.interceptors) {
-    // interceptor.onRequestFailed(ctx, e, response);
-    // }
-    // }
-    //
-    // }
+    private void interceptOnRequestFailed(ChannelHandlerContext ctx,
+                                          Throwable e, HttpResponse response) {
+        if (interceptors != null) {
+            for (ServletBridgeInterceptor interceptor : interceptors) {
+                interceptor.onRequestFailed(ctx, e, response);
+            }
+        }
+
+    }
 
     protected HttpServletResponseImpl buildHttpServletResponse(
             FullHttpResponse response) {
@@ -316,14 +793,172 @@ public class ServletBridgeHandler extends IdleStateHandler {
     }
 
     protected HttpServletRequestImpl buildHttpServletRequest(
-            HttpRequest request, FilterChainImpl chain) {
-        return new HttpServletRequestImpl(request, chain);
+            HttpRequest request, FilterChainImpl chain, RequestContext context) {
+        return new HttpServletRequestImpl(request, chain, context);
     }
 
     private boolean isSslChannel(Channel ch) {
         return ch.pipeline().get(SslHandler.class) != null;
     }
 
+    private class ServletTask implements DispatchTask {
+
+        private final ChannelHandlerContext ctx;
+
+        private final HttpRequest request;
+
+        private final FilterChainImpl chain;
+
+        private final RequestContext context;
+
+        private final Object flowKey;
+
+        ServletTask(ChannelHandlerContext ctx, HttpRequest request,
+                    FilterChainImpl chain, RequestContext context) {
+            this.ctx = ctx;
+            this.request = request;
+            this.chain = chain;
+            this.context = context;
+
+            ServletBridgeWebapp webapp = ServletBridgeWebapp.get();
+            this.flowKey = webapp.getDispatcher().getSchedulingPolicy() != null ? webapp
+                    .getWebappConfig().getFairnessKey().resolve(ctx.channel(),
+                            request) : null;
+        }
+
+        @Override
+        public void run() {
+            // drops requests which got cancelled while they were queued
+            Cancellation cancellation = context.getCancellation();
+            if (cancellation.isCancelled()) {
+                reject(new RejectedExecutionException("Request dropped, "
+                        + cancellation.getReason()));
+                return;
+            }
+
+            boolean async = false;
+            try {
+                async = executeHttpServletRequest(ctx, request, chain, context);
+            } catch (final Throwable t) {
+                interceptOnRequestFailed(ctx, t, null);
+                if (ctx.executor().inEventLoop()) {
+                    exceptionCaught(ctx, t);
+                } else {
+                    ctx.executor().execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            exceptionCaught(ctx, t);
+                        }
+                    });
+                }
+            } finally {
+                if (!async) {
+                    context.release();
+                    ReferenceCountUtil.release(request);
+                }
+            }
+        }
+
+        @Override
+        public void reject(final RejectedExecutionException cause) {
+            context.release();
+            if (ctx.executor().inEventLoop()) {
+                rejectHttpServletRequest(ctx, request, chain, cause);
+            } else {
+                ctx.executor().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        rejectHttpServletRequest(ctx, request, chain, cause);
+                    }
+                });
+            }
+        }
+
+        @Override
+        public Object getFlowKey() {
+            return flowKey;
+        }
+    }
+
+    /**
+     * Writes the response of an asynchronous request once its context
+     * completed, on whatever thread completed it.
+     */
+    private class AsyncCompletion implements Runnable {
+
+        private final ChannelHandlerContext ctx;
+
+        private final HttpRequest request;
+
+        private final FullHttpResponse response;
+
+        private final HttpServletRequestImpl req;
+
+        private final HttpServletResponseImpl resp;
+
+        private final RequestContext context;
+
+        private final RequestRecycler recycler;
+
+        AsyncCompletion(ChannelHandlerContext ctx, HttpRequest request,
+                        FullHttpResponse response, HttpServletRequestImpl req,
+                        HttpServletResponseImpl resp, RequestContext context,
+                        RequestRecycler recycler) {
+            this.ctx = ctx;
+            this.request = request;
+            this.response = response;
+            this.req = req;
+            this.resp = resp;
+            this.context = context;
+            this.recycler = recycler;
+        }
+
+        @Override
+        public void run() {
+            try {
+                completeHttpServletRequest(ctx, request, response, resp);
+                if (recycler != null)
+                    recycler.recycle(req, resp);
+            } catch (final Throwable t) {
+                ctx.executor().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        exceptionCaught(ctx, t);
+                    }
+                });
+            } finally {
+                context.release();
+                ReferenceCountUtil.release(request);
+            }
+        }
+    }
+
+    /**
+     * Requests of a connection waiting for the response to the request before
+     * them. Only used on the event loop.
+     */
+    private static final class RequestPipeline {
+
+        private final Queue<Object> waiting = new ArrayDeque<Object>();
+
+        private boolean responding;
+    }
+
+    /**
+     * A request waiting for its body to be received.
+     */
+    private static final class PendingRequest {
+
+        private final HttpRequest request;
+
+        private final FilterChainImpl chain;
+
+        PendingRequest(HttpRequest request, FilterChainImpl chain) {
+            this.request = request;
+            this.chain = chain;
+        }
+    }
+
     public String getUriPrefix() {
         return uriPrefix;
     }
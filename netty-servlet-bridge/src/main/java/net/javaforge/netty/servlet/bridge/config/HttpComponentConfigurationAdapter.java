@@ -31,6 +31,8 @@ public abstract class HttpComponentConfigurationAdapter<COMP, CONFIG extends Con
 
     private static final String DEFAULT_URL_PATTERN = "/*";
 
+    private String[] urlPatterns;
+
     private String[] sanitizedUrlPatterns;
 
     private Pattern[] regexPatterns;
@@ -63,6 +65,7 @@ public abstract class HttpComponentConfigurationAdapter<COMP, CONFIG extends Con
                     "No url patterns were assigned to http component: "
                             + component);
 
+        this.urlPatterns = urlPatterns.clone();
         this.regexPatterns = new Pattern[urlPatterns.length];
         this.sanitizedUrlPatterns = new String[urlPatterns.length];
 
@@ -143,6 +146,10 @@ public abstract class HttpComponentConfigurationAdapter<COMP, CONFIG extends Con
 
     }
 
+    public String[] getUrlPatterns() {
+        return urlPatterns.clone();
+    }
+
     protected void addConfigInitParameter(String name, String value) {
         this.config.addInitParameter(name, value);
     }
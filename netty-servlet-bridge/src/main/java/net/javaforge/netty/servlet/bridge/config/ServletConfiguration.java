@@ -16,14 +16,68 @@
 
 package net.javaforge.netty.servlet.bridge.config;
 
+import net.javaforge.netty.servlet.bridge.dispatch.DispatchMode;
+import net.javaforge.netty.servlet.bridge.dispatch.Priority;
 import net.javaforge.netty.servlet.bridge.impl.ServletConfigImpl;
+import net.javaforge.netty.servlet.bridge.impl.ServletInstancePool;
+import net.javaforge.netty.servlet.bridge.util.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import javax.servlet.MultipartConfigElement;
 import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.UnavailableException;
+import javax.servlet.annotation.MultipartConfig;
 import javax.servlet.http.HttpServlet;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 public class ServletConfiguration extends
         HttpComponentConfigurationAdapter<HttpServlet, ServletConfigImpl> {
 
+    private static final Logger log = LoggerFactory
+            .getLogger(ServletConfiguration.class);
+
+    /**
+     * Default size up to which request bodies are aggregated.
+     */
+    public static final int DEFAULT_AGGREGATED_BODY_SIZE = 8 * 1024;
+
+    private DispatchMode dispatchMode;
+
+    private int maxConcurrency;
+
+    private int maxQueueDepth;
+
+    private int retryAfter = 1;
+
+    private long deadline;
+
+    private Priority priority = Priority.NORMAL;
+
+    private boolean queueBypass;
+
+    private int poolSize;
+
+    private long poolTimeout = 10000;
+
+    private int aggregatedBodySize = DEFAULT_AGGREGATED_BODY_SIZE;
+
+    private long maxRequestBodySize;
+
+    private int maxRequestHeaderSize;
+
+    private int maxRequestUriLength;
+
+    private long maxDecompressedBodySize;
+
+    private MultipartConfigElement multipartConfig;
+
+    private ServletInstancePool pool;
+
     public ServletConfiguration(Class<? extends HttpServlet> servletClazz,
                                 String... urlPatterns) {
         super(servletClazz, urlPatterns);
@@ -44,11 +98,90 @@ public class ServletConfiguration extends
     @Override
     protected void doInit() throws ServletException {
         this.component.init(this.config);
+
+        int size = this.poolSize;
+        if (size == 0 && this.isPooled())
+            size = Runtime.getRuntime().availableProcessors();
+
+        if (size > 0) {
+            List<HttpServlet> instances = new ArrayList<HttpServlet>(size);
+            instances.add(this.component);
+            boolean initialized = false;
+            try {
+                for (int i = 1; i < size; i++) {
+                    HttpServlet instance = Utils.newInstance(this.component
+                            .getClass());
+                    instance.init(this.config);
+                    instances.add(instance);
+                }
+                initialized = true;
+            } finally {
+                // an instance failing to initialize is not destroyed, but
+                // those initialized before it are
+                if (!initialized)
+                    destroy(instances);
+            }
+            this.pool = new ServletInstancePool(instances, this.poolTimeout);
+        }
+    }
+
+    private void destroy(List<HttpServlet> instances) {
+        for (HttpServlet instance : instances) {
+            try {
+                instance.destroy();
+            } catch (RuntimeException e) {
+                log.warn("Pooled instance of servlet '"
+                        + this.component.getClass().getName()
+                        + "' failed to be destroyed: " + e.getMessage());
+            }
+        }
     }
 
     @Override
     protected void doDestroy() throws ServletException {
-        this.component.destroy();
+        ServletInstancePool pool = this.pool;
+        if (pool == null) {
+            this.component.destroy();
+            return;
+        }
+
+        // the pool stays in place, so requests keep waiting for an instance
+        // rather than bypassing the pool while the instances are destroyed
+        for (int i = 0; i < pool.getSize(); i++) {
+            HttpServlet instance;
+            try {
+                instance = pool.checkOut();
+            } catch (UnavailableException e) {
+                log.warn("Pooled instance of servlet '"
+                        + this.component.getClass().getName()
+                        + "' still busy, not destroyed: " + e.getMessage());
+                continue;
+            }
+            instance.destroy();
+        }
+    }
+
+    /**
+     * Lets the servlet service the request, on an instance checked out of the
+     * pool if the servlet is pooled.
+     *
+     * @throws javax.servlet.UnavailableException if no pooled instance got idle
+     *                                            in time
+     */
+    public void service(ServletRequest request, ServletResponse response)
+            throws ServletException, IOException {
+        ServletInstancePool pool = this.pool;
+        if (pool == null) {
+            this.component.service(request, response);
+            return;
+        }
+
+        HttpServlet instance = pool.checkOut();
+        try {
+            instance.service(request, response);
+        } finally {
+            pool.checkIn(instance);
+        }
     }
 
     @Override
@@ -61,4 +194,308 @@ public class ServletConfiguration extends
         super.addConfigInitParameter(name, value);
         return this;
     }
+
+    /**
+     * Overrides the webapp wide dispatch mode for this servlet, e.g. to run
+     * cheap non-blocking servlets inline on the event loop. Pooled servlets
+     * can not run inline, see {@link #setPoolSize(int)}.
+     */
+    public ServletConfiguration setDispatchMode(DispatchMode dispatchMode) {
+        this.dispatchMode = dispatchMode;
+        return this;
+    }
+
+    /**
+     * @return the dispatch mode of this servlet or <code>null</code> if the
+     * webapp default applies
+     */
+    public DispatchMode getDispatchMode() {
+        return dispatchMode;
+    }
+
+    /**
+     * Limits the number of requests executed concurrently by this servlet, so a
+     * slow servlet can not take all workers. <code>0</code>, the default, means
+     * unlimited.
+     */
+    public ServletConfiguration setMaxConcurrency(int maxConcurrency) {
+        if (maxConcurrency < 0)
+            throw new IllegalArgumentException(
+                    "Max concurrency must not be negative: " + maxConcurrency);
+
+        this.maxConcurrency = maxConcurrency;
+        return this;
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    /**
+     * Sets the number of requests waiting for a permit if the concurrency limit
+     * is reached. Further requests are rejected with a 503. Defaults to
+     * <code>0</code>, i.e. reject right away.
+     */
+    public ServletConfiguration setMaxQueueDepth(int maxQueueDepth) {
+        if (maxQueueDepth < 0)
+            throw new IllegalArgumentException(
+                    "Max queue depth must not be negative: " + maxQueueDepth);
+
+        this.maxQueueDepth = maxQueueDepth;
+        return this;
+    }
+
+    public int getMaxQueueDepth() {
+        return maxQueueDepth;
+    }
+
+    /**
+     * Sets the <code>Retry-After</code> seconds sent with rejected requests,
+     * defaults to <code>1</code>.
+     */
+    public ServletConfiguration setRetryAfter(int retryAfter) {
+        if (retryAfter < 0)
+            throw new IllegalArgumentException(
+                    "Retry after must not be negative: " + retryAfter);
+
+        this.retryAfter = retryAfter;
+        return this;
+    }
+
+    public int getRetryAfter() {
+        return retryAfter;
+    }
+
+    /**
+     * Sets the time in milliseconds requests of this servlet may take from
+     * their arrival. Requests still queued when their deadline passed are
+     * dropped with a 503, servlets may check the
+     * {@link net.javaforge.netty.servlet.bridge.dispatch.Cancellation} of a
+     * running request. Defaults to <code>0</code>, i.e. no deadline.
+     */
+    public ServletConfiguration setDeadline(long deadline) {
+        if (deadline < 0)
+            throw new IllegalArgumentException(
+                    "Deadline must not be negative: " + deadline);
+
+        this.deadline = deadline;
+        return this;
+    }
+
+    public long getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * Sets the priority class of the requests of this servlet, used if the
+     * webapp has a
+     * {@link net.javaforge.netty.servlet.bridge.dispatch.SchedulingPolicy}.
+     * Defaults to {@link Priority#NORMAL}.
+     */
+    public ServletConfiguration setPriority(Priority priority) {
+        if (priority == null)
+            throw new IllegalArgumentException("Priority is required!");
+
+        this.priority = priority;
+        return this;
+    }
+
+    public Priority getPriority() {
+        return priority;
+    }
+
+    /**
+     * Lets requests of this servlet, e.g. health checks or admin pages, skip
+     * the concurrency limiter and, if the webapp has a scheduling policy, jump
+     * the queue of the workers, so they are served while the webapp is
+     * overloaded. Its bulkhead, if any, still applies.
+     */
+    public ServletConfiguration setQueueBypass(boolean queueBypass) {
+        this.queueBypass = queueBypass;
+        return this;
+    }
+
+    public boolean isQueueBypass() {
+        return queueBypass;
+    }
+
+    /**
+     * Serves the requests of this servlet, which is not thread-safe, by a pool
+     * of instances, each initialized with the config of this servlet and
+     * serving one request at a time. The servlet class needs a public no-arg
+     * constructor. Servlets implementing <code>SingleThreadModel</code> get one
+     * instance per core by default, <code>0</code> means a single instance
+     * serving all requests concurrently.
+     */
+    public ServletConfiguration setPoolSize(int poolSize) {
+        if (poolSize < 0)
+            throw new IllegalArgumentException(
+                    "Pool size must not be negative: " + poolSize);
+
+        this.poolSize = poolSize;
+        return this;
+    }
+
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    /**
+     * @return <code>true</code> if the requests of this servlet are served by a
+     * pool of instances
+     */
+    @SuppressWarnings("deprecation") // SingleThreadModel is honoured while it lasts
+    public boolean isPooled() {
+        return this.poolSize > 0
+                || this.component instanceof javax.servlet.SingleThreadModel;
+    }
+
+    /**
+     * Sets how long a request waits for an idle pooled instance in
+     * milliseconds before it fails with a 503. Defaults to 10 seconds.
+     */
+    public ServletConfiguration setPoolTimeout(long poolTimeout) {
+        if (poolTimeout < 0)
+            throw new IllegalArgumentException(
+                    "Pool timeout must not be negative: " + poolTimeout);
+
+        this.poolTimeout = poolTimeout;
+        return this;
+    }
+
+    public long getPoolTimeout() {
+        return poolTimeout;
+    }
+
+    /**
+     * Sets the size up to which request bodies are received completely before
+     * the servlet is run. Larger bodies, or bodies of unknown length once they
+     * exceed it, are streamed to the servlet as they arrive. <code>0</code>
+     * streams all bodies. Defaults to 8 KB.
+     */
+    public ServletConfiguration setAggregatedBodySize(int aggregatedBodySize) {
+        if (aggregatedBodySize < 0)
+            throw new IllegalArgumentException(
+                    "Aggregated body size must not be negative: "
+                            + aggregatedBodySize);
+
+        this.aggregatedBodySize = aggregatedBodySize;
+        return this;
+    }
+
+    public int getAggregatedBodySize() {
+        return aggregatedBodySize;
+    }
+
+    /**
+     * Sets the size above which request bodies are refused with a
+     * <code>413</code>: right away if announced by the Content-Length, else as
+     * soon as the body outgrows it. <code>0</code> for no limit, the default.
+     */
+    public ServletConfiguration setMaxRequestBodySize(long maxRequestBodySize) {
+        if (maxRequestBodySize < 0)
+            throw new IllegalArgumentException(
+                    "Max request body size must not be negative: "
+                            + maxRequestBodySize);
+
+        this.maxRequestBodySize = maxRequestBodySize;
+        return this;
+    }
+
+    public long getMaxRequestBodySize() {
+        return maxRequestBodySize;
+    }
+
+    /**
+     * Sets the size of the request headers, names and values, above which
+     * requests are refused with a <code>431</code>. <code>0</code> for no
+     * limit, the default.
+     */
+    public ServletConfiguration setMaxRequestHeaderSize(int maxRequestHeaderSize) {
+        if (maxRequestHeaderSize < 0)
+            throw new IllegalArgumentException(
+                    "Max request header size must not be negative: "
+                            + maxRequestHeaderSize);
+
+        this.maxRequestHeaderSize = maxRequestHeaderSize;
+        return this;
+    }
+
+    public int getMaxRequestHeaderSize() {
+        return maxRequestHeaderSize;
+    }
+
+    /**
+     * Sets the length of the request uri above which requests are refused
+     * with a <code>414</code>. <code>0</code> for no limit, the default.
+     */
+    public ServletConfiguration setMaxRequestUriLength(int maxRequestUriLength) {
+        if (maxRequestUriLength < 0)
+            throw new IllegalArgumentException(
+                    "Max request uri length must not be negative: "
+                            + maxRequestUriLength);
+
+        this.maxRequestUriLength = maxRequestUriLength;
+        return this;
+    }
+
+    public int getMaxRequestUriLength() {
+        return maxRequestUriLength;
+    }
+
+    /**
+     * Enables the decompression of request bodies with a gzip or deflate
+     * Content-Encoding: they are decompressed as they arrive, up to this size,
+     * and read by the servlet as plain bodies of unknown length. Larger bodies
+     * are refused with a <code>413</code> while aggregated, else reading them
+     * fails. <code>0</code> passes compressed bodies on as they are, the
+     * default.
+     */
+    public ServletConfiguration setMaxDecompressedBodySize(
+            long maxDecompressedBodySize) {
+        if (maxDecompressedBodySize < 0)
+            throw new IllegalArgumentException(
+                    "Max decompressed body size must not be negative: "
+                            + maxDecompressedBodySize);
+
+        this.maxDecompressedBodySize = maxDecompressedBodySize;
+        return this;
+    }
+
+    public long getMaxDecompressedBodySize() {
+        return maxDecompressedBodySize;
+    }
+
+    /**
+     * Sets the location, the size limits and the threshold above which parts
+     * are spilled to disk for multipart requests of this servlet. Overrides a
+     * {@link MultipartConfig} annotation of the servlet class.
+     */
+    public ServletConfiguration setMultipartConfig(
+            MultipartConfigElement multipartConfig) {
+        this.multipartConfig = multipartConfig;
+        return this;
+    }
+
+    /**
+     * @return the multipart configuration, either set or declared by the
+     * servlet class, or <code>null</code> if there is none
+     */
+    public MultipartConfigElement getMultipartConfig() {
+        if (this.multipartConfig == null) {
+            MultipartConfig annotation = this.component.getClass()
+                    .getAnnotation(MultipartConfig.class);
+            if (annotation != null)
+                this.multipartConfig = new MultipartConfigElement(annotation);
+        }
+        return multipartConfig;
+    }
+
+    /**
+     * @return the instance pool or <code>null</code> if the servlet is not
+     * pooled or not initialized
+     */
+    public ServletInstancePool getPool() {
+        return pool;
+    }
 }
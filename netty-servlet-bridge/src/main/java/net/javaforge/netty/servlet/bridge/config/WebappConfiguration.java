@@ -16,11 +16,20 @@
 
 package net.javaforge.netty.servlet.bridge.config;
 
+import net.javaforge.netty.servlet.bridge.dispatch.AdaptiveLimiter;
+import net.javaforge.netty.servlet.bridge.dispatch.DispatchMode;
+import net.javaforge.netty.servlet.bridge.dispatch.Dispatcher;
+import net.javaforge.netty.servlet.bridge.dispatch.FairnessKey;
+import net.javaforge.netty.servlet.bridge.dispatch.SchedulingPolicy;
+import net.javaforge.netty.servlet.bridge.impl.RecycleMode;
+import net.javaforge.netty.servlet.bridge.impl.ServletOutputStreamImpl;
+
 import javax.servlet.Filter;
 import javax.servlet.ServletContextListener;
 import javax.servlet.http.HttpServlet;
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.Executor;
 
 public class WebappConfiguration {
 
@@ -38,6 +47,38 @@ public class WebappConfiguration {
 
     private File staticResourcesFolder;
 
+    private int routeCacheSize = 0;
+
+    private Executor dispatchExecutor;
+
+    private DispatchMode dispatchMode;
+
+    private AdaptiveLimiter concurrencyLimiter;
+
+    private long asyncTimeout = 30000;
+
+    private long drainTimeout = 30000;
+
+    private int workersPerEventLoop = Dispatcher.DEFAULT_THREADS_PER_LOOP;
+
+    private SchedulingPolicy schedulingPolicy;
+
+    private FairnessKey fairnessKey = FairnessKey.CLIENT_ADDRESS;
+
+    private int responseBufferSize = ServletOutputStreamImpl.DEFAULT_BUFFER_SIZE;
+
+    private int writeBufferLowWaterMark;
+
+    private int writeBufferHighWaterMark;
+
+    private int pendingRequestLowWaterMark;
+
+    private int pendingRequestHighWaterMark;
+
+    private int requestBodyBufferSize = 64 * 1024;
+
+    private RecycleMode recycleMode = RecycleMode.NONE;
+
     public WebappConfiguration addContextParameter(String name, String value) {
 
         if (this.contextParameters == null)
@@ -239,4 +280,258 @@ public class WebappConfiguration {
     public File getStaticResourcesFolder() {
         return staticResourcesFolder;
     }
+
+    /**
+     * Enables caching of resolved routes (servlet, filters and servlet path)
+     * by request path. Worth enabling if wildcard url patterns, which can not
+     * be resolved by the mapping trie, are registered.
+     *
+     * @param routeCacheSize maximum number of cached paths, <code>0</code>
+     *                       disables the cache
+     */
+    public WebappConfiguration setRouteCacheSize(int routeCacheSize) {
+        if (routeCacheSize < 0)
+            throw new IllegalArgumentException(
+                    "Route cache size must be not negative!");
+
+        this.routeCacheSize = routeCacheSize;
+        return this;
+    }
+
+    public int getRouteCacheSize() {
+        return routeCacheSize;
+    }
+
+    /**
+     * Sets the executor servlets are run on when dispatched in
+     * {@link DispatchMode#WORKER} mode, e.g. a bounded thread pool or a
+     * {@link java.util.concurrent.ForkJoinPool}. The executor is owned by the
+     * caller and is not shut down by the bridge.
+     */
+    public WebappConfiguration setDispatchExecutor(Executor dispatchExecutor) {
+        this.dispatchExecutor = dispatchExecutor;
+        return this;
+    }
+
+    public Executor getDispatchExecutor() {
+        return dispatchExecutor;
+    }
+
+    public WebappConfiguration setDispatchMode(DispatchMode dispatchMode) {
+        this.dispatchMode = dispatchMode;
+        return this;
+    }
+
+    /**
+     * @return the default dispatch mode of servlets. Unless set explicitly it
+     * is {@link DispatchMode#WORKER} if a dispatch executor is configured and
+     * {@link DispatchMode#INLINE} otherwise.
+     */
+    public DispatchMode getDispatchMode() {
+        if (this.dispatchMode != null)
+            return this.dispatchMode;
+
+        return this.dispatchExecutor != null ? DispatchMode.WORKER
+                : DispatchMode.INLINE;
+    }
+
+    /**
+     * Sets the size of the worker pool each event loop gets in
+     * {@link DispatchMode#EVENT_LOOP_WORKER} mode. Defaults to
+     * {@link Dispatcher#DEFAULT_THREADS_PER_LOOP}.
+     */
+    public WebappConfiguration setWorkersPerEventLoop(int workersPerEventLoop) {
+        if (workersPerEventLoop <= 0)
+            throw new IllegalArgumentException(
+                    "Workers per event loop must be positive: "
+                            + workersPerEventLoop);
+
+        this.workersPerEventLoop = workersPerEventLoop;
+        return this;
+    }
+
+    public int getWorkersPerEventLoop() {
+        return workersPerEventLoop;
+    }
+
+    /**
+     * Sets the policy ordering the requests queued for workers, e.g. a
+     * {@link net.javaforge.netty.servlet.bridge.dispatch.WeightedFairPolicy}.
+     * Defaults to <code>null</code>, i.e. first come, first served.
+     */
+    public WebappConfiguration setSchedulingPolicy(
+            SchedulingPolicy schedulingPolicy) {
+        this.schedulingPolicy = schedulingPolicy;
+        return this;
+    }
+
+    public SchedulingPolicy getSchedulingPolicy() {
+        return schedulingPolicy;
+    }
+
+    /**
+     * Sets what requests are grouped into flows by for fair scheduling.
+     * Defaults to {@link FairnessKey#CLIENT_ADDRESS}.
+     */
+    public WebappConfiguration setFairnessKey(FairnessKey fairnessKey) {
+        if (fairnessKey == null)
+            throw new IllegalArgumentException("Fairness key is required!");
+
+        this.fairnessKey = fairnessKey;
+        return this;
+    }
+
+    public FairnessKey getFairnessKey() {
+        return fairnessKey;
+    }
+
+    /**
+     * Sets an admission controller limiting the requests in flight across all
+     * servlets. Requests beyond the limit are rejected with a 503 before any
+     * servlet work starts.
+     */
+    public WebappConfiguration setConcurrencyLimiter(
+            AdaptiveLimiter concurrencyLimiter) {
+        this.concurrencyLimiter = concurrencyLimiter;
+        return this;
+    }
+
+    public AdaptiveLimiter getConcurrencyLimiter() {
+        return concurrencyLimiter;
+    }
+
+    /**
+     * Sets the default timeout of asynchronous requests in milliseconds, zero
+     * or less means no timeout. Defaults to 30 seconds.
+     */
+    public WebappConfiguration setAsyncTimeout(long asyncTimeout) {
+        this.asyncTimeout = asyncTimeout;
+        return this;
+    }
+
+    public long getAsyncTimeout() {
+        return asyncTimeout;
+    }
+
+    /**
+     * Sets how long a shutdown waits for in-flight requests in milliseconds
+     * before the webapp is destroyed, zero or less means no drain. Defaults to
+     * 30 seconds.
+     */
+    public WebappConfiguration setDrainTimeout(long drainTimeout) {
+        this.drainTimeout = drainTimeout;
+        return this;
+    }
+
+    public long getDrainTimeout() {
+        return drainTimeout;
+    }
+
+    /**
+     * Sets the default size a response body may grow to before it is streamed
+     * to the client, servlets may change it per response. Defaults to 64 KB.
+     */
+    public WebappConfiguration setResponseBufferSize(int responseBufferSize) {
+        if (responseBufferSize < 0)
+            throw new IllegalArgumentException(
+                    "Response buffer size must not be negative: "
+                            + responseBufferSize);
+
+        this.responseBufferSize = responseBufferSize;
+        return this;
+    }
+
+    public int getResponseBufferSize() {
+        return responseBufferSize;
+    }
+
+    /**
+     * Sets the write buffer water marks of the channels in bytes: writers of
+     * streamed responses block once the outbound buffer of a channel exceeds
+     * the high mark, until it drains below the low mark. Netty's defaults
+     * apply unless set.
+     */
+    public WebappConfiguration setWriteBufferWaterMarks(int low, int high) {
+        if (low < 0 || high <= 0 || low > high)
+            throw new IllegalArgumentException("Invalid water marks: low="
+                    + low + ", high=" + high);
+
+        this.writeBufferLowWaterMark = low;
+        this.writeBufferHighWaterMark = high;
+        return this;
+    }
+
+    public int getWriteBufferLowWaterMark() {
+        return writeBufferLowWaterMark;
+    }
+
+    /**
+     * @return the high water mark or <code>0</code> if Netty's default applies
+     */
+    public int getWriteBufferHighWaterMark() {
+        return writeBufferHighWaterMark;
+    }
+
+    /**
+     * Throttles reading: once the requests waiting for a worker reach the high
+     * mark, the channels delivering further requests and the server channels
+     * stop reading, until the queue drained to the low mark. Disabled unless
+     * set.
+     */
+    public WebappConfiguration setPendingRequestWaterMarks(int low, int high) {
+        if (low < 0 || high <= 0 || low > high)
+            throw new IllegalArgumentException("Invalid water marks: low="
+                    + low + ", high=" + high);
+
+        this.pendingRequestLowWaterMark = low;
+        this.pendingRequestHighWaterMark = high;
+        return this;
+    }
+
+    public int getPendingRequestLowWaterMark() {
+        return pendingRequestLowWaterMark;
+    }
+
+    /**
+     * @return the high water mark or <code>0</code> if reading is not throttled
+     */
+    public int getPendingRequestHighWaterMark() {
+        return pendingRequestHighWaterMark;
+    }
+
+    /**
+     * Sets how many bytes of a streamed request body may wait to be read by
+     * the servlet before reading from the channel is suspended. Defaults to
+     * 64 KB, <code>0</code> means no limit.
+     */
+    public WebappConfiguration setRequestBodyBufferSize(int requestBodyBufferSize) {
+        if (requestBodyBufferSize < 0)
+            throw new IllegalArgumentException(
+                    "Request body buffer size must not be negative: "
+                            + requestBodyBufferSize);
+
+        this.requestBodyBufferSize = requestBodyBufferSize;
+        return this;
+    }
+
+    public int getRequestBodyBufferSize() {
+        return requestBodyBufferSize;
+    }
+
+    /**
+     * Sets whether the servlet requests and responses of a connection are
+     * reused for its following requests. Defaults to
+     * {@link RecycleMode#NONE}.
+     */
+    public WebappConfiguration setRecycleMode(RecycleMode recycleMode) {
+        if (recycleMode == null)
+            throw new IllegalArgumentException("Recycle mode must not be null");
+
+        this.recycleMode = recycleMode;
+        return this;
+    }
+
+    public RecycleMode getRecycleMode() {
+        return recycleMode;
+    }
 }
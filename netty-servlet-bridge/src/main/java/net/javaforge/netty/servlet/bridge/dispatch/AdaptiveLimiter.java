@@ -0,0 +1,145 @@
+/*
+ * Copyright 2013 by Maxim Kalina
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.javaforge.netty.servlet.bridge.dispatch;
+
+/**
+ * Admission controller adjusting the number of requests allowed in flight to
+ * the observed round trip times, following the gradient algorithm: the limit
+ * is scaled by the ratio of the long term average RTT to the latest RTT, plus
+ * some headroom for queueing. Growing latency shrinks the limit, steady
+ * latency lets it grow until latency starts growing.
+ * <p/>
+ * The RTT of a request is measured from its admission until the filter chain
+ * returns, so time spent waiting for a worker counts as well.
+ */
+public class AdaptiveLimiter {
+
+    private static final double SMOOTHING = 0.2;
+
+    private static final double LONG_RTT_WINDOW = 600;
+
+    private final int minLimit;
+
+    private final int maxLimit;
+
+    private double limit;
+
+    private double longRtt;
+
+    private int inFlight;
+
+    private long rejectedCount;
+
+    private long sampleCount;
+
+    public AdaptiveLimiter() {
+        this(20, 1, 1000);
+    }
+
+    public AdaptiveLimiter(int initialLimit, int minLimit, int maxLimit) {
+        if (minLimit <= 0 || minLimit > maxLimit || initialLimit < minLimit
+                || initialLimit > maxLimit)
+            throw new IllegalArgumentException("Invalid limits: initial="
+                    + initialLimit + ", min=" + minLimit + ", max=" + maxLimit);
+
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+    }
+
+    /**
+     * @return <code>true</code> if the request is admitted, in which case
+     * {@link #release(long)} must be called once it is done
+     */
+    public synchronized boolean tryAcquire() {
+        if (this.inFlight >= (int) this.limit) {
+            this.rejectedCount++;
+            return false;
+        }
+
+        this.inFlight++;
+        return true;
+    }
+
+    /**
+     * Returns the permit of an admitted request.
+     *
+     * @param rttNanos the round trip time of the request or a negative value if
+     *                 the request has not been executed, e.g. because it was
+     *                 rejected later on
+     */
+    public synchronized void release(long rttNanos) {
+        int wasInFlight = this.inFlight--;
+        if (rttNanos < 0)
+            return;
+
+        this.sampleCount++;
+        double rtt = Math.max(rttNanos, 1);
+        if (this.longRtt == 0) {
+            this.longRtt = rtt;
+            return;
+        }
+
+        this.longRtt += (rtt - this.longRtt)
+                / Math.min(this.sampleCount, LONG_RTT_WINDOW);
+
+        // let the baseline recover quickly after a sustained latency change
+        if (this.longRtt / rtt > 2)
+            this.longRtt *= 0.95;
+
+        // do not grow a limit the load does not reach
+        if (wasInFlight < this.limit / 2)
+            return;
+
+        double gradient = Math.max(0.5, Math.min(1.0, this.longRtt / rtt));
+        double newLimit = this.limit * gradient + Math.sqrt(this.limit);
+        newLimit = this.limit * (1 - SMOOTHING) + newLimit * SMOOTHING;
+        this.limit = Math.max(this.minLimit, Math.min(this.maxLimit, newLimit));
+    }
+
+    public synchronized int getLimit() {
+        return (int) this.limit;
+    }
+
+    public synchronized int getInFlight() {
+        return this.inFlight;
+    }
+
+    public synchronized long getRejectedCount() {
+        return this.rejectedCount;
+    }
+
+    public synchronized double getLongRttMillis() {
+        return this.longRtt / 1000000d;
+    }
+
+    public int getMinLimit() {
+        return minLimit;
+    }
+
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "AdaptiveLimiter[limit=" + getLimit() + ", inFlight="
+                + this.inFlight + ", rejected=" + this.rejectedCount
+                + ", longRttMs=" + getLongRttMillis() + "]";
+    }
+
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2013 by Maxim Kalina
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.javaforge.netty.servlet.bridge.dispatch;
+
+import net.javaforge.netty.servlet.bridge.util.CannedResponse;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Limits the number of requests of one servlet mapping executed concurrently.
+ * Requests beyond the limit wait in a bounded queue of their own, so they
+ * neither occupy workers nor delay requests of other mappings. Requests
+ * exceeding the queue are rejected right away.
+ */
+public class Bulkhead {
+
+    private final String name;
+
+    private final int maxConcurrency;
+
+    private final int maxQueueDepth;
+
+    private final CannedResponse rejectionResponse;
+
+    private final Queue<Runnable> queue = new ArrayDeque<Runnable>();
+
+    private int activeCount;
+
+    private long rejectedCount;
+
+    public Bulkhead(String name, int maxConcurrency, int maxQueueDepth,
+                    int retryAfterSeconds) {
+        if (maxConcurrency <= 0)
+            throw new IllegalArgumentException(
+                    "Max concurrency must be positive: " + maxConcurrency);
+
+        this.name = name;
+        this.maxConcurrency = maxConcurrency;
+        this.maxQueueDepth = Math.max(0, maxQueueDepth);
+        this.rejectionResponse = CannedResponse
+                .serviceUnavailable(retryAfterSeconds);
+    }
+
+    /**
+     * @param task the task to queue if no permit is available
+     * @return <code>true</code> if a permit was acquired and the caller has to
+     * run the task, <code>false</code> if the task was queued and will be run
+     * by the thread releasing a permit
+     * @throws RejectedExecutionException if the queue is full
+     */
+    synchronized boolean acquire(Runnable task) {
+        if (this.activeCount < this.maxConcurrency) {
+            this.activeCount++;
+            return true;
+        }
+
+        if (this.queue.size() < this.maxQueueDepth) {
+            this.queue.offer(task);
+            return false;
+        }
+
+        this.rejectedCount++;
+        throw new RejectedExecutionException("Bulkhead '" + this.name
+                + "' is full");
+    }
+
+    /**
+     * @return the next queued task, which takes over the permit of the
+     * releasing one, or <code>null</code> if the permit was returned
+     */
+    synchronized Runnable release() {
+        Runnable next = this.queue.poll();
+        if (next == null)
+            this.activeCount--;
+
+        return next;
+    }
+
+    public CannedResponse getRejectionResponse() {
+        return rejectionResponse;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    public int getMaxQueueDepth() {
+        return maxQueueDepth;
+    }
+
+    public synchronized int getActiveCount() {
+        return this.activeCount;
+    }
+
+    public synchronized int getQueuedCount() {
+        return this.queue.size();
+    }
+
+    public synchronized long getRejectedCount() {
+        return this.rejectedCount;
+    }
+
+    @Override
+    public String toString() {
+        return "Bulkhead[" + this.name + ", active=" + getActiveCount() + "/"
+                + this.maxConcurrency + ", queued=" + getQueuedCount() + "/"
+                + this.maxQueueDepth + ", rejected=" + getRejectedCount() + "]";
+    }
+
+}
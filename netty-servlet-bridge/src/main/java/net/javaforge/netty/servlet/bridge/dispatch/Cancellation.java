@@ -0,0 +1,137 @@
+/*
+ * Copyright 2013 by Maxim Kalina
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.javaforge.netty.servlet.bridge.dispatch;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+
+import javax.servlet.ServletRequest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Request-scoped cancellation signal: a request is cancelled once the client
+ * disconnected, i.e. the close future of its channel is done, or its deadline
+ * passed. Requests cancelled while queued are dropped before they are
+ * executed, long running servlets may check {@link #isCancelled()} to stop
+ * early:
+ * <pre>
+ * Cancellation cancellation = Cancellation.of(request);
+ * while (cancellation == null || !cancellation.isCancelled()) { ... }
+ * </pre>
+ */
+public class Cancellation {
+
+    /**
+     * Name of the request attribute holding the cancellation of a request.
+     */
+    public static final String ATTRIBUTE = Cancellation.class.getName();
+
+    private final Channel channel;
+
+    private final long deadline;
+
+    private List<ChannelFutureListener> disconnectListeners;
+
+    /**
+     * @param timeoutMillis the time the request may take from now on, zero or
+     *                      less means no deadline
+     */
+    public Cancellation(Channel channel, long timeoutMillis) {
+        this.channel = channel;
+        this.deadline = timeoutMillis > 0 ? System.nanoTime()
+                + TimeUnit.MILLISECONDS.toNanos(timeoutMillis) : 0;
+    }
+
+    /**
+     * @return the cancellation of the request or <code>null</code> if the
+     * request was not received by the bridge
+     */
+    public static Cancellation of(ServletRequest request) {
+        return (Cancellation) request.getAttribute(ATTRIBUTE);
+    }
+
+    public boolean isCancelled() {
+        return isDisconnected() || isDeadlineExceeded();
+    }
+
+    public boolean isDisconnected() {
+        return this.channel.closeFuture().isDone();
+    }
+
+    public boolean isDeadlineExceeded() {
+        return this.deadline != 0 && System.nanoTime() - this.deadline >= 0;
+    }
+
+    /**
+     * @return the milliseconds left until the deadline, or
+     * {@link Long#MAX_VALUE} if the request has no deadline
+     */
+    public long getRemainingMillis() {
+        if (this.deadline == 0)
+            return Long.MAX_VALUE;
+
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(this.deadline
+                - System.nanoTime()));
+    }
+
+    /**
+     * @return why the request is cancelled or <code>null</code> if it is not
+     */
+    public String getReason() {
+        if (isDisconnected())
+            return "client disconnected";
+
+        return isDeadlineExceeded() ? "deadline exceeded" : null;
+    }
+
+    /**
+     * Runs the callback on the event loop of the channel if the client
+     * disconnects before the request is released.
+     */
+    public synchronized void onDisconnect(final Runnable callback) {
+        ChannelFutureListener listener = new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future) {
+                callback.run();
+            }
+        };
+
+        if (this.disconnectListeners == null)
+            this.disconnectListeners = new ArrayList<ChannelFutureListener>(1);
+
+        this.disconnectListeners.add(listener);
+        this.channel.closeFuture().addListener(listener);
+    }
+
+    /**
+     * Removes the disconnect callbacks once the request is done, so they do not
+     * pile up on keep-alive channels.
+     */
+    public synchronized void release() {
+        if (this.disconnectListeners == null)
+            return;
+
+        for (ChannelFutureListener listener : this.disconnectListeners)
+            this.channel.closeFuture().removeListener(listener);
+
+        this.disconnectListeners = null;
+    }
+
+}
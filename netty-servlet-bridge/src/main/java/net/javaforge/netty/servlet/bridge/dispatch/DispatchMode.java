@@ -0,0 +1,50 @@
+/*
+ * Copyright 2013 by Maxim Kalina
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.javaforge.netty.servlet.bridge.dispatch;
+
+/**
+ * Defines on which thread the filter chain of a request is executed.
+ */
+public enum DispatchMode {
+
+    /**
+     * Run the filter chain directly on the event loop which decoded the
+     * request. Only suitable for servlets which never block.
+     */
+    INLINE,
+
+    /**
+     * Hand the filter chain over to the configured worker executor, the
+     * response is written back on the event loop of the channel.
+     */
+    WORKER,
+
+    /**
+     * Hand the filter chain over to a worker pool of the event loop which
+     * decoded the request, see {@link EventLoopWorkers}. Unlike
+     * {@link #WORKER}, event loops do not share a single executor queue.
+     */
+    EVENT_LOOP_WORKER,
+
+    /**
+     * Run the filter chain on a new virtual thread (requires Java 21+). Blocking
+     * servlets then only park their virtual thread, no worker pool has to be
+     * sized for them.
+     */
+    VIRTUAL_THREAD
+
+}
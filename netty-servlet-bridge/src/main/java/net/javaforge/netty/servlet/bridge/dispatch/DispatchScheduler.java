@@ -0,0 +1,167 @@
+/*
+ * Copyright 2013 by Maxim Kalina
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package net.javaforge.netty.servlet.bridge.dispatch;
+
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Queue in front of the worker executors, ordered by a
+ * {@link SchedulingPolicy} instead of first come, first served. For every
+ * queued request a placeholder is handed to the executor, the worker picking
+ * it up runs whatever request the policy selects at that time. Requests
+ * bypassing the queue are run by the next free worker, ahead of all classes.
+ */
+public class DispatchScheduler {
+
+    private final SchedulingPolicy policy;
+
+    private final ArrayDeque<ScheduledTask> bypassing = new ArrayDeque<ScheduledTask>();
+
+    private final Map<Priority, QueueStatistics> statistics = new EnumMap<Priority, QueueStatistics>(
+            Priority.class);
+
+    /**
+     * Queued requests without a placeholder in an executor, because their
+     * placeholder was rejected after another worker took the request.
+     */
+    private int orphans;
+
+    public DispatchScheduler(SchedulingPolicy policy) {
+        if (policy == null)
+            throw new IllegalArgumentException("Scheduling policy is required!");
+
+        this.policy = policy;
+        for (Priority priority : Priority.values())
+            this.statistics.put(priority, new QueueStatistics(priority));
+    }
+
+    /**
+     * Queues the task and hands a placeholder to the executor.
+     *
+     * @throws RejectedExecutionException if the executor does not accept the
+     *                                    placeholder and the task is still
+     *                                    queued
+     */
+    public void execute(Executor target, Runnable task, Priority priority,
+                        Object flowKey) {
+        ScheduledTask scheduled = new ScheduledTask(task, priority, flowKey);
+        synchronized (this) {
+            this.policy.offer(scheduled);
+            this.statistics.get(priority).recordQueued();
+        }
+
+        this.handOver(target, scheduled);
+    }
+
+    /**
+     * Queues the task ahead of all priority classes and hands a placeholder to
+     * the executor.
+     *
+     * @throws RejectedExecutionException if the executor does not accept the
+     *                                    placeholder and the task is still
+     *                                    queued
+     */
+    public void executeFirst(Executor target, Runnable task) {
+        ScheduledTask scheduled = new ScheduledTask(task, null, null);
+        synchronized (this) {
+            this.bypassing.offer(scheduled);
+        }
+
+        this.handOver(target, scheduled);
+    }
+
+    private void handOver(Executor target, ScheduledTask scheduled) {
+        try {
+            target.execute(new Placeholder());
+        } catch (RejectedExecutionException e) {
+            synchronized (this) {
+                if (this.remove(scheduled))
+                    throw e;
+
+                // another worker took the task, one queued task lacks a worker
+                this.orphans++;
+            }
+        }
+    }
+
+    private boolean remove(ScheduledTask task) {
+        if (task.getPriority() == null)
+            return this.bypassing.remove(task);
+
+        if (!this.policy.remove(task))
+            return false;
+
+        this.statistics.get(task.getPriority()).recordRemoved();
+        return true;
+    }
+
+    private synchronized ScheduledTask next(boolean orphan) {
+        if (orphan && this.orphans == 0)
+            return null;
+
+        ScheduledTask task = this.bypassing.poll();
+        if (task == null) {
+            task = this.policy.poll();
+            if (task != null)
+                this.statistics.get(task.getPriority()).recordDequeued(
+                        System.nanoTime() - task.getQueuedAt());
+        }
+
+        if (orphan && task != null)
+            this.orphans--;
+
+        return task;
+    }
+
+    public SchedulingPolicy getPolicy() {
+        return policy;
+    }
+
+    public QueueStatistics getStatistics(Priority priority) {
+        return this.statistics.get(priority);
+    }
+
+    @Override
+    public String toString() {
+        return "DispatchScheduler" + this.statistics.values();
+    }
+
+    /**
+     * Runs the task selected by the policy, then the tasks left without a
+     * worker, if any.
+     */
+    private final class Placeholder implements Runnable {
+
+        @Override
+        public void run() {
+            ScheduledTask task = next(false);
+            while (task != null) {
+                try {
+                    task.getTask().run();
+                } finally {
+                    task = next(true);
+                }
+            }
+        }
+    }
+
+}
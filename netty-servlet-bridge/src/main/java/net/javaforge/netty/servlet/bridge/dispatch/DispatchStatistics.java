@@ -0,0 +1,129 @@
+/*
+ * Copyright 2013 by Maxim Kalina
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.javaforge.netty.servlet.bridge.dispatch;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of the {@link Dispatcher}. Queue wait is the time between handing a
+ * request to the worker executor and the start of its execution.
+ */
+public class DispatchStatistics {
+
+    private final AtomicLong inlineCount = new AtomicLong();
+
+    private final AtomicLong offloadedCount = new AtomicLong();
+
+    private final AtomicLong virtualThreadCount = new AtomicLong();
+
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    private final AtomicLong queuedCount = new AtomicLong();
+
+    private final AtomicLong totalQueueWaitNanos = new AtomicLong();
+
+    private final AtomicLong maxQueueWaitNanos = new AtomicLong();
+
+    void recordInline() {
+        this.inlineCount.incrementAndGet();
+    }
+
+    void recordQueued() {
+        this.queuedCount.incrementAndGet();
+    }
+
+    void recordRejected() {
+        this.queuedCount.decrementAndGet();
+        this.rejectedCount.incrementAndGet();
+    }
+
+    void recordStarted(DispatchMode mode, long queueWaitNanos) {
+        this.queuedCount.decrementAndGet();
+        this.offloadedCount.incrementAndGet();
+        if (mode == DispatchMode.VIRTUAL_THREAD)
+            this.virtualThreadCount.incrementAndGet();
+
+        this.totalQueueWaitNanos.addAndGet(queueWaitNanos);
+
+        long max;
+        while ((max = this.maxQueueWaitNanos.get()) < queueWaitNanos) {
+            if (this.maxQueueWaitNanos.compareAndSet(max, queueWaitNanos))
+                break;
+        }
+    }
+
+    /**
+     * @return requests executed on the event loop
+     */
+    public long getInlineCount() {
+        return this.inlineCount.get();
+    }
+
+    /**
+     * @return requests executed by the worker executor or on virtual threads
+     */
+    public long getOffloadedCount() {
+        return this.offloadedCount.get();
+    }
+
+    /**
+     * @return requests executed on virtual threads
+     */
+    public long getVirtualThreadCount() {
+        return this.virtualThreadCount.get();
+    }
+
+    /**
+     * @return requests refused by the worker executor
+     */
+    public long getRejectedCount() {
+        return this.rejectedCount.get();
+    }
+
+    /**
+     * @return requests currently waiting for a worker
+     */
+    public long getQueuedCount() {
+        return this.queuedCount.get();
+    }
+
+    public long getTotalQueueWaitNanos() {
+        return this.totalQueueWaitNanos.get();
+    }
+
+    public long getMaxQueueWaitNanos() {
+        return this.maxQueueWaitNanos.get();
+    }
+
+    public double getAverageQueueWaitMillis() {
+        long count = getOffloadedCount();
+        return count == 0 ? 0 : (double) getTotalQueueWaitNanos() / count
+                / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    @Override
+    public String toString() {
+        return "DispatchStatistics[inline=" + getInlineCount()
+                + ", offloaded=" + getOffloadedCount() + ", virtual="
+                + getVirtualThreadCount() + ", rejected="
+                + getRejectedCount() + ", queued=" + getQueuedCount()
+                + ", avgQueueWaitMs=" + getAverageQueueWaitMillis()
+                + ", maxQueueWaitMs="
+                + TimeUnit.NANOSECONDS.toMillis(getMaxQueueWaitNanos()) + "]";
+    }
+}
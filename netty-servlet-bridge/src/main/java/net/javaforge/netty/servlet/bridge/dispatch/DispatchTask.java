@@ -0,0 +1,37 @@
+/*
+ * Copyright 2013 by Maxim Kalina
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.javaforge.netty.servlet.bridge.dispatch;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Task handed over to the {@link Dispatcher}, notified if it is rejected after
+ * it has been queued, i.e. when the rejection can not be thrown to the caller
+ * of {@link Dispatcher#dispatch(net.javaforge.netty.servlet.bridge.config.ServletConfiguration, DispatchTask)}.
+ */
+public interface DispatchTask extends Runnable {
+
+    void reject(RejectedExecutionException cause);
+
+    /**
+     * @return the flow the task belongs to for fair scheduling, e.g. its client
+     * address, or <code>null</code>
+     * @see FairnessKey
+     */
+    Object getFlowKey();
+
+}
@@ -0,0 +1,563 @@
+/*
+ * Copyright 2013 by Maxim Kalina
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.javaforge.netty.servlet.bridge.dispatch;
+
+import io.netty.channel.Channel;
+import io.netty.util.concurrent.EventExecutor;
+import net.javaforge.netty.servlet.bridge.config.ServletConfiguration;
+import net.javaforge.netty.servlet.bridge.util.CannedResponse;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Decides, per servlet mapping, whether a request is executed inline on the
+ * event loop, handed over to the worker executor or to the workers of its
+ * event loop, or run on a virtual thread.
+ * Requests are never run inline as a fallback: if the chosen executor refuses
+ * a task, the request is rejected.
+ * <p/>
+ * Servlets declaring a concurrency limit get a {@link Bulkhead} of their own,
+ * which is consulted before the request is handed over. If a
+ * {@link SchedulingPolicy} is set, requests handed to workers are queued in a
+ * {@link DispatchScheduler} by priority and client instead of first come,
+ * first served. Every executor, i.e. the worker executor and the pool of each
+ * event loop, has a scheduler of its own, so workers only run requests
+ * dispatched to their executor. Servlets bypassing the queue skip the limiter and are run by
+ * the next free worker. A {@link ReadThrottle} suspends reading from the
+ * channels while too many requests wait for a worker.
+ */
+public class Dispatcher {
+
+    /**
+     * Default size of the worker pool of each event loop.
+     */
+    public static final int DEFAULT_THREADS_PER_LOOP = 16;
+
+    private final Executor executor;
+
+    private final Executor virtualThreadExecutor;
+
+    private final EventLoopWorkers eventLoopWorkers;
+
+    private final DispatchMode defaultMode;
+
+    private final DispatchStatistics statistics = new DispatchStatistics();
+
+    private final Map<ServletConfiguration, Bulkhead> bulkheads = new ConcurrentHashMap<ServletConfiguration, Bulkhead>();
+
+    // effective modes overriding those configured, the configurations are
+    // left as the application set them
+    private final Map<ServletConfiguration, DispatchMode> modes = new ConcurrentHashMap<ServletConfiguration, DispatchMode>();
+
+    private final CannedResponse rejectionResponse = CannedResponse
+            .serviceUnavailable(1);
+
+    private AdaptiveLimiter limiter;
+
+    private volatile SchedulingPolicy schedulingPolicy;
+
+    private final ConcurrentMap<Executor, DispatchScheduler> schedulers = new ConcurrentHashMap<Executor, DispatchScheduler>();
+
+    private volatile ReadThrottle readThrottle;
+
+    public Dispatcher(Executor executor, DispatchMode defaultMode) {
+        this(executor, defaultMode, DEFAULT_THREADS_PER_LOOP);
+    }
+
+    /**
+     * @param threadsPerLoop size of the worker pool of each event loop in
+     *                       {@link DispatchMode#EVENT_LOOP_WORKER} mode
+     */
+    public Dispatcher(Executor executor, DispatchMode defaultMode,
+                      int threadsPerLoop) {
+        if (defaultMode == DispatchMode.WORKER && executor == null)
+            throw new IllegalArgumentException(
+                    "Dispatch mode WORKER requires an executor!");
+
+        this.executor = executor;
+        this.defaultMode = defaultMode;
+        this.eventLoopWorkers = new EventLoopWorkers(threadsPerLoop);
+        this.virtualThreadExecutor = VirtualThreads.isSupported() ? VirtualThreads
+                .newThreadPerTaskExecutor() : null;
+
+        if (defaultMode == DispatchMode.VIRTUAL_THREAD)
+            this.checkSupported(null);
+    }
+
+    /**
+     * Fails fast if the servlet is configured for a dispatch mode which can not
+     * be served.
+     *
+     * @throws IllegalStateException if virtual threads are required, but not
+     *                               supported by the runtime
+     */
+    public void checkSupported(ServletConfiguration servlet) {
+        if (this.getDispatchMode(servlet) == DispatchMode.VIRTUAL_THREAD
+                && this.virtualThreadExecutor == null)
+            throw new IllegalStateException(
+                    "Dispatch mode VIRTUAL_THREAD requires Java 21 or newer, running on "
+                            + System.getProperty("java.version"));
+    }
+
+    /**
+     * Registers the servlet while the webapp is initialized: checks its
+     * dispatch mode and sets up its bulkhead, if it declares a concurrency
+     * limit. Pooled servlets are moved off the event loop, as they may wait
+     * for an idle instance.
+     *
+     * @throws IllegalStateException if a pooled servlet would have to run
+     *                               inline on the event loop
+     */
+    public void addServlet(ServletConfiguration servlet) {
+        this.checkSupported(servlet);
+        if (servlet.isPooled()
+                && this.getDispatchMode(servlet) == DispatchMode.INLINE) {
+            if (servlet.getDispatchMode() == DispatchMode.INLINE
+                    || this.executor == null)
+                throw new IllegalStateException("Pooled servlet "
+                        + servlet.getHttpComponent().getClass().getName()
+                        + " can not run inline, it would block the event loop"
+                        + " waiting for an idle instance");
+
+            this.modes.put(servlet, DispatchMode.WORKER);
+        }
+        if (servlet.getMaxConcurrency() > 0)
+            this.bulkheads.put(servlet, new Bulkhead(servlet.getHttpComponent()
+                    .getClass().getName(), servlet.getMaxConcurrency(),
+                    servlet.getMaxQueueDepth(), servlet.getRetryAfter()));
+    }
+
+    public DispatchMode getDispatchMode(ServletConfiguration servlet) {
+        DispatchMode mode = servlet != null ? this.modes.get(servlet) : null;
+        if (mode != null)
+            return mode;
+
+        mode = servlet != null ? servlet.getDispatchMode() : null;
+        if (mode == null)
+            mode = this.defaultMode;
+
+        // mappings may ask for a worker although none is configured
+        return mode == DispatchMode.WORKER && this.executor == null ? DispatchMode.INLINE
+                : mode;
+    }
+
+    /**
+     * Executes the task according to the dispatch mode of the servlet. If the
+     * servlet has a bulkhead and all its permits are taken, the task is queued
+     * in the bulkhead and dispatched once a permit is released.
+     *
+     * @throws RejectedExecutionException if the concurrency limit is reached,
+     *                                    the bulkhead of the servlet is full or
+     *                                    the worker executor does not accept the
+     *                                    task
+     */
+    public void dispatch(ServletConfiguration servlet, DispatchTask task) {
+        this.dispatch(servlet, null, task);
+    }
+
+    /**
+     * Executes the task like {@link #dispatch(ServletConfiguration, DispatchTask)},
+     * on a worker of the given event loop if the servlet is dispatched in
+     * {@link DispatchMode#EVENT_LOOP_WORKER} mode.
+     *
+     * @param eventLoop the event loop which decoded the request, may be
+     *                  <code>null</code>
+     */
+    public void dispatch(ServletConfiguration servlet, EventExecutor eventLoop,
+                         DispatchTask task) {
+        AdaptiveLimiter limiter = this.limiter;
+        if (limiter == null || isQueueBypass(servlet)) {
+            this.dispatchGuarded(servlet, eventLoop, task);
+            return;
+        }
+
+        if (!limiter.tryAcquire())
+            throw new RejectedExecutionException("Concurrency limit of "
+                    + limiter.getLimit() + " reached");
+
+        try {
+            this.dispatchGuarded(servlet, eventLoop, new LimitedTask(limiter,
+                    task));
+        } catch (RejectedExecutionException e) {
+            limiter.release(-1);
+            throw e;
+        }
+    }
+
+    private void dispatchGuarded(ServletConfiguration servlet,
+                                 EventExecutor eventLoop, DispatchTask task) {
+        DispatchMode mode = this.getDispatchMode(servlet);
+        Executor target = this.getExecutor(mode, eventLoop);
+        Bulkhead bulkhead = servlet != null ? this.bulkheads.get(servlet)
+                : null;
+        if (bulkhead == null) {
+            this.execute(servlet, mode, target, task, task.getFlowKey());
+            return;
+        }
+
+        BulkheadTask guarded = new BulkheadTask(bulkhead, task, servlet, mode,
+                target, eventLoop);
+        if (!bulkhead.acquire(guarded))
+            return;
+
+        try {
+            this.execute(servlet, mode, target, guarded, task.getFlowKey());
+        } catch (RejectedExecutionException e) {
+            this.handOver(bulkhead);
+            throw e;
+        }
+    }
+
+    /**
+     * Passes the permit of a task which is done or never ran on to the next
+     * queued task, which is dispatched like it would have been without the
+     * bulkhead: to its executor, or to its own event loop if it runs inline.
+     * Queued tasks which can not be executed are rejected.
+     */
+    private void handOver(Bulkhead bulkhead) {
+        Runnable next;
+        while ((next = bulkhead.release()) != null) {
+            BulkheadTask queued = (BulkheadTask) next;
+            try {
+                queued.redispatch();
+                return;
+            } catch (RejectedExecutionException e) {
+                queued.task.reject(e);
+            }
+        }
+    }
+
+    private Executor getExecutor(DispatchMode mode, EventExecutor eventLoop) {
+        switch (mode) {
+            case VIRTUAL_THREAD:
+                return this.virtualThreadExecutor;
+            case EVENT_LOOP_WORKER:
+                return eventLoop != null ? this.eventLoopWorkers
+                        .executorFor(eventLoop) : this.eventLoopWorkers.any();
+            case WORKER:
+                return this.executor;
+            default:
+                return null;
+        }
+    }
+
+    private static boolean isQueueBypass(ServletConfiguration servlet) {
+        return servlet != null && servlet.isQueueBypass();
+    }
+
+    private void execute(ServletConfiguration servlet, DispatchMode mode,
+                         Executor target, Runnable task, Object flowKey) {
+        if (mode == DispatchMode.INLINE) {
+            this.statistics.recordInline();
+            task.run();
+            return;
+        }
+
+        if (target == null)
+            throw new RejectedExecutionException("No executor for dispatch mode "
+                    + mode);
+
+        DispatchScheduler scheduler = mode != DispatchMode.VIRTUAL_THREAD ? this
+                .getScheduler(target) : null;
+
+        this.statistics.recordQueued();
+        try {
+            if (scheduler == null)
+                target.execute(new QueuedTask(task, mode));
+            else if (isQueueBypass(servlet))
+                scheduler.executeFirst(target, new QueuedTask(task, mode));
+            else
+                scheduler.execute(target, new QueuedTask(task, mode),
+                        servlet != null ? servlet.getPriority()
+                                : Priority.NORMAL, flowKey);
+        } catch (RejectedExecutionException e) {
+            this.statistics.recordRejected();
+            this.dequeued();
+            throw e;
+        }
+    }
+
+    /**
+     * Suspends reading from the channel, which delivered a request just
+     * dispatched, if the read throttle says so.
+     */
+    public void throttle(Channel channel) {
+        ReadThrottle throttle = this.readThrottle;
+        if (throttle != null)
+            throttle.onDispatched(channel, this.statistics.getQueuedCount());
+    }
+
+    private void dequeued() {
+        ReadThrottle throttle = this.readThrottle;
+        if (throttle != null)
+            throttle.onDequeued(this.statistics.getQueuedCount());
+    }
+
+    /**
+     * @return the bulkhead of the servlet or <code>null</code> if it has no
+     * concurrency limit
+     */
+    public Bulkhead getBulkhead(ServletConfiguration servlet) {
+        return servlet != null ? this.bulkheads.get(servlet) : null;
+    }
+
+    /**
+     * @return the response to send if a request of the servlet is rejected
+     */
+    public CannedResponse getRejectionResponse(ServletConfiguration servlet) {
+        Bulkhead bulkhead = this.getBulkhead(servlet);
+        return bulkhead != null ? bulkhead.getRejectionResponse()
+                : this.rejectionResponse;
+    }
+
+    /**
+     * Runs a task started by a servlet, e.g. through
+     * {@link javax.servlet.AsyncContext#start(Runnable)}, the way requests are
+     * executed by default: on a worker, on a virtual thread or inline on the
+     * calling thread. The task bypasses bulkheads and limiter.
+     */
+    public void start(Runnable task) {
+        DispatchMode mode = this.getDispatchMode(null);
+        if (mode == DispatchMode.INLINE)
+            task.run();
+        else
+            this.getExecutor(mode, null).execute(task);
+    }
+
+    /**
+     * Stops the worker pools of the event loops, the worker executor is owned
+     * by the configuration and left alone.
+     */
+    public void shutdown() {
+        this.eventLoopWorkers.shutdown();
+    }
+
+    /**
+     * Orders the requests queued for workers by the policy, <code>null</code>
+     * queues them first come, first served in the executors. Virtual threads
+     * are never queued, so they are not scheduled.
+     */
+    public void setSchedulingPolicy(SchedulingPolicy policy) {
+        this.schedulingPolicy = policy;
+        this.schedulers.clear();
+    }
+
+    /**
+     * @return the scheduling policy or <code>null</code> if requests are
+     * queued first come, first served
+     */
+    public SchedulingPolicy getSchedulingPolicy() {
+        return schedulingPolicy;
+    }
+
+    /**
+     * @return the scheduler of the executor, created on first use, or
+     * <code>null</code> if no scheduling policy is set
+     */
+    private DispatchScheduler getScheduler(Executor target) {
+        SchedulingPolicy policy = this.schedulingPolicy;
+        if (policy == null)
+            return null;
+
+        DispatchScheduler scheduler = this.schedulers.get(target);
+        if (scheduler == null) {
+            DispatchScheduler created = new DispatchScheduler(policy.copy());
+            scheduler = this.schedulers.putIfAbsent(target, created);
+            if (scheduler == null)
+                scheduler = created;
+        }
+        return scheduler;
+    }
+
+    /**
+     * @return the schedulers of the executors requests were queued for so far
+     */
+    public Collection<DispatchScheduler> getSchedulers() {
+        return this.schedulers.values();
+    }
+
+    /**
+     * Suspends reading from the channels while too many requests wait for a
+     * worker, <code>null</code> disables throttling.
+     */
+    public void setReadThrottle(ReadThrottle readThrottle) {
+        this.readThrottle = readThrottle;
+    }
+
+    /**
+     * @return the read throttle or <code>null</code> if throttling is disabled
+     */
+    public ReadThrottle getReadThrottle() {
+        return readThrottle;
+    }
+
+    /**
+     * Puts the adaptive limiter in front of all servlets, <code>null</code>
+     * disables it.
+     */
+    public void setLimiter(AdaptiveLimiter limiter) {
+        this.limiter = limiter;
+    }
+
+    /**
+     * @return the adaptive limiter or <code>null</code> if it is disabled
+     */
+    public AdaptiveLimiter getLimiter() {
+        return limiter;
+    }
+
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    public EventLoopWorkers getEventLoopWorkers() {
+        return eventLoopWorkers;
+    }
+
+    public DispatchMode getDefaultMode() {
+        return defaultMode;
+    }
+
+    public DispatchStatistics getStatistics() {
+        return statistics;
+    }
+
+    private final class QueuedTask implements Runnable {
+
+        private final Runnable task;
+
+        private final DispatchMode mode;
+
+        private final long queuedAt = System.nanoTime();
+
+        QueuedTask(Runnable task, DispatchMode mode) {
+            this.task = task;
+            this.mode = mode;
+        }
+
+        @Override
+        public void run() {
+            statistics.recordStarted(this.mode, System.nanoTime()
+                    - this.queuedAt);
+            dequeued();
+            this.task.run();
+        }
+    }
+
+    /**
+     * Runs a task holding a bulkhead permit, then hands the permit over to the
+     * next task queued in the bulkhead meanwhile.
+     */
+    private final class BulkheadTask implements Runnable {
+
+        private final Bulkhead bulkhead;
+
+        private final DispatchTask task;
+
+        private final ServletConfiguration servlet;
+
+        private final DispatchMode mode;
+
+        private final Executor target;
+
+        private final EventExecutor eventLoop;
+
+        BulkheadTask(Bulkhead bulkhead, DispatchTask task,
+                     ServletConfiguration servlet, DispatchMode mode,
+                     Executor target, EventExecutor eventLoop) {
+            this.bulkhead = bulkhead;
+            this.task = task;
+            this.servlet = servlet;
+            this.mode = mode;
+            this.target = target;
+            this.eventLoop = eventLoop;
+        }
+
+        /**
+         * Dispatches the task once it got the permit of another task.
+         */
+        void redispatch() {
+            if (this.mode != DispatchMode.INLINE || this.eventLoop == null) {
+                execute(this.servlet, this.mode, this.target, this,
+                        this.task.getFlowKey());
+                return;
+            }
+
+            // always deferred, so queued tasks do not pile up on the stack
+            this.eventLoop.execute(new Runnable() {
+                @Override
+                public void run() {
+                    execute(servlet, mode, null, BulkheadTask.this,
+                            task.getFlowKey());
+                }
+            });
+        }
+
+        @Override
+        public void run() {
+            try {
+                this.task.run();
+            } finally {
+                handOver(this.bulkhead);
+            }
+        }
+    }
+
+    /**
+     * Returns the limiter permit of a task once it is done, measuring its
+     * round trip time since admission.
+     */
+    private static final class LimitedTask implements DispatchTask {
+
+        private final AdaptiveLimiter limiter;
+
+        private final DispatchTask task;
+
+        private final long admittedAt = System.nanoTime();
+
+        LimitedTask(AdaptiveLimiter limiter, DispatchTask task) {
+            this.limiter = limiter;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            try {
+                this.task.run();
+            } finally {
+                this.limiter.release(System.nanoTime() - this.admittedAt);
+            }
+        }
+
+        @Override
+        public void reject(RejectedExecutionException cause) {
+            this.limiter.release(-1);
+            this.task.reject(cause);
+        }
+
+        @Override
+        public Object getFlowKey() {
+            return this.task.getFlowKey();
+        }
+    }
+
+}
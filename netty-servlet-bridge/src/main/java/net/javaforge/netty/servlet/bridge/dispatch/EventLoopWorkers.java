@@ -0,0 +1,136 @@
+/*
+ * Copyright 2013 by Maxim Kalina
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package net.javaforge.netty.servlet.bridge.dispatch;
+
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.GlobalEventExecutor;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Worker pools affine to event loops: each event loop gets a fixed pool of its
+ * own, created on first use, which executes the requests decoded by that loop.
+ * Event loops thus do not contend on a queue shared by all of them, and each
+ * loop receives the responses of its own, small set of workers only.
+ * <p/>
+ * Java can not pin threads to cores, the pools keep the work of a connection
+ * on the same few threads, leaving the placement to the OS scheduler.
+ */
+public class EventLoopWorkers {
+
+    private final int threadsPerLoop;
+
+    private final ConcurrentMap<EventExecutor, ExecutorService> pools = new ConcurrentHashMap<EventExecutor, ExecutorService>();
+
+    private final AtomicInteger poolCount = new AtomicInteger();
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    private volatile boolean shutdown;
+
+    public EventLoopWorkers(int threadsPerLoop) {
+        if (threadsPerLoop <= 0)
+            throw new IllegalArgumentException(
+                    "Threads per event loop must be positive: "
+                            + threadsPerLoop);
+
+        this.threadsPerLoop = threadsPerLoop;
+    }
+
+    /**
+     * @return the pool of the event loop, created if the loop has none yet
+     */
+    public Executor executorFor(EventExecutor eventLoop) {
+        ExecutorService pool = this.pools.get(eventLoop);
+        if (pool != null)
+            return pool;
+
+        ExecutorService created = this.newPool();
+        pool = this.pools.putIfAbsent(eventLoop, created);
+        if (pool != null) {
+            created.shutdown();
+            return pool;
+        }
+
+        // a pool created while shutting down would never be stopped
+        if (this.shutdown)
+            created.shutdown();
+
+        return created;
+    }
+
+    /**
+     * @return one of the pools for work not bound to an event loop, e.g. tasks
+     * started by servlets, round robin over the existing pools
+     */
+    public Executor any() {
+        int index = Math.abs(this.next.getAndIncrement() % Math.max(1,
+                this.pools.size()));
+        Iterator<ExecutorService> it = this.pools.values().iterator();
+        ExecutorService pool = null;
+        for (int i = 0; i <= index && it.hasNext(); i++)
+            pool = it.next();
+
+        return pool != null ? pool : this.executorFor(GlobalEventExecutor.INSTANCE);
+    }
+
+    private ExecutorService newPool() {
+        final int index = this.poolCount.getAndIncrement();
+        return Executors.newFixedThreadPool(this.threadsPerLoop,
+                new ThreadFactory() {
+                    private final AtomicInteger threads = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "servlet-bridge-loop-"
+                                + index + "-worker-" + threads.getAndIncrement());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    /**
+     * Stops the pools once their queued requests are done.
+     */
+    public void shutdown() {
+        this.shutdown = true;
+        for (ExecutorService pool : this.pools.values())
+            pool.shutdown();
+    }
+
+    public int getThreadsPerLoop() {
+        return threadsPerLoop;
+    }
+
+    /**
+     * @return the number of pools, i.e. of event loops which dispatched
+     * requests so far
+     */
+    public int getPoolCount() {
+        return this.pools.size();
+    }
+
+}
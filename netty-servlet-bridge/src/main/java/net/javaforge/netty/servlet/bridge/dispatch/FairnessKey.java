@@ -0,0 +1,80 @@
+/*
+ * Copyright 2013 by Maxim Kalina
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package net.javaforge.netty.servlet.bridge.dispatch;
+
+import io.netty.channel.Channel;
+import io.netty.handler.codec.http.Cookie;
+import io.netty.handler.codec.http.HttpRequest;
+import net.javaforge.netty.servlet.bridge.impl.HttpSessionImpl;
+import net.javaforge.netty.servlet.bridge.util.Utils;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Collection;
+
+/**
+ * What requests are grouped into flows by for fair queuing, see
+ * {@link WeightedFairPolicy}.
+ */
+public enum FairnessKey {
+
+    /**
+     * All requests form a single flow, i.e. no fairness between clients.
+     */
+    NONE {
+        @Override
+        public Object resolve(Channel channel, HttpRequest request) {
+            return null;
+        }
+    },
+
+    /**
+     * Requests are grouped by the address of the client, whatever port or
+     * connection they use.
+     */
+    CLIENT_ADDRESS {
+        @Override
+        public Object resolve(Channel channel, HttpRequest request) {
+            SocketAddress address = channel.remoteAddress();
+            return address instanceof InetSocketAddress ? ((InetSocketAddress) address)
+                    .getAddress() : address;
+        }
+    },
+
+    /**
+     * Requests are grouped by the session cookie, requests without one by the
+     * address of the client.
+     */
+    SESSION {
+        @Override
+        public Object resolve(Channel channel, HttpRequest request) {
+            Collection<Cookie> cookies = Utils.getCookies(
+                    HttpSessionImpl.SESSION_ID_KEY, request);
+            if (cookies != null && !cookies.isEmpty())
+                return cookies.iterator().next().getValue();
+
+            return CLIENT_ADDRESS.resolve(channel, request);
+        }
+    };
+
+    /**
+     * @return the flow of the request or <code>null</code>
+     */
+    public abstract Object resolve(Channel channel, HttpRequest request);
+
+}
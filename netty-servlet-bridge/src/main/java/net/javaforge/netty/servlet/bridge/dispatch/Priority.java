@@ -0,0 +1,44 @@
+/*
+ * Copyright 2013 by Maxim Kalina
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package net.javaforge.netty.servlet.bridge.dispatch;
+
+/**
+ * Priority class of the requests of a servlet, see
+ * {@link net.javaforge.netty.servlet.bridge.config.ServletConfiguration#setPriority(Priority)}.
+ * Schedulers weigh the classes against each other, the default weights give
+ * high priority work eight times the share of low priority work.
+ */
+public enum Priority {
+
+    HIGH(8),
+
+    NORMAL(4),
+
+    LOW(1);
+
+    private final int defaultWeight;
+
+    Priority(int defaultWeight) {
+        this.defaultWeight = defaultWeight;
+    }
+
+    public int getDefaultWeight() {
+        return defaultWeight;
+    }
+
+}
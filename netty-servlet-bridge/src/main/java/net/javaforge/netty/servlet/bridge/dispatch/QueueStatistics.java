@@ -0,0 +1,99 @@
+/*
+ * Copyright 2013 by Maxim Kalina
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package net.javaforge.netty.servlet.bridge.dispatch;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Queue depth and wait time of the requests of one priority class in the
+ * {@link DispatchScheduler}.
+ */
+public class QueueStatistics {
+
+    private final Priority priority;
+
+    private final AtomicInteger depth = new AtomicInteger();
+
+    private final AtomicLong dequeuedCount = new AtomicLong();
+
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    QueueStatistics(Priority priority) {
+        this.priority = priority;
+    }
+
+    void recordQueued() {
+        this.depth.incrementAndGet();
+    }
+
+    void recordRemoved() {
+        this.depth.decrementAndGet();
+    }
+
+    void recordDequeued(long waitNanos) {
+        this.depth.decrementAndGet();
+        this.dequeuedCount.incrementAndGet();
+        this.totalWaitNanos.addAndGet(waitNanos);
+
+        long max;
+        while ((max = this.maxWaitNanos.get()) < waitNanos) {
+            if (this.maxWaitNanos.compareAndSet(max, waitNanos))
+                break;
+        }
+    }
+
+    public Priority getPriority() {
+        return priority;
+    }
+
+    /**
+     * @return requests of the class currently queued
+     */
+    public int getDepth() {
+        return this.depth.get();
+    }
+
+    /**
+     * @return requests of the class taken from the queue so far
+     */
+    public long getDequeuedCount() {
+        return this.dequeuedCount.get();
+    }
+
+    public long getMaxWaitNanos() {
+        return this.maxWaitNanos.get();
+    }
+
+    public double getAverageWaitMillis() {
+        long count = getDequeuedCount();
+        return count == 0 ? 0 : (double) this.totalWaitNanos.get() / count
+                / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    @Override
+    public String toString() {
+        return this.priority + "[depth=" + getDepth() + ", dequeued="
+                + getDequeuedCount() + ", avgWaitMs=" + getAverageWaitMillis()
+                + ", maxWaitMs="
+                + TimeUnit.NANOSECONDS.toMillis(getMaxWaitNanos()) + "]";
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2013 by Maxim Kalina
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package net.javaforge.netty.servlet.bridge.dispatch;
+
+import io.netty.channel.Channel;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.util.AttributeKey;
+import net.javaforge.netty.servlet.bridge.util.ReadGate;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Pushes load back into TCP while the workers fall behind: once the requests
+ * waiting for a worker reach the high water mark, all channels of the webapp
+ * and the server channels accepting them stop reading, as do channels
+ * becoming active meanwhile. They are read again once the queue drained to
+ * the low water mark, so pending work stays bounded without rejecting
+ * accepted requests.
+ * <p/>
+ * Channels receiving a request body are never suspended: a worker may be
+ * blocked reading that body, and would hold its thread until the throttle
+ * is lifted, which needs the workers to drain the queue.
+ */
+public class ReadThrottle {
+
+    private static final AttributeKey<Boolean> RECEIVING_BODY = AttributeKey
+            .valueOf(ReadThrottle.class, "receivingBody");
+
+    private final int lowWaterMark;
+
+    private final int highWaterMark;
+
+    private final ChannelGroup channels;
+
+    private final Set<Channel> suspended = new HashSet<Channel>();
+
+    private volatile boolean throttling;
+
+    private long throttleCount;
+
+    /**
+     * @param channels the channels of the webapp, suspended all at once
+     */
+    public ReadThrottle(int lowWaterMark, int highWaterMark,
+                        ChannelGroup channels) {
+        if (lowWaterMark < 0 || highWaterMark <= 0
+                || lowWaterMark > highWaterMark)
+            throw new IllegalArgumentException("Invalid water marks: low="
+                    + lowWaterMark + ", high=" + highWaterMark);
+
+        this.lowWaterMark = lowWaterMark;
+        this.highWaterMark = highWaterMark;
+        this.channels = channels;
+    }
+
+    /**
+     * Suspends reading from all channels if the number of pending requests
+     * reached the high water mark.
+     *
+     * @param channel the channel which delivered the request just dispatched
+     */
+    public void onDispatched(Channel channel, long pending) {
+        if (pending < this.highWaterMark)
+            return;
+
+        synchronized (this) {
+            if (!this.throttling) {
+                this.throttling = true;
+                this.throttleCount++;
+                if (this.channels != null) {
+                    for (Channel member : this.channels)
+                        this.suspend(member);
+                }
+            }
+
+            this.suspend(channel);
+        }
+    }
+
+    /**
+     * Marks the channel as receiving a request body and resumes it if it was
+     * suspended meanwhile. Must be called on the event loop.
+     */
+    public void onBodyStarted(Channel channel) {
+        channel.attr(RECEIVING_BODY).set(Boolean.TRUE);
+        if (!this.throttling)
+            return;
+
+        boolean resume;
+        synchronized (this) {
+            resume = this.suspended.remove(channel);
+        }
+        if (resume)
+            ReadGate.resume(channel);
+    }
+
+    /**
+     * Marks the body of the request received on the channel as complete.
+     */
+    public void onBodyReceived(Channel channel) {
+        channel.attr(RECEIVING_BODY).remove();
+    }
+
+    /**
+     * Suspends reading from a channel which became active while throttling.
+     */
+    public void onChannelActive(Channel channel) {
+        if (!this.throttling)
+            return;
+
+        synchronized (this) {
+            if (this.throttling)
+                this.suspend(channel);
+        }
+    }
+
+    private void suspend(Channel channel) {
+        if (channel.parent() != null && this.suspended.add(channel.parent()))
+            ReadGate.suspend(channel.parent());
+        if (channel.attr(RECEIVING_BODY).get() == null
+                && this.suspended.add(channel))
+            ReadGate.suspend(channel);
+    }
+
+    /**
+     * Resumes reading from all suspended channels if the number of pending
+     * requests dropped to the low water mark.
+     */
+    public void onDequeued(long pending) {
+        if (!this.throttling || pending > this.lowWaterMark)
+            return;
+
+        List<Channel> channels;
+        synchronized (this) {
+            if (!this.throttling)
+                return;
+
+            this.throttling = false;
+            channels = new ArrayList<Channel>(this.suspended);
+            this.suspended.clear();
+        }
+
+        for (Channel channel : channels)
+            ReadGate.resume(channel);
+    }
+
+    /**
+     * @return <code>true</code> while reading is suspended
+     */
+    public boolean isThrottling() {
+        return throttling;
+    }
+
+    /**
+     * @return how often reading was suspended
+     */
+    public synchronized long getThrottleCount() {
+        return throttleCount;
+    }
+
+    public int getLowWaterMark() {
+        return lowWaterMark;
+    }
+
+    public int getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ReadThrottle[low=" + lowWaterMark + ", high=" + highWaterMark
+                + ", throttling=" + throttling + ", suspended="
+                + suspended.size() + ", throttled=" + throttleCount + "]";
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2013 by Maxim Kalina
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package net.javaforge.netty.servlet.bridge.dispatch;
+
+/**
+ * Request queued by the {@link DispatchScheduler}, with what a
+ * {@link SchedulingPolicy} orders by: its priority class and its flow, i.e. the
+ * client it belongs to.
+ */
+public final class ScheduledTask {
+
+    private final Runnable task;
+
+    private final Priority priority;
+
+    private final Object flowKey;
+
+    private final long queuedAt = System.nanoTime();
+
+    ScheduledTask(Runnable task, Priority priority, Object flowKey) {
+        this.task = task;
+        this.priority = priority;
+        this.flowKey = flowKey;
+    }
+
+    Runnable getTask() {
+        return task;
+    }
+
+    /**
+     * @return the priority class or <code>null</code> if the task bypasses the
+     * queue
+     */
+    public Priority getPriority() {
+        return priority;
+    }
+
+    /**
+     * @return the key of the flow, e.g. the client address, or
+     * <code>null</code> if the task belongs to no particular flow
+     */
+    public Object getFlowKey() {
+        return flowKey;
+    }
+
+    public long getQueuedAt() {
+        return queuedAt;
+    }
+
+}
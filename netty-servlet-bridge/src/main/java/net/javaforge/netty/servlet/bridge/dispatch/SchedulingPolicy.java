@@ -0,0 +1,47 @@
+/*
+ * Copyright 2013 by Maxim Kalina
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package net.javaforge.netty.servlet.bridge.dispatch;
+
+/**
+ * Orders the requests queued for the workers. Implementations need not be
+ * thread-safe, the {@link DispatchScheduler} serializes all calls. Each
+ * executor has a scheduler of its own, with a {@link #copy()} of the
+ * configured policy.
+ *
+ * @see WeightedFairPolicy
+ */
+public interface SchedulingPolicy {
+
+    void offer(ScheduledTask task);
+
+    /**
+     * @return the task to run next or <code>null</code> if none is queued
+     */
+    ScheduledTask poll();
+
+    /**
+     * @return <code>true</code> if the task was still queued
+     */
+    boolean remove(ScheduledTask task);
+
+    /**
+     * @return a new policy with the same settings and no queued tasks
+     */
+    SchedulingPolicy copy();
+
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2013 by Maxim Kalina
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.javaforge.netty.servlet.bridge.dispatch;
+
+import net.javaforge.netty.servlet.bridge.ServletBridgeRuntimeException;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Access to virtual threads (Java 21+). The bridge is compiled for older
+ * runtimes, so the JDK API is looked up reflectively.
+ */
+public final class VirtualThreads {
+
+    private static final ThreadFactory FACTORY = lookupFactory();
+
+    private VirtualThreads() {
+    }
+
+    public static boolean isSupported() {
+        return FACTORY != null;
+    }
+
+    /**
+     * @return an executor starting a new virtual thread for every task
+     * @throws ServletBridgeRuntimeException if the runtime has no virtual
+     *                                       threads
+     */
+    public static Executor newThreadPerTaskExecutor() {
+        if (FACTORY == null)
+            throw new ServletBridgeRuntimeException(
+                    "Virtual threads are not supported by this Java runtime ("
+                            + System.getProperty("java.version") + ")!");
+
+        return new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                FACTORY.newThread(command).start();
+            }
+        };
+    }
+
+    private static ThreadFactory lookupFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Method name = builderClass.getMethod("name", String.class,
+                    long.class);
+            builder = name.invoke(builder, "servlet-bridge-virtual-", 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(
+                    builder);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2013 by Maxim Kalina
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package net.javaforge.netty.servlet.bridge.dispatch;
+
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Weighted fair queuing: priority classes share the workers in proportion to
+ * their weights (smooth weighted round robin, so low priority work is slowed
+ * down, never starved), within a class the flows are served round robin, one
+ * task per flow and turn. A client flooding the queue thus only delays its own
+ * requests.
+ */
+public class WeightedFairPolicy implements SchedulingPolicy {
+
+    private static final Object NO_FLOW = new Object();
+
+    private final Map<Priority, FlowQueue> queues = new EnumMap<Priority, FlowQueue>(
+            Priority.class);
+
+    public WeightedFairPolicy() {
+        for (Priority priority : Priority.values())
+            this.queues.put(priority, new FlowQueue(priority
+                    .getDefaultWeight()));
+    }
+
+    /**
+     * Overrides the default weight of the priority class.
+     */
+    public WeightedFairPolicy setWeight(Priority priority, int weight) {
+        if (weight <= 0)
+            throw new IllegalArgumentException("Weight must be positive: "
+                    + weight);
+
+        this.queues.get(priority).weight = weight;
+        return this;
+    }
+
+    public int getWeight(Priority priority) {
+        return this.queues.get(priority).weight;
+    }
+
+    @Override
+    public void offer(ScheduledTask task) {
+        this.queues.get(task.getPriority()).offer(task);
+    }
+
+    @Override
+    public ScheduledTask poll() {
+        FlowQueue selected = null;
+        int totalWeight = 0;
+        for (FlowQueue queue : this.queues.values()) {
+            if (queue.size == 0)
+                continue;
+
+            queue.current += queue.weight;
+            totalWeight += queue.weight;
+            if (selected == null || queue.current > selected.current)
+                selected = queue;
+        }
+
+        if (selected == null)
+            return null;
+
+        selected.current -= totalWeight;
+        return selected.poll();
+    }
+
+    @Override
+    public boolean remove(ScheduledTask task) {
+        return this.queues.get(task.getPriority()).remove(task);
+    }
+
+    @Override
+    public WeightedFairPolicy copy() {
+        WeightedFairPolicy copy = new WeightedFairPolicy();
+        for (Priority priority : Priority.values())
+            copy.setWeight(priority, this.getWeight(priority));
+        return copy;
+    }
+
+    private static final class FlowQueue {
+
+        private int weight;
+
+        private int current;
+
+        private int size;
+
+        private final Map<Object, Flow> flows = new HashMap<Object, Flow>();
+
+        private final ArrayDeque<Flow> activeFlows = new ArrayDeque<Flow>();
+
+        FlowQueue(int weight) {
+            this.weight = weight;
+        }
+
+        void offer(ScheduledTask task) {
+            Object key = task.getFlowKey() != null ? task.getFlowKey()
+                    : NO_FLOW;
+            Flow flow = this.flows.get(key);
+            if (flow == null) {
+                flow = new Flow(key);
+                this.flows.put(key, flow);
+                this.activeFlows.offer(flow);
+            }
+
+            flow.tasks.offer(task);
+            this.size++;
+        }
+
+        ScheduledTask poll() {
+            Flow flow = this.activeFlows.poll();
+            ScheduledTask task = flow.tasks.poll();
+            if (flow.tasks.isEmpty())
+                this.flows.remove(flow.key);
+            else
+                this.activeFlows.offer(flow);
+
+            this.size--;
+            // an idle class does not bank credit for later bursts
+            if (this.size == 0)
+                this.current = 0;
+
+            return task;
+        }
+
+        boolean remove(ScheduledTask task) {
+            Object key = task.getFlowKey() != null ? task.getFlowKey()
+                    : NO_FLOW;
+            Flow flow = this.flows.get(key);
+            if (flow == null || !flow.tasks.remove(task))
+                return false;
+
+            if (flow.tasks.isEmpty()) {
+                this.flows.remove(key);
+                this.activeFlows.remove(flow);
+            }
+
+            if (--this.size == 0)
+                this.current = 0;
+
+            return true;
+        }
+    }
+
+    private static final class Flow {
+
+        private final Object key;
+
+        private final ArrayDeque<ScheduledTask> tasks = new ArrayDeque<ScheduledTask>();
+
+        Flow(Object key) {
+            this.key = key;
+        }
+    }
+
+}
@@ -0,0 +1,292 @@
+/*
+ * Copyright 2013 by Maxim Kalina
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.javaforge.netty.servlet.bridge.impl;
+
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.TimerTask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletResponse;
+import java.lang.reflect.InvocationTargetException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Asynchronous context detaching a request from the thread which executed the
+ * filter chain. The response is written once {@link #complete()} was called
+ * and the dispatch which started the asynchronous processing returned,
+ * whichever happens last. Timeouts are scheduled on the shared timer of the
+ * webapp, so parked requests occupy no thread at all.
+ */
+public class AsyncContextImpl implements AsyncContext {
+
+    private static final Logger log = LoggerFactory
+            .getLogger(AsyncContextImpl.class);
+
+    private final ServletRequest request;
+
+    private final ServletResponse response;
+
+    private final boolean originalRequestAndResponse;
+
+    private final Runnable completion;
+
+    private final Timer timer;
+
+    private final List<Registration> listeners = new CopyOnWriteArrayList<Registration>();
+
+    private volatile long timeout;
+
+    private boolean dispatchReturned;
+
+    private boolean completed;
+
+    private Timeout scheduledTimeout;
+
+    AsyncContextImpl(ServletRequest request, ServletResponse response,
+                     boolean originalRequestAndResponse, Runnable completion,
+                     Timer timer, long timeout) {
+        this.request = request;
+        this.response = response;
+        this.originalRequestAndResponse = originalRequestAndResponse;
+        this.completion = completion;
+        this.timer = timer;
+        this.timeout = timeout;
+    }
+
+    @Override
+    public ServletRequest getRequest() {
+        return request;
+    }
+
+    @Override
+    public ServletResponse getResponse() {
+        return response;
+    }
+
+    @Override
+    public boolean hasOriginalRequestAndResponse() {
+        return originalRequestAndResponse;
+    }
+
+    @Override
+    public void dispatch() {
+        throw new IllegalStateException(
+                "Method 'dispatch' not yet implemented!");
+    }
+
+    @Override
+    public void dispatch(String path) {
+        throw new IllegalStateException(
+                "Method 'dispatch' not yet implemented!");
+    }
+
+    @Override
+    public void dispatch(ServletContext context, String path) {
+        throw new IllegalStateException(
+                "Method 'dispatch' not yet implemented!");
+    }
+
+    @Override
+    public void complete() {
+        boolean finish;
+        synchronized (this) {
+            if (this.completed)
+                return;
+
+            this.completed = true;
+            finish = this.dispatchReturned;
+            if (this.scheduledTimeout != null)
+                this.scheduledTimeout.cancel();
+        }
+
+        for (Registration registration : this.listeners) {
+            try {
+                registration.listener.onComplete(registration.event(this));
+            } catch (Throwable t) {
+                log.warn("Async listener failed on complete", t);
+            }
+        }
+
+        if (finish)
+            this.completion.run();
+    }
+
+    /**
+     * Called by the bridge once the dispatch which started the asynchronous
+     * processing returned: writes the response if the context is already
+     * completed, otherwise starts the timeout.
+     */
+    public void dispatchReturned() {
+        boolean finish;
+        synchronized (this) {
+            this.dispatchReturned = true;
+            finish = this.completed;
+            if (!finish && this.timeout > 0)
+                this.scheduledTimeout = this.timer.newTimeout(
+                        new TimeoutTask(), this.timeout,
+                        TimeUnit.MILLISECONDS);
+        }
+
+        if (finish)
+            this.completion.run();
+    }
+
+    private void onTimeout() {
+        synchronized (this) {
+            if (this.completed)
+                return;
+        }
+
+        for (Registration registration : this.listeners) {
+            try {
+                registration.listener.onTimeout(registration.event(this));
+            } catch (Throwable t) {
+                log.warn("Async listener failed on timeout", t);
+            }
+        }
+
+        // no listener took care of the request, so answer with an error
+        synchronized (this) {
+            if (this.completed)
+                return;
+        }
+
+        if (!this.response.isCommitted()
+                && this.response instanceof HttpServletResponse)
+            ((HttpServletResponse) this.response)
+                    .setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+
+        this.complete();
+    }
+
+    /**
+     * Notifies the listeners about an error, e.g. the client disconnected, and
+     * completes the context.
+     */
+    public void fail(Throwable cause) {
+        synchronized (this) {
+            if (this.completed)
+                return;
+        }
+
+        for (Registration registration : this.listeners) {
+            try {
+                registration.listener.onError(registration.event(this, cause));
+            } catch (Throwable t) {
+                log.warn("Async listener failed on error", t);
+            }
+        }
+
+        this.complete();
+    }
+
+    public synchronized boolean isCompleted() {
+        return this.completed;
+    }
+
+    /**
+     * Runs the task on the worker executor of the webapp, on a virtual thread if
+     * the webapp dispatches on virtual threads, or on the calling thread if
+     * requests are executed inline.
+     */
+    @Override
+    public void start(Runnable run) {
+        ServletBridgeWebapp.get().getDispatcher().start(run);
+    }
+
+    @Override
+    public void addListener(AsyncListener listener) {
+        this.listeners.add(new Registration(listener, null, null));
+    }
+
+    @Override
+    public void addListener(AsyncListener listener,
+                            ServletRequest servletRequest, ServletResponse servletResponse) {
+        this.listeners.add(new Registration(listener, servletRequest,
+                servletResponse));
+    }
+
+    @Override
+    public <T extends AsyncListener> T createListener(Class<T> clazz)
+            throws ServletException {
+        try {
+            return clazz.getDeclaredConstructor().newInstance();
+        } catch (InvocationTargetException e) {
+            throw new ServletException("Error creating async listener "
+                    + clazz.getName(), e.getCause());
+        } catch (Exception e) {
+            throw new ServletException("Error creating async listener "
+                    + clazz.getName(), e);
+        }
+    }
+
+    @Override
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+
+    @Override
+    public long getTimeout() {
+        return this.timeout;
+    }
+
+    private final class TimeoutTask implements TimerTask {
+
+        @Override
+        public void run(Timeout timeout) throws Exception {
+            onTimeout();
+        }
+    }
+
+    private static final class Registration {
+
+        private final AsyncListener listener;
+
+        private final ServletRequest request;
+
+        private final ServletResponse response;
+
+        Registration(AsyncListener listener, ServletRequest request,
+                     ServletResponse response) {
+            this.listener = listener;
+            this.request = request;
+            this.response = response;
+        }
+
+        AsyncEvent event(AsyncContext context) {
+            return this.request != null ? new AsyncEvent(context, this.request,
+                    this.response) : new AsyncEvent(context);
+        }
+
+        AsyncEvent event(AsyncContext context, Throwable cause) {
+            return this.request != null ? new AsyncEvent(context, this.request,
+                    this.response, cause) : new AsyncEvent(context, cause);
+        }
+    }
+
+}
@@ -18,58 +18,82 @@ package net.javaforge.netty.servlet.bridge.impl;
 
 import net.javaforge.netty.servlet.bridge.config.FilterConfiguration;
 import net.javaforge.netty.servlet.bridge.config.ServletConfiguration;
+import net.javaforge.netty.servlet.bridge.mapping.UrlMatch;
 
 import javax.servlet.FilterChain;
 import javax.servlet.ServletException;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
 import java.io.IOException;
-import java.util.LinkedList;
 
+/**
+ * Per-request cursor over a precompiled, shared filter sequence. The filter
+ * array is resolved once per mapping by {@link ServletBridgeWebapp} and is never
+ * modified, only the position is request specific.
+ */
 public class FilterChainImpl implements FilterChain {
 
-    private LinkedList<FilterConfiguration> filterConfigurations;
+    private static final FilterConfiguration[] NO_FILTERS = new FilterConfiguration[0];
+
+    private FilterConfiguration[] filterConfigurations;
+
+    private int position;
 
     private ServletConfiguration servletConfiguration;
 
+    private UrlMatch<ServletConfiguration> servletMatch;
+
     public FilterChainImpl(ServletConfiguration servletConfiguration) {
-        this.servletConfiguration = servletConfiguration;
+        this(servletConfiguration, NO_FILTERS);
     }
 
-    public void addFilterConfiguration(FilterConfiguration config) {
+    public FilterChainImpl(ServletConfiguration servletConfiguration,
+                           FilterConfiguration[] filterConfigurations) {
+        this.servletConfiguration = servletConfiguration;
+        this.filterConfigurations = filterConfigurations;
+    }
 
-        if (this.filterConfigurations == null)
-            this.filterConfigurations = new LinkedList<FilterConfiguration>();
+    public FilterChainImpl(UrlMatch<ServletConfiguration> servletMatch,
+                           FilterConfiguration[] filterConfigurations) {
+        this(servletMatch != null ? servletMatch.getTarget() : null,
+                filterConfigurations);
+        this.servletMatch = servletMatch;
+    }
 
-        this.filterConfigurations.add(config);
+    public void addFilterConfiguration(FilterConfiguration config) {
+        // copy on write, the current array may be shared with other chains
+        FilterConfiguration[] filters = new FilterConfiguration[this.filterConfigurations.length + 1];
+        System.arraycopy(this.filterConfigurations, 0, filters, 0,
+                this.filterConfigurations.length);
+        filters[filters.length - 1] = config;
+        this.filterConfigurations = filters;
     }
 
     @Override
     public void doFilter(ServletRequest request, ServletResponse response)
             throws IOException, ServletException {
 
-        FilterConfiguration config = filterConfigurations != null ? filterConfigurations
-                .poll()
-                : null;
-
-        if (config != null)
-            config.getHttpComponent().doFilter(request, response, this);
+        if (this.position < this.filterConfigurations.length)
+            this.filterConfigurations[this.position++].getHttpComponent()
+                    .doFilter(request, response, this);
 
         else if (this.servletConfiguration != null) {
 
-            this.servletConfiguration.getHttpComponent().service(request,
-                    response);
+            this.servletConfiguration.service(request, response);
         }
     }
 
     public boolean isValid() {
         return this.servletConfiguration != null
-                || (this.filterConfigurations != null && !this.filterConfigurations
-                .isEmpty());
+                || this.filterConfigurations.length > 0;
     }
 
     public ServletConfiguration getServletConfiguration() {
         return servletConfiguration;
     }
 
+    public UrlMatch<ServletConfiguration> getServletMatch() {
+        return servletMatch;
+    }
+
 }
@@ -15,39 +15,54 @@
  */
 package net.javaforge.netty.servlet.bridge.impl;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.handler.codec.http.*;
 import io.netty.handler.codec.http.HttpHeaders.Names;
-import io.netty.handler.ssl.SslHandler;
-import net.javaforge.netty.servlet.bridge.ChannelThreadLocal;
-import net.javaforge.netty.servlet.bridge.HttpSessionThreadLocal;
+import io.netty.util.CharsetUtil;
+import net.javaforge.netty.servlet.bridge.ByteBufRequest;
+import net.javaforge.netty.servlet.bridge.config.ServletConfiguration;
+import net.javaforge.netty.servlet.bridge.multipart.MultipartRequest;
+import net.javaforge.netty.servlet.bridge.multipart.SpooledPart;
+import net.javaforge.netty.servlet.bridge.util.ParameterDecoder;
 import net.javaforge.netty.servlet.bridge.util.Utils;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.DispatcherType;
+import javax.servlet.MultipartConfigElement;
 import javax.servlet.RequestDispatcher;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
 import javax.servlet.ServletInputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletRequestWrapper;
+import javax.servlet.ServletResponse;
 import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
+import javax.servlet.http.HttpUpgradeHandler;
+import javax.servlet.http.Part;
 import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.security.Principal;
 import java.util.*;
 
 import static io.netty.handler.codec.http.HttpHeaders.Names.*;
-import io.netty.handler.codec.http.multipart.HttpPostRequestDecoder;
-import io.netty.handler.codec.http.multipart.InterfaceHttpData;
-import io.netty.handler.codec.http.multipart.MixedAttribute;
-import io.netty.util.Attribute;
-import java.util.logging.Level;
-import java.util.logging.Logger;
 
 @SuppressWarnings("unchecked")
-public class HttpServletRequestImpl implements HttpServletRequest {
+public class HttpServletRequestImpl implements HttpServletRequest, ByteBufRequest {
 
     private static final Locale DEFAULT_LOCALE = Locale.getDefault();
 
+    private static final String FORM_CONTENT_TYPE = "application/x-www-form-urlencoded";
+
     private URIParser uriParser;
 
     private HttpRequest originalRequest;
@@ -56,8 +71,6 @@ public class HttpServletRequestImpl implements HttpServletRequest {
 
     private BufferedReader reader;
 
-    private QueryStringDecoder queryStringDecoder;
-
     private Map<String, Object> attributes;
 
     private Principal userPrincipal;
@@ -65,33 +78,192 @@ public class HttpServletRequestImpl implements HttpServletRequest {
 //    private ServerCookieDecoder cookieDecoder = new ServerCookieDecoder();
     private String characterEncoding;
     private boolean parametersProcessed;
-    private HttpPostRequestDecoder postDecoder;
-    private Map<String, List<String>> parameterMap;
+    private Map<String, String[]> parameters;
+    private Map<String, String[]> parameterMap;
+
+    private HttpServletResponse servletResponse;
+
+    private Runnable asyncCompletion;
+
+    private AsyncContextImpl asyncContext;
+
+    private RequestContext context;
+
+    private MultipartConfigElement multipartConfig;
+
+    private MultipartRequest multipartRequest;
+
+    private volatile boolean recycled;
 
     public HttpServletRequestImpl(HttpRequest request, FilterChainImpl chain) {
-        this.originalRequest = request;
+        this(request, chain, new ServletInputStreamImpl(request), null);
+    }
 
-        if (request instanceof FullHttpRequest) {
-            this.inputStream = new ServletInputStreamImpl((FullHttpRequest) request);
-        } else {
-            this.inputStream = new ServletInputStreamImpl(request);
-        }
-        this.reader = new BufferedReader(new InputStreamReader(inputStream));
-        this.queryStringDecoder = new QueryStringDecoder(request.getUri());
-        if (request.getMethod() == HttpMethod.POST) {
-            this.postDecoder = new HttpPostRequestDecoder(request);
-        }
+    public HttpServletRequestImpl(HttpRequest request, FilterChainImpl chain,
+                                  RequestContext context) {
+        this(request, chain, context.getBody(), context);
+    }
+
+    private HttpServletRequestImpl(HttpRequest request, FilterChainImpl chain,
+                                   ServletInputStreamImpl inputStream, RequestContext context) {
         this.uriParser = new URIParser(chain);
-        this.uriParser.parse(request.getUri());
+        this.init(request, chain, inputStream, context);
+    }
+
+    private void init(HttpRequest request, FilterChainImpl chain,
+                      ServletInputStreamImpl inputStream, RequestContext context) {
+        this.originalRequest = request;
+        this.context = context;
+
+        this.inputStream = inputStream;
+        ServletConfiguration servlet = chain != null ? chain
+                .getServletConfiguration() : null;
+        this.multipartConfig = servlet != null ? servlet.getMultipartConfig()
+                : null;
+        this.uriParser.parse(chain, request.getUri());
         this.characterEncoding = Utils
                 .getCharsetFromContentType(getContentType());
 
     }
 
+    /**
+     * Resets the request for the next request of the channel, see
+     * {@link RequestRecycler}.
+     */
+    public void reuse(HttpRequest request, FilterChainImpl chain,
+                      RequestContext context) {
+        this.recycled = false;
+        this.init(request, chain, context.getBody(), context);
+    }
+
+    /**
+     * Detaches the request from its channel once it completed, it must not be
+     * used until it is reused. The maps of attributes and parameters are kept
+     * for the next request.
+     */
+    public void recycle() {
+        this.recycled = true;
+        this.originalRequest = null;
+        this.context = null;
+        this.inputStream = null;
+        this.reader = null;
+        if (this.attributes != null)
+            this.attributes.clear();
+        this.userPrincipal = null;
+        this.characterEncoding = null;
+        this.parametersProcessed = false;
+        if (this.parameters != null)
+            this.parameters.clear();
+        this.servletResponse = null;
+        this.asyncCompletion = null;
+        this.asyncContext = null;
+        this.multipartConfig = null;
+        this.multipartRequest = null;
+    }
+
+    /**
+     * @return <code>true</code> once the request completed, until it is
+     * reused
+     */
+    public boolean isRecycled() {
+        return recycled;
+    }
+
+    /**
+     * Enables asynchronous processing for this request.
+     *
+     * @param response   the response passed along with this request
+     * @param completion invoked once the asynchronous processing completed and
+     *                   the dispatch which started it returned
+     */
+    public void setAsyncSupport(HttpServletResponse response,
+                                Runnable completion) {
+        this.servletResponse = response;
+        this.asyncCompletion = completion;
+    }
+
+    /**
+     * @return the asynchronous context or <code>null</code> if the
+     * asynchronous processing was never started
+     */
+    public AsyncContextImpl getAsyncContextImpl() {
+        return asyncContext;
+    }
+
     public HttpRequest getOriginalRequest() {
         return originalRequest;
     }
 
+    /**
+     * @return the context of the request, i.e. its channel and session
+     */
+    public RequestContext getRequestContext() {
+        if (context == null)
+            throw new IllegalStateException(
+                    "Request is not bound to a channel!");
+
+        return context;
+    }
+
+    /**
+     * @return the request of the bridge wrapped by the request
+     * @throws IllegalArgumentException if the request does not wrap a request
+     *                                  of the bridge
+     */
+    public static HttpServletRequestImpl unwrap(ServletRequest request) {
+        while (request instanceof ServletRequestWrapper)
+            request = ((ServletRequestWrapper) request).getRequest();
+
+        if (!(request instanceof HttpServletRequestImpl))
+            throw new IllegalArgumentException("Not a request of the bridge: "
+                    + request);
+
+        return (HttpServletRequestImpl) request;
+    }
+
+    @Override
+    public ByteBuf readChunk() throws IOException {
+        return this.inputStream.readChunk();
+    }
+
+    @Override
+    public ByteBuf readContent() throws IOException {
+        return Unpooled.unmodifiableBuffer(this.inputStream.readContent());
+    }
+
+    @Override
+    public ByteBuffer readChunkBuffer() throws IOException {
+        RequestContext context = getRequestContext();
+        ByteBuf chunk = this.inputStream.readChunk();
+        if (chunk == null)
+            return null;
+
+        releaseOnCompletion(context, chunk);
+        return chunk.nioBuffer().asReadOnlyBuffer();
+    }
+
+    @Override
+    public ByteBuffer[] readContentBuffers() throws IOException {
+        RequestContext context = getRequestContext();
+        ByteBuf content = this.inputStream.readContent();
+        releaseOnCompletion(context, content);
+
+        ByteBuffer[] buffers = content.nioBuffers();
+        for (int i = 0; i < buffers.length; i++)
+            buffers[i] = buffers[i].asReadOnlyBuffer();
+        return buffers;
+    }
+
+    private static void releaseOnCompletion(RequestContext context,
+                                            final ByteBuf buffer) {
+        context.closeOnRelease(new Closeable() {
+            @Override
+            public void close() {
+                buffer.release();
+            }
+        });
+    }
+
     @Override
     public String getContextPath() {
         return ServletContextImpl.get().getContextPath();
@@ -207,6 +379,7 @@ public class HttpServletRequestImpl implements HttpServletRequest {
 
     @Override
     public ServletInputStream getInputStream() throws IOException {
+        this.inputStream.sendContinue();
         return this.inputStream;
     }
 
@@ -222,47 +395,134 @@ public class HttpServletRequestImpl implements HttpServletRequest {
     }
 
     @Override
-    public Map<String, List<String>> getParameterMap() {
-        if (parameterMap == null) {
-            parameterMap = new HashMap<String, List<String>>(this.queryStringDecoder.parameters());
-            if (originalRequest.getMethod() == HttpMethod.POST) {
-                List<InterfaceHttpData> datas = postDecoder.getBodyHttpDatas();
-                for (InterfaceHttpData data : datas) {
-                    if (data.getHttpDataType() == InterfaceHttpData.HttpDataType.Attribute) {
-                        try {
-                            String attr = null;
-                            if (data instanceof MixedAttribute) {
-                                attr = ((MixedAttribute) data).getString();
-                            } else if (data instanceof Attribute) {
-                                attr = "" + ((Attribute) data).get();
-                            } 
-                            //TODO: do we have to handle multiple values here
-                            List<String> values = new ArrayList<String>(1);
-                            values.add(attr); 
-                            parameterMap.put(data.getName(), values);
-                        } catch (IOException ex) {
-                            Logger.getLogger(HttpServletRequestImpl.class.getName()).log(Level.SEVERE, null, ex);
-                        }
-                    }
-                }
+    public Map<String, String[]> getParameterMap() {
+        Map<String, String[]> parameters = getParameters();
+        if (this.parameterMap == null)
+            this.parameterMap = Collections.unmodifiableMap(parameters);
+        return this.parameterMap;
+    }
+
+    /**
+     * Decodes the parameters on first access: those of the query string,
+     * followed by the fields of a form body, which is consumed by this.
+     */
+    private Map<String, String[]> getParameters() {
+        if (!parametersProcessed) {
+            parametersProcessed = true;
+            if (parameters == null)
+                parameters = new LinkedHashMap<String, String[]>();
+            String query = getQueryString();
+            if (query != null)
+                ParameterDecoder.decode(query, CharsetUtil.UTF_8, parameters);
+
+            if (originalRequest.getMethod() == HttpMethod.POST
+                    && MultipartRequest.isMultipart(getContentType())) {
+                addMultipartParameters(parameters);
+            } else if (originalRequest.getMethod() == HttpMethod.POST
+                    && isForm(getContentType())) {
+                addFormParameters(parameters);
             }
         }
-        return this.parameterMap;
+        return this.parameters;
+    }
+
+    private static boolean isForm(String contentType) {
+        return contentType != null && contentType.regionMatches(true, 0,
+                FORM_CONTENT_TYPE, 0, FORM_CONTENT_TYPE.length());
+    }
+
+    /**
+     * Adds the fields of an urlencoded form, decoded straight from the body.
+     *
+     * @throws IllegalStateException if the body can not be read, e.g. as it
+     *                               exceeds the limit of the servlet
+     */
+    private void addFormParameters(Map<String, String[]> parameters) {
+        ByteBuf content;
+        try {
+            content = this.inputStream.readContent();
+        } catch (IOException e) {
+            throw new IllegalStateException("Form body can not be read: "
+                    + e.getMessage(), e);
+        }
+        try {
+            ParameterDecoder.decode(content, getCharset(), parameters);
+        } finally {
+            content.release();
+        }
+    }
+
+    private Charset getCharset() {
+        if (this.characterEncoding != null) {
+            try {
+                return Charset.forName(this.characterEncoding);
+            } catch (IllegalArgumentException e) {
+                // unknown charsets fall back to the default
+            }
+        }
+        return CharsetUtil.UTF_8;
+    }
+
+    /**
+     * Adds the form fields of a multipart request, unless its parts are
+     * streamed.
+     *
+     * @throws IllegalStateException if the parts can not be read
+     */
+    private void addMultipartParameters(Map<String, String[]> parameters) {
+        try {
+            MultipartRequest multipart = getMultipartRequest();
+            Collection<Part> parts;
+            synchronized (multipart) {
+                parts = multipart.isStreaming() ? Collections.<Part>emptyList()
+                        : multipart.getParts();
+            }
+            for (Part part : parts) {
+                if (part.getSubmittedFileName() != null)
+                    continue;
+
+                String charset = Utils.getCharsetFromContentType(part
+                        .getContentType());
+                String value = ((SpooledPart) part).getString(charset != null ? Charset
+                        .forName(charset) : multipart.getCharset());
+                ParameterDecoder.add(parameters, part.getName(), value);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Multipart body can not be read: "
+                    + e.getMessage(), e);
+        } catch (ServletException e) {
+            throw new IllegalStateException("Multipart body can not be read: "
+                    + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return the parts of the request, read from its body on first access,
+     * or <code>null</code> if it is not a multipart request. Temporary files of
+     * its parts are deleted once the request is done.
+     */
+    public synchronized MultipartRequest getMultipartRequest()
+            throws ServletException {
+        if (this.multipartRequest == null
+                && MultipartRequest.isMultipart(getContentType())) {
+            this.multipartRequest = new MultipartRequest(this.inputStream,
+                    getContentType(), getCharacterEncoding(),
+                    this.multipartConfig);
+            if (this.context != null)
+                this.context.closeOnRelease(this.multipartRequest);
+        }
+        return this.multipartRequest;
     }
 
     @Override
     public Enumeration getParameterNames() {
-        return Utils.enumerationFromKeys(getParameterMap());
+        return Utils.enumerationFromKeys(getParameters());
     }
 
     @Override
     public String[] getParameterValues(String name
     ) {
-        List<String> values = getParameterMap().get(name);
-        if (values == null || values.isEmpty()) {
-            return null;
-        }
-        return values.toArray(new String[values.size()]);
+        return getParameters().get(name);
     }
 
     @Override
@@ -305,29 +565,43 @@ public class HttpServletRequestImpl implements HttpServletRequest {
 
     @Override
     public BufferedReader getReader() throws IOException {
+        this.inputStream.sendContinue();
+        if (this.reader == null)
+            this.reader = new BufferedReader(new InputStreamReader(
+                    this.inputStream, getCharset()));
         return this.reader;
     }
 
     @Override
     public String getRequestedSessionId() {
-        HttpSessionImpl session = HttpSessionThreadLocal.get();
+        HttpSessionImpl session = getRequestContext().getSession();
         return session != null ? session.getId() : null;
     }
 
     @Override
     public HttpSession getSession() {
-        HttpSession s = HttpSessionThreadLocal.getOrCreate();
-        return s;
+        return this.getOrCreateSession();
     }
 
     @Override
     public HttpSession getSession(boolean create
     ) {
-        HttpSession session = HttpSessionThreadLocal.get();
-        if (session == null && create) {
-            session = HttpSessionThreadLocal.getOrCreate();
-        }
-        return session;
+        return create ? this.getOrCreateSession() : getRequestContext()
+                .getSession();
+    }
+
+    private HttpSession getOrCreateSession() {
+        RequestContext context = getRequestContext();
+        HttpSessionImpl session = context.getSession();
+        if (session != null)
+            return session;
+
+        // the session cookie could not be sent anymore
+        if (this.servletResponse != null && this.servletResponse.isCommitted())
+            throw new IllegalStateException(
+                    "Cannot create a session after the response was committed");
+
+        return context.getOrCreateSession(this.servletResponse);
     }
 
     @Override
@@ -344,47 +618,37 @@ public class HttpServletRequestImpl implements HttpServletRequest {
 
     @Override
     public String getRemoteAddr() {
-        InetSocketAddress addr = (InetSocketAddress) ChannelThreadLocal.get()
-                .remoteAddress();
+        InetSocketAddress addr = getRequestContext().getRemoteAddress();
         return addr.getAddress().getHostAddress();
     }
 
     @Override
     public String getRemoteHost() {
-        InetSocketAddress addr = (InetSocketAddress) ChannelThreadLocal.get()
-                .remoteAddress();
+        InetSocketAddress addr = getRequestContext().getRemoteAddress();
         return addr.getHostName();
     }
 
     @Override
     public int getRemotePort() {
-        InetSocketAddress addr = (InetSocketAddress) ChannelThreadLocal.get()
-                .remoteAddress();
+        InetSocketAddress addr = getRequestContext().getRemoteAddress();
         return addr.getPort();
     }
 
     @Override
     public String getServerName() {
-        InetSocketAddress addr = (InetSocketAddress) ChannelThreadLocal.get()
-                .localAddress();
+        InetSocketAddress addr = getRequestContext().getLocalAddress();
         return addr.getHostName();
     }
 
     @Override
     public int getServerPort() {
-        InetSocketAddress addr = (InetSocketAddress) ChannelThreadLocal.get()
-                .localAddress();
+        InetSocketAddress addr = getRequestContext().getLocalAddress();
         return addr.getPort();
     }
 
     @Override
     public String getServletPath() {
-        String servletPath = this.uriParser.getServletPath();
-        if (servletPath.equals("/")) {
-            return "";
-        }
-
-        return servletPath;
+        return this.uriParser.getServletPath();
     }
 
     @Override
@@ -394,18 +658,17 @@ public class HttpServletRequestImpl implements HttpServletRequest {
 
     @Override
     public boolean isSecure() {
-        return ChannelThreadLocal.get().pipeline().get(SslHandler.class) != null;
+        return getRequestContext().isSecure();
     }
 
     @Override
     public boolean isRequestedSessionIdFromCookie() {
-        return true;
+        return getRequestContext().isSessionRequestedByCookie();
     }
 
     @Override
     public String getLocalAddr() {
-        InetSocketAddress addr = (InetSocketAddress) ChannelThreadLocal.get()
-                .localAddress();
+        InetSocketAddress addr = getRequestContext().getLocalAddress();
         return addr.getAddress().getHostAddress();
     }
 
@@ -507,4 +770,119 @@ public class HttpServletRequestImpl implements HttpServletRequest {
         throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
     }
 
+    @Override
+    public long getContentLengthLong() {
+        return HttpHeaders.getContentLength(this.originalRequest, -1);
+    }
+
+    @Override
+    public ServletContext getServletContext() {
+        return ServletContextImpl.get();
+    }
+
+    @Override
+    public AsyncContext startAsync() {
+        return this.startAsync(this, this.servletResponse, true);
+    }
+
+    @Override
+    public AsyncContext startAsync(ServletRequest servletRequest,
+                                   ServletResponse servletResponse) {
+        return this.startAsync(servletRequest, servletResponse,
+                servletRequest == this
+                        && servletResponse == this.servletResponse);
+    }
+
+    private AsyncContext startAsync(ServletRequest servletRequest,
+                                    ServletResponse servletResponse, boolean original) {
+        if (!isAsyncSupported())
+            throw new IllegalStateException(
+                    "Asynchronous processing is not supported by this request");
+
+        if (this.asyncContext != null)
+            throw new IllegalStateException(
+                    "Asynchronous processing already started");
+
+        ServletBridgeWebapp webapp = ServletBridgeWebapp.get();
+        this.asyncContext = new AsyncContextImpl(servletRequest,
+                servletResponse, original, this.asyncCompletion,
+                webapp.getTimer(), webapp.getWebappConfig().getAsyncTimeout());
+        return this.asyncContext;
+    }
+
+    @Override
+    public boolean isAsyncStarted() {
+        return this.asyncContext != null && !this.asyncContext.isCompleted();
+    }
+
+    @Override
+    public boolean isAsyncSupported() {
+        return this.asyncCompletion != null;
+    }
+
+    @Override
+    public AsyncContext getAsyncContext() {
+        if (this.asyncContext == null)
+            throw new IllegalStateException(
+                    "Asynchronous processing not started");
+
+        return this.asyncContext;
+    }
+
+    @Override
+    public DispatcherType getDispatcherType() {
+        return DispatcherType.REQUEST;
+    }
+
+    @Override
+    public boolean authenticate(HttpServletResponse response)
+            throws IOException, ServletException {
+        throw new IllegalStateException(
+                "Method 'authenticate' not yet implemented!");
+    }
+
+    @Override
+    public void login(String username, String password)
+            throws ServletException {
+        throw new IllegalStateException(
+                "Method 'login' not yet implemented!");
+    }
+
+    @Override
+    public void logout() throws ServletException {
+        throw new IllegalStateException(
+                "Method 'logout' not yet implemented!");
+    }
+
+    @Override
+    public Collection<Part> getParts() throws IOException, ServletException {
+        return this.getRequiredMultipartRequest().getParts();
+    }
+
+    @Override
+    public Part getPart(String name) throws IOException, ServletException {
+        return this.getRequiredMultipartRequest().getPart(name);
+    }
+
+    private MultipartRequest getRequiredMultipartRequest()
+            throws ServletException {
+        MultipartRequest multipart = this.getMultipartRequest();
+        if (multipart == null)
+            throw new ServletException("Not a multipart request: "
+                    + getContentType());
+        return multipart;
+    }
+
+    @Override
+    public String changeSessionId() {
+        throw new IllegalStateException(
+                "Method 'changeSessionId' not yet implemented!");
+    }
+
+    @Override
+    public <T extends HttpUpgradeHandler> T upgrade(Class<T> handlerClass)
+            throws IOException, ServletException {
+        throw new IllegalStateException(
+                "Method 'upgrade' not yet implemented!");
+    }
 }
@@ -16,6 +16,7 @@
 
 package net.javaforge.netty.servlet.bridge.impl;
 
+import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.*;
 import io.netty.handler.codec.http.HttpHeaders.Names;
 import net.javaforge.netty.servlet.bridge.ServletBridgeRuntimeException;
@@ -27,6 +28,7 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.util.Collection;
 import java.util.Locale;
 
 import static io.netty.handler.codec.http.HttpHeaders.Names.LOCATION;
@@ -38,17 +40,71 @@ public class HttpServletResponseImpl implements HttpServletResponse {
     private PrintWriterImpl writer;
     private boolean responseCommited = false;
     private Locale locale = null;
+    private volatile boolean recycled = false;
 
     public HttpServletResponseImpl(FullHttpResponse response) {
         this.originalResponse = response;
         this.outputStream = new ServletOutputStreamImpl(response);
-        this.writer = new PrintWriterImpl(this.outputStream);
+    }
+
+    /**
+     * Resets the response, its stream and its writer for the next response of
+     * the channel, see {@link RequestRecycler}.
+     */
+    public void reuse(FullHttpResponse response) {
+        this.originalResponse = response;
+        this.outputStream.reuse(response);
+        if (this.writer != null && !this.writer.reuse())
+            this.writer = null;
+        this.responseCommited = false;
+        this.locale = null;
+        this.recycled = false;
+    }
+
+    /**
+     * Detaches the response from the completed request, it must not be used
+     * until it is reused.
+     */
+    public void recycle() {
+        this.recycled = true;
+        this.originalResponse = null;
+        this.outputStream.recycle();
+    }
+
+    /**
+     * @return <code>true</code> once the request completed, until the response
+     * is reused
+     */
+    public boolean isRecycled() {
+        return recycled;
     }
 
     public HttpResponse getOriginalResponse() {
         return originalResponse;
     }
 
+    /**
+     * Binds the response to the channel of the request, so its body can be
+     * streamed.
+     */
+    public void bind(ChannelHandlerContext ctx, HttpRequest request) {
+        this.outputStream.bind(ctx, request);
+        this.outputStream.setBufferSize(ServletBridgeWebapp.get()
+                .getWebappConfig().getResponseBufferSize());
+    }
+
+    public ServletOutputStreamImpl getOutputStreamImpl() {
+        return outputStream;
+    }
+
+    /**
+     * @return <code>true</code> if the headers are written already and the body
+     * is streamed
+     */
+    public boolean isStreaming() {
+        return this.outputStream.isStreaming();
+    }
+
     @Override
     public void addCookie(Cookie cookie) {
         String result = ServerCookieEncoder.encode(new io.netty.handler.codec.http.DefaultCookie(cookie.getName(), cookie.getValue()));
@@ -125,6 +181,8 @@ public class HttpServletResponseImpl implements HttpServletResponse {
 
     @Override
     public PrintWriter getWriter() throws IOException {
+        if (this.writer == null)
+            this.writer = new PrintWriterImpl(this.outputStream);
         return this.writer;
     }
 
@@ -155,9 +213,34 @@ public class HttpServletResponseImpl implements HttpServletResponse {
         HttpHeaders.setContentLength(this.originalResponse, len);
     }
 
+    @Override
+    public void setContentLengthLong(long len) {
+        HttpHeaders.setContentLength(this.originalResponse, len);
+    }
+
+    @Override
+    public int getStatus() {
+        return this.originalResponse.getStatus().code();
+    }
+
+    @Override
+    public String getHeader(String name) {
+        return this.originalResponse.headers().get(name);
+    }
+
+    @Override
+    public Collection<String> getHeaders(String name) {
+        return this.originalResponse.headers().getAll(name);
+    }
+
+    @Override
+    public Collection<String> getHeaderNames() {
+        return this.originalResponse.headers().names();
+    }
+
     @Override
     public boolean isCommitted() {
-        return this.responseCommited;
+        return this.responseCommited || this.outputStream.isStreaming();
     }
 
     @Override
@@ -179,10 +262,22 @@ public class HttpServletResponseImpl implements HttpServletResponse {
 
     @Override
     public void flushBuffer() throws IOException {
-        this.getWriter().flush();
+        if (this.writer != null)
+            this.writer.flush();
+        this.outputStream.flush();
         this.responseCommited = true;
     }
 
+    /**
+     * Flushes the writer into the body once the request completes, without
+     * streaming the response.
+     */
+    public void flushWriter() {
+        this.outputStream.complete();
+        if (this.writer != null)
+            this.writer.flush();
+    }
+
     @Override
     public int getBufferSize() {
         return this.outputStream.getBufferSize();
@@ -190,7 +285,7 @@ public class HttpServletResponseImpl implements HttpServletResponse {
 
     @Override
     public void setBufferSize(int size) {
-        // we using always dynamic buffer for now
+        this.outputStream.setBufferSize(size);
     }
 
     @Override
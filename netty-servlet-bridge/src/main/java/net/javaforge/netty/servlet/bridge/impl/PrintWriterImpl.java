@@ -16,15 +16,21 @@
 
 package net.javaforge.netty.servlet.bridge.impl;
 
-import java.io.OutputStream;
 import java.io.PrintWriter;
 
 public class PrintWriterImpl extends PrintWriter {
 
+    private final ServletOutputStreamImpl stream;
+
     private boolean flushed = false;
 
-    public PrintWriterImpl(OutputStream out) {
+    private boolean closed = false;
+
+    private boolean failed = false;
+
+    public PrintWriterImpl(ServletOutputStreamImpl out) {
         super(out);
+        this.stream = out;
     }
 
     @Override
@@ -33,7 +39,39 @@ public class PrintWriterImpl extends PrintWriter {
         this.flushed = true;
     }
 
+    /**
+     * Closes the writer without streaming the response: the body is complete,
+     * so it is still sent at once with its length when the request completes.
+     */
+    @Override
+    public void close() {
+        this.stream.complete();
+        super.close();
+        this.closed = true;
+    }
+
+    @Override
+    protected void setError() {
+        super.setError();
+        this.failed = true;
+    }
+
     public boolean isFlushed() {
         return flushed;
     }
+
+    /**
+     * Resets the writer for the next response of the channel.
+     *
+     * @return <code>false</code> if the writer was closed or failed and can not
+     * be reused
+     */
+    public boolean reuse() {
+        // characters of a failed write may still be buffered
+        if (this.closed || this.failed)
+            return false;
+
+        this.flushed = false;
+        return true;
+    }
 }
@@ -0,0 +1,477 @@
+/*
+ * Copyright 2013 by Maxim Kalina
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package net.javaforge.netty.servlet.bridge.impl;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.DispatcherType;
+import javax.servlet.RequestDispatcher;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import javax.servlet.http.HttpUpgradeHandler;
+import javax.servlet.http.Part;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.Principal;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Facade handed to the servlet in {@link RecycleMode#DEBUG}, failing any use
+ * of the request once it completed. The checks live here, so the request
+ * itself pays nothing for them in the other modes.
+ */
+final class RecycleCheckingRequest extends HttpServletRequestWrapper {
+
+    private final HttpServletRequestImpl request;
+
+    RecycleCheckingRequest(HttpServletRequestImpl request) {
+        super(request);
+        this.request = request;
+    }
+
+    private void checkNotRecycled() {
+        if (this.request.isRecycled())
+            throw new IllegalStateException(
+                    "Request used after it completed");
+    }
+
+    @Override
+    public Object getAttribute(String name) {
+        this.checkNotRecycled();
+        return super.getAttribute(name);
+    }
+
+    @Override
+    public Enumeration<String> getAttributeNames() {
+        this.checkNotRecycled();
+        return super.getAttributeNames();
+    }
+
+    @Override
+    public String getCharacterEncoding() {
+        this.checkNotRecycled();
+        return super.getCharacterEncoding();
+    }
+
+    @Override
+    public void setCharacterEncoding(String env) throws UnsupportedEncodingException {
+        this.checkNotRecycled();
+        super.setCharacterEncoding(env);
+    }
+
+    @Override
+    public int getContentLength() {
+        this.checkNotRecycled();
+        return super.getContentLength();
+    }
+
+    @Override
+    public long getContentLengthLong() {
+        this.checkNotRecycled();
+        return super.getContentLengthLong();
+    }
+
+    @Override
+    public String getContentType() {
+        this.checkNotRecycled();
+        return super.getContentType();
+    }
+
+    @Override
+    public ServletInputStream getInputStream() throws IOException {
+        this.checkNotRecycled();
+        return super.getInputStream();
+    }
+
+    @Override
+    public String getParameter(String name) {
+        this.checkNotRecycled();
+        return super.getParameter(name);
+    }
+
+    @Override
+    public Enumeration<String> getParameterNames() {
+        this.checkNotRecycled();
+        return super.getParameterNames();
+    }
+
+    @Override
+    public String[] getParameterValues(String name) {
+        this.checkNotRecycled();
+        return super.getParameterValues(name);
+    }
+
+    @Override
+    public Map<String, String[]> getParameterMap() {
+        this.checkNotRecycled();
+        return super.getParameterMap();
+    }
+
+    @Override
+    public String getProtocol() {
+        this.checkNotRecycled();
+        return super.getProtocol();
+    }
+
+    @Override
+    public String getScheme() {
+        this.checkNotRecycled();
+        return super.getScheme();
+    }
+
+    @Override
+    public String getServerName() {
+        this.checkNotRecycled();
+        return super.getServerName();
+    }
+
+    @Override
+    public int getServerPort() {
+        this.checkNotRecycled();
+        return super.getServerPort();
+    }
+
+    @Override
+    public BufferedReader getReader() throws IOException {
+        this.checkNotRecycled();
+        return super.getReader();
+    }
+
+    @Override
+    public String getRemoteAddr() {
+        this.checkNotRecycled();
+        return super.getRemoteAddr();
+    }
+
+    @Override
+    public String getRemoteHost() {
+        this.checkNotRecycled();
+        return super.getRemoteHost();
+    }
+
+    @Override
+    public void setAttribute(String name, Object o) {
+        this.checkNotRecycled();
+        super.setAttribute(name, o);
+    }
+
+    @Override
+    public void removeAttribute(String name) {
+        this.checkNotRecycled();
+        super.removeAttribute(name);
+    }
+
+    @Override
+    public Locale getLocale() {
+        this.checkNotRecycled();
+        return super.getLocale();
+    }
+
+    @Override
+    public Enumeration<Locale> getLocales() {
+        this.checkNotRecycled();
+        return super.getLocales();
+    }
+
+    @Override
+    public boolean isSecure() {
+        this.checkNotRecycled();
+        return super.isSecure();
+    }
+
+    @Override
+    public RequestDispatcher getRequestDispatcher(String path) {
+        this.checkNotRecycled();
+        return super.getRequestDispatcher(path);
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public String getRealPath(String path) {
+        this.checkNotRecycled();
+        return super.getRealPath(path);
+    }
+
+    @Override
+    public int getRemotePort() {
+        this.checkNotRecycled();
+        return super.getRemotePort();
+    }
+
+    @Override
+    public String getLocalName() {
+        this.checkNotRecycled();
+        return super.getLocalName();
+    }
+
+    @Override
+    public String getLocalAddr() {
+        this.checkNotRecycled();
+        return super.getLocalAddr();
+    }
+
+    @Override
+    public int getLocalPort() {
+        this.checkNotRecycled();
+        return super.getLocalPort();
+    }
+
+    @Override
+    public ServletContext getServletContext() {
+        this.checkNotRecycled();
+        return super.getServletContext();
+    }
+
+    @Override
+    public AsyncContext startAsync() {
+        this.checkNotRecycled();
+        return super.startAsync();
+    }
+
+    @Override
+    public AsyncContext startAsync(ServletRequest servletRequest, ServletResponse servletResponse) {
+        this.checkNotRecycled();
+        return super.startAsync(servletRequest, servletResponse);
+    }
+
+    @Override
+    public boolean isAsyncStarted() {
+        this.checkNotRecycled();
+        return super.isAsyncStarted();
+    }
+
+    @Override
+    public boolean isAsyncSupported() {
+        this.checkNotRecycled();
+        return super.isAsyncSupported();
+    }
+
+    @Override
+    public AsyncContext getAsyncContext() {
+        this.checkNotRecycled();
+        return super.getAsyncContext();
+    }
+
+    @Override
+    public DispatcherType getDispatcherType() {
+        this.checkNotRecycled();
+        return super.getDispatcherType();
+    }
+
+    @Override
+    public String getAuthType() {
+        this.checkNotRecycled();
+        return super.getAuthType();
+    }
+
+    @Override
+    public Cookie[] getCookies() {
+        this.checkNotRecycled();
+        return super.getCookies();
+    }
+
+    @Override
+    public long getDateHeader(String name) {
+        this.checkNotRecycled();
+        return super.getDateHeader(name);
+    }
+
+    @Override
+    public String getHeader(String name) {
+        this.checkNotRecycled();
+        return super.getHeader(name);
+    }
+
+    @Override
+    public Enumeration<String> getHeaders(String name) {
+        this.checkNotRecycled();
+        return super.getHeaders(name);
+    }
+
+    @Override
+    public Enumeration<String> getHeaderNames() {
+        this.checkNotRecycled();
+        return super.getHeaderNames();
+    }
+
+    @Override
+    public int getIntHeader(String name) {
+        this.checkNotRecycled();
+        return super.getIntHeader(name);
+    }
+
+    @Override
+    public String getMethod() {
+        this.checkNotRecycled();
+        return super.getMethod();
+    }
+
+    @Override
+    public String getPathInfo() {
+        this.checkNotRecycled();
+        return super.getPathInfo();
+    }
+
+    @Override
+    public String getPathTranslated() {
+        this.checkNotRecycled();
+        return super.getPathTranslated();
+    }
+
+    @Override
+    public String getContextPath() {
+        this.checkNotRecycled();
+        return super.getContextPath();
+    }
+
+    @Override
+    public String getQueryString() {
+        this.checkNotRecycled();
+        return super.getQueryString();
+    }
+
+    @Override
+    public String getRemoteUser() {
+        this.checkNotRecycled();
+        return super.getRemoteUser();
+    }
+
+    @Override
+    public boolean isUserInRole(String role) {
+        this.checkNotRecycled();
+        return super.isUserInRole(role);
+    }
+
+    @Override
+    public Principal getUserPrincipal() {
+        this.checkNotRecycled();
+        return super.getUserPrincipal();
+    }
+
+    @Override
+    public String getRequestedSessionId() {
+        this.checkNotRecycled();
+        return super.getRequestedSessionId();
+    }
+
+    @Override
+    public String getRequestURI() {
+        this.checkNotRecycled();
+        return super.getRequestURI();
+    }
+
+    @Override
+    public StringBuffer getRequestURL() {
+        this.checkNotRecycled();
+        return super.getRequestURL();
+    }
+
+    @Override
+    public String getServletPath() {
+        this.checkNotRecycled();
+        return super.getServletPath();
+    }
+
+    @Override
+    public HttpSession getSession(boolean create) {
+        this.checkNotRecycled();
+        return super.getSession(create);
+    }
+
+    @Override
+    public HttpSession getSession() {
+        this.checkNotRecycled();
+        return super.getSession();
+    }
+
+    @Override
+    public String changeSessionId() {
+        this.checkNotRecycled();
+        return super.changeSessionId();
+    }
+
+    @Override
+    public boolean isRequestedSessionIdValid() {
+        this.checkNotRecycled();
+        return super.isRequestedSessionIdValid();
+    }
+
+    @Override
+    public boolean isRequestedSessionIdFromCookie() {
+        this.checkNotRecycled();
+        return super.isRequestedSessionIdFromCookie();
+    }
+
+    @Override
+    public boolean isRequestedSessionIdFromURL() {
+        this.checkNotRecycled();
+        return super.isRequestedSessionIdFromURL();
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public boolean isRequestedSessionIdFromUrl() {
+        this.checkNotRecycled();
+        return super.isRequestedSessionIdFromUrl();
+    }
+
+    @Override
+    public boolean authenticate(HttpServletResponse response) throws IOException, ServletException {
+        this.checkNotRecycled();
+        return super.authenticate(response);
+    }
+
+    @Override
+    public void login(String username, String password) throws ServletException {
+        this.checkNotRecycled();
+        super.login(username, password);
+    }
+
+    @Override
+    public void logout() throws ServletException {
+        this.checkNotRecycled();
+        super.logout();
+    }
+
+    @Override
+    public Collection<Part> getParts() throws IOException, ServletException {
+        this.checkNotRecycled();
+        return super.getParts();
+    }
+
+    @Override
+    public Part getPart(String name) throws IOException, ServletException {
+        this.checkNotRecycled();
+        return super.getPart(name);
+    }
+
+    @Override
+    public <T extends HttpUpgradeHandler> T upgrade(Class<T> handlerClass) throws IOException, ServletException {
+        this.checkNotRecycled();
+        return super.upgrade(handlerClass);
+    }
+
+}
@@ -0,0 +1,369 @@
+/*
+ * Copyright 2013 by Maxim Kalina
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package net.javaforge.netty.servlet.bridge.impl;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Collection;
+import java.util.Locale;
+
+/**
+ * Facade handed to the servlet in {@link RecycleMode#DEBUG}, failing any use
+ * of the response, its output stream or its writer once the request
+ * completed. The checks live here, so the response itself pays nothing for
+ * them in the other modes.
+ */
+final class RecycleCheckingResponse extends HttpServletResponseWrapper {
+
+    private final HttpServletResponseImpl response;
+
+    private ServletOutputStream outputStream;
+
+    private PrintWriter writer;
+
+    RecycleCheckingResponse(HttpServletResponseImpl response) {
+        super(response);
+        this.response = response;
+    }
+
+    private void checkNotRecycled() {
+        if (this.response.isRecycled())
+            throw new IllegalStateException(
+                    "Response used after its request completed");
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+        this.checkNotRecycled();
+        if (this.outputStream == null)
+            this.outputStream = new CheckingOutputStream(super
+                    .getOutputStream());
+        return this.outputStream;
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+        this.checkNotRecycled();
+        if (this.writer == null)
+            this.writer = new CheckingWriter(super.getWriter());
+        return this.writer;
+    }
+
+    @Override
+    public String getCharacterEncoding() {
+        this.checkNotRecycled();
+        return super.getCharacterEncoding();
+    }
+
+    @Override
+    public String getContentType() {
+        this.checkNotRecycled();
+        return super.getContentType();
+    }
+
+    @Override
+    public void setCharacterEncoding(String charset) {
+        this.checkNotRecycled();
+        super.setCharacterEncoding(charset);
+    }
+
+    @Override
+    public void setContentLength(int len) {
+        this.checkNotRecycled();
+        super.setContentLength(len);
+    }
+
+    @Override
+    public void setContentLengthLong(long len) {
+        this.checkNotRecycled();
+        super.setContentLengthLong(len);
+    }
+
+    @Override
+    public void setContentType(String type) {
+        this.checkNotRecycled();
+        super.setContentType(type);
+    }
+
+    @Override
+    public void setBufferSize(int size) {
+        this.checkNotRecycled();
+        super.setBufferSize(size);
+    }
+
+    @Override
+    public int getBufferSize() {
+        this.checkNotRecycled();
+        return super.getBufferSize();
+    }
+
+    @Override
+    public void flushBuffer() throws IOException {
+        this.checkNotRecycled();
+        super.flushBuffer();
+    }
+
+    @Override
+    public void resetBuffer() {
+        this.checkNotRecycled();
+        super.resetBuffer();
+    }
+
+    @Override
+    public boolean isCommitted() {
+        this.checkNotRecycled();
+        return super.isCommitted();
+    }
+
+    @Override
+    public void reset() {
+        this.checkNotRecycled();
+        super.reset();
+    }
+
+    @Override
+    public void setLocale(Locale loc) {
+        this.checkNotRecycled();
+        super.setLocale(loc);
+    }
+
+    @Override
+    public Locale getLocale() {
+        this.checkNotRecycled();
+        return super.getLocale();
+    }
+
+    @Override
+    public void addCookie(Cookie cookie) {
+        this.checkNotRecycled();
+        super.addCookie(cookie);
+    }
+
+    @Override
+    public boolean containsHeader(String name) {
+        this.checkNotRecycled();
+        return super.containsHeader(name);
+    }
+
+    @Override
+    public String encodeURL(String url) {
+        this.checkNotRecycled();
+        return super.encodeURL(url);
+    }
+
+    @Override
+    public String encodeRedirectURL(String url) {
+        this.checkNotRecycled();
+        return super.encodeRedirectURL(url);
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public String encodeUrl(String url) {
+        this.checkNotRecycled();
+        return super.encodeUrl(url);
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public String encodeRedirectUrl(String url) {
+        this.checkNotRecycled();
+        return super.encodeRedirectUrl(url);
+    }
+
+    @Override
+    public void sendError(int sc, String msg) throws IOException {
+        this.checkNotRecycled();
+        super.sendError(sc, msg);
+    }
+
+    @Override
+    public void sendError(int sc) throws IOException {
+        this.checkNotRecycled();
+        super.sendError(sc);
+    }
+
+    @Override
+    public void sendRedirect(String location) throws IOException {
+        this.checkNotRecycled();
+        super.sendRedirect(location);
+    }
+
+    @Override
+    public void setDateHeader(String name, long date) {
+        this.checkNotRecycled();
+        super.setDateHeader(name, date);
+    }
+
+    @Override
+    public void addDateHeader(String name, long date) {
+        this.checkNotRecycled();
+        super.addDateHeader(name, date);
+    }
+
+    @Override
+    public void setHeader(String name, String value) {
+        this.checkNotRecycled();
+        super.setHeader(name, value);
+    }
+
+    @Override
+    public void addHeader(String name, String value) {
+        this.checkNotRecycled();
+        super.addHeader(name, value);
+    }
+
+    @Override
+    public void setIntHeader(String name, int value) {
+        this.checkNotRecycled();
+        super.setIntHeader(name, value);
+    }
+
+    @Override
+    public void addIntHeader(String name, int value) {
+        this.checkNotRecycled();
+        super.addIntHeader(name, value);
+    }
+
+    @Override
+    public void setStatus(int sc) {
+        this.checkNotRecycled();
+        super.setStatus(sc);
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public void setStatus(int sc, String sm) {
+        this.checkNotRecycled();
+        super.setStatus(sc, sm);
+    }
+
+    @Override
+    public int getStatus() {
+        this.checkNotRecycled();
+        return super.getStatus();
+    }
+
+    @Override
+    public String getHeader(String name) {
+        this.checkNotRecycled();
+        return super.getHeader(name);
+    }
+
+    @Override
+    public Collection<String> getHeaders(String name) {
+        this.checkNotRecycled();
+        return super.getHeaders(name);
+    }
+
+    @Override
+    public Collection<String> getHeaderNames() {
+        this.checkNotRecycled();
+        return super.getHeaderNames();
+    }
+
+
+    private final class CheckingOutputStream extends ServletOutputStream {
+
+        private final ServletOutputStream out;
+
+        CheckingOutputStream(ServletOutputStream out) {
+            this.out = out;
+        }
+
+        private void checkNotRecycled() {
+            if (response.isRecycled())
+                throw new IllegalStateException(
+                        "Output stream used after its response completed");
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            this.checkNotRecycled();
+            this.out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            this.checkNotRecycled();
+            this.out.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            this.checkNotRecycled();
+            this.out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.out.close();
+        }
+
+        @Override
+        public boolean isReady() {
+            this.checkNotRecycled();
+            return this.out.isReady();
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+            this.checkNotRecycled();
+            this.out.setWriteListener(writeListener);
+        }
+    }
+
+    private final class CheckingWriter extends PrintWriter {
+
+        CheckingWriter(PrintWriter out) {
+            super(out);
+        }
+
+        private void checkNotRecycled() {
+            if (response.isRecycled())
+                throw new IllegalStateException(
+                        "Writer used after its response completed");
+        }
+
+        @Override
+        public void write(int c) {
+            this.checkNotRecycled();
+            super.write(c);
+        }
+
+        @Override
+        public void write(char[] buf, int off, int len) {
+            this.checkNotRecycled();
+            super.write(buf, off, len);
+        }
+
+        @Override
+        public void write(String s, int off, int len) {
+            this.checkNotRecycled();
+            super.write(s, off, len);
+        }
+
+        @Override
+        public void flush() {
+            this.checkNotRecycled();
+            super.flush();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2013 by Maxim Kalina
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.javaforge.netty.servlet.bridge.impl;
+
+/**
+ * Defines whether the servlet request and response objects of a request, along
+ * with its URI parser and the writer of its response, are reused for later
+ * requests of the same connection.
+ */
+public enum RecycleMode {
+
+    /**
+     * Allocate new objects for every request.
+     */
+    NONE,
+
+    /**
+     * Keep the objects of a completed request and reset them for the next
+     * request of the connection, like the facades of Tomcat are recycled. Each
+     * idle connection holds on to one set of objects. Servlets must not use a
+     * request, a response or their streams once the request completed, i.e.
+     * once the servlet returned or the asynchronous context completed.
+     */
+    CHANNEL,
+
+    /**
+     * Reset the objects of a completed request like {@link #CHANNEL} does, but
+     * never reuse them: servlets get facades of the request and response, and
+     * any later use of them or of the response streams fails with an
+     * {@link IllegalStateException}. Meant to find servlets which keep them
+     * beyond the request, before switching to {@link #CHANNEL}.
+     */
+    DEBUG
+
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2013 by Maxim Kalina
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package net.javaforge.netty.servlet.bridge.impl;
+
+import io.netty.channel.Channel;
+import io.netty.handler.codec.http.ServerCookieEncoder;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
+import net.javaforge.netty.servlet.bridge.dispatch.Cancellation;
+import net.javaforge.netty.servlet.bridge.session.ServletBridgeHttpSessionStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import static io.netty.handler.codec.http.HttpHeaders.Names.SET_COOKIE;
+
+/**
+ * State of a single request: the channel and its connection metadata, the
+ * request body, the cancellation and the session. The context is carried by
+ * the {@link HttpServletRequestImpl} and is the current context of the channel
+ * until the request is released, so requests do not depend on the thread they
+ * run on and may move between the event loop, workers and virtual threads.
+ */
+public class RequestContext {
+
+    private static final Logger log = LoggerFactory
+            .getLogger(RequestContext.class);
+
+    private static final AttributeKey<RequestContext> CURRENT = AttributeKey
+            .valueOf(RequestContext.class, "current");
+
+    private static final AttributeKey<Boolean> SECURE = AttributeKey
+            .valueOf(RequestContext.class, "secure");
+
+    private final Channel channel;
+
+    private final boolean secure;
+
+    private final ServletInputStreamImpl body;
+
+    private final Cancellation cancellation;
+
+    private volatile HttpSessionImpl session;
+
+    private volatile boolean sessionRequestedByCookie;
+
+    private List<Closeable> resources;
+
+    RequestContext(Channel channel, boolean secure,
+                   ServletInputStreamImpl body, Cancellation cancellation) {
+        this.channel = channel;
+        this.secure = secure;
+        this.body = body;
+        this.cancellation = cancellation;
+    }
+
+    /**
+     * Creates the context of a request received on the channel and makes it
+     * the current context of the channel. Must be called on the event loop.
+     */
+    public static RequestContext open(Channel channel,
+                                      ServletInputStreamImpl body, Cancellation cancellation) {
+        // the pipeline is looked up once per connection, not per request
+        Attribute<Boolean> secure = channel.attr(SECURE);
+        if (secure.get() == null)
+            secure.set(channel.pipeline().get(SslHandler.class) != null);
+
+        RequestContext context = new RequestContext(channel, secure.get(),
+                body, cancellation);
+        channel.attr(CURRENT).set(context);
+        return context;
+    }
+
+    /**
+     * @return the context of the request being processed on the channel or
+     * <code>null</code>
+     */
+    public static RequestContext get(Channel channel) {
+        return channel.attr(CURRENT).get();
+    }
+
+    /**
+     * Releases the body, the cancellation and the resources of the request once
+     * it is done. The context stays current only if no other request was
+     * received meanwhile.
+     */
+    public void release() {
+        this.body.close();
+        this.cancellation.release();
+
+        List<Closeable> resources;
+        synchronized (this) {
+            resources = this.resources;
+            this.resources = null;
+        }
+        if (resources != null) {
+            for (Closeable resource : resources) {
+                try {
+                    resource.close();
+                } catch (IOException e) {
+                    log.warn("Failed to release " + resource, e);
+                }
+            }
+        }
+
+        this.channel.attr(CURRENT).compareAndSet(this, null);
+    }
+
+    /**
+     * Closes the resource, e.g. temporary files, once the request is done.
+     */
+    public synchronized void closeOnRelease(Closeable resource) {
+        if (this.resources == null)
+            this.resources = new ArrayList<Closeable>(2);
+        this.resources.add(resource);
+    }
+
+    public Channel getChannel() {
+        return channel;
+    }
+
+    public InetSocketAddress getRemoteAddress() {
+        return (InetSocketAddress) this.channel.remoteAddress();
+    }
+
+    public InetSocketAddress getLocalAddress() {
+        return (InetSocketAddress) this.channel.localAddress();
+    }
+
+    public boolean isSecure() {
+        return secure;
+    }
+
+    public ServletInputStreamImpl getBody() {
+        return body;
+    }
+
+    public Cancellation getCancellation() {
+        return cancellation;
+    }
+
+    /**
+     * @return the session of the request or <code>null</code>, a returned
+     * session is touched
+     */
+    public HttpSessionImpl getSession() {
+        HttpSessionImpl session = this.session;
+        if (session != null)
+            session.touch();
+        return session;
+    }
+
+    /**
+     * @param response the response the cookie of a created session is added
+     *                 to, or <code>null</code>
+     * @return the session of the request, created in the session store of the
+     * webapp if the request has none yet
+     */
+    public HttpSessionImpl getOrCreateSession(HttpServletResponse response) {
+        HttpSessionImpl session = getSession();
+        if (session != null)
+            return session;
+
+        synchronized (this) {
+            if (this.session == null) {
+                ServletBridgeWebapp webapp = ServletBridgeWebapp.get();
+                ServletBridgeHttpSessionStore store = webapp.getSessionStore();
+                HttpSessionImpl newSession = store.createSession();
+                newSession.setMaxInactiveInterval(webapp.getWebappConfig()
+                        .getSessionTimeout());
+                this.session = newSession;
+
+                // added right away, so it is part of a head sent early
+                if (response != null)
+                    response.addHeader(SET_COOKIE.toString(), ServerCookieEncoder
+                            .encode(HttpSessionImpl.SESSION_ID_KEY,
+                                    newSession.getId()));
+            }
+            return this.session;
+        }
+    }
+
+    /**
+     * Binds an existing session to the request.
+     *
+     * @param requestedByCookie whether the client sent the session id
+     */
+    public void setSession(HttpSessionImpl session, boolean requestedByCookie) {
+        this.session = session;
+        this.sessionRequestedByCookie = requestedByCookie;
+    }
+
+    public boolean isSessionRequestedByCookie() {
+        return sessionRequestedByCookie;
+    }
+
+}
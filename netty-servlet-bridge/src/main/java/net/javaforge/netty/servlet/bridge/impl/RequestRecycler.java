@@ -0,0 +1,129 @@
+/*
+ * Copyright 2013 by Maxim Kalina
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.javaforge.netty.servlet.bridge.impl;
+
+import io.netty.channel.Channel;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Keeps the servlet request and response of a connection for its next
+ * request, see {@link RecycleMode}. The requests of a connection follow each
+ * other, so a single slot per channel serves them without locking, whatever
+ * threads build and complete them. A request arriving while the objects are
+ * in use, e.g. a pipelined one, gets objects of its own.
+ */
+public final class RequestRecycler {
+
+    private static final AttributeKey<RequestRecycler> RECYCLER = AttributeKey
+            .valueOf(RequestRecycler.class, "recycler");
+
+    private static final RequestRecycler DISCARDING = new RequestRecycler(
+            false);
+
+    private final boolean reuse;
+
+    private final AtomicReference<HttpServletRequestImpl> request = new AtomicReference<HttpServletRequestImpl>();
+
+    private final AtomicReference<HttpServletResponseImpl> response = new AtomicReference<HttpServletResponseImpl>();
+
+    private RequestRecycler(boolean reuse) {
+        this.reuse = reuse;
+    }
+
+    /**
+     * @return the recycler of the channel, or <code>null</code> if requests
+     * are not recycled
+     */
+    public static RequestRecycler get(Channel channel) {
+        RecycleMode mode = ServletBridgeWebapp.get().getWebappConfig()
+                .getRecycleMode();
+        if (mode == RecycleMode.NONE)
+            return null;
+        if (mode == RecycleMode.DEBUG)
+            return DISCARDING;
+
+        Attribute<RequestRecycler> attr = channel.attr(RECYCLER);
+        RequestRecycler recycler = attr.get();
+        if (recycler == null) {
+            recycler = new RequestRecycler(true);
+            RequestRecycler existing = attr.setIfAbsent(recycler);
+            if (existing != null)
+                recycler = existing;
+        }
+        return recycler;
+    }
+
+    /**
+     * @return the recycled request of the channel, reset for the request, or
+     * <code>null</code> if there is none
+     */
+    public HttpServletRequestImpl reuseRequest(HttpRequest request,
+                                               FilterChainImpl chain, RequestContext context) {
+        HttpServletRequestImpl req = this.request.getAndSet(null);
+        if (req != null)
+            req.reuse(request, chain, context);
+        return req;
+    }
+
+    /**
+     * @return the recycled response of the channel, reset for the response, or
+     * <code>null</code> if there is none
+     */
+    public HttpServletResponseImpl reuseResponse(FullHttpResponse response) {
+        HttpServletResponseImpl resp = this.response.getAndSet(null);
+        if (resp != null)
+            resp.reuse(response);
+        return resp;
+    }
+
+    /**
+     * @return the request to hand to the servlet, in {@link RecycleMode#DEBUG}
+     * a facade failing any use once the request completed
+     */
+    public HttpServletRequest facade(HttpServletRequestImpl req) {
+        return this.reuse ? req : new RecycleCheckingRequest(req);
+    }
+
+    /**
+     * @return the response to hand to the servlet, in {@link RecycleMode#DEBUG}
+     * a facade failing any use once the request completed
+     */
+    public HttpServletResponse facade(HttpServletResponseImpl resp) {
+        return this.reuse ? resp : new RecycleCheckingResponse(resp);
+    }
+
+    /**
+     * Recycles the request and response once the request completed and its
+     * response was handed to the channel. They must not be used afterwards.
+     */
+    public void recycle(HttpServletRequestImpl req, HttpServletResponseImpl resp) {
+        req.recycle();
+        resp.recycle();
+        if (this.reuse) {
+            this.request.set(req);
+            this.response.set(resp);
+        }
+    }
+
+}
@@ -16,23 +16,63 @@
 
 package net.javaforge.netty.servlet.bridge.impl;
 
+import io.netty.channel.Channel;
+import io.netty.channel.ServerChannel;
 import io.netty.channel.group.ChannelGroup;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timer;
 import net.javaforge.netty.servlet.bridge.config.FilterConfiguration;
 import net.javaforge.netty.servlet.bridge.config.ServletConfiguration;
 import net.javaforge.netty.servlet.bridge.config.ServletContextListenerConfiguration;
 import net.javaforge.netty.servlet.bridge.config.WebappConfiguration;
+import net.javaforge.netty.servlet.bridge.dispatch.Dispatcher;
+import net.javaforge.netty.servlet.bridge.dispatch.ReadThrottle;
+import net.javaforge.netty.servlet.bridge.mapping.Route;
+import net.javaforge.netty.servlet.bridge.mapping.RouteCache;
+import net.javaforge.netty.servlet.bridge.mapping.UrlMatch;
+import net.javaforge.netty.servlet.bridge.mapping.UrlPatternMapper;
+import net.javaforge.netty.servlet.bridge.session.DefaultServletBridgeHttpSessionStore;
+import net.javaforge.netty.servlet.bridge.session.ServletBridgeHttpSessionStore;
 
 import java.io.File;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ServletBridgeWebapp {
 
+    private static final FilterConfiguration[] NO_FILTERS = new FilterConfiguration[0];
+
+    private static final AttributeKey<Route> LAST_ROUTE = AttributeKey
+            .valueOf(ServletBridgeWebapp.class, "lastRoute");
+
+    private static final AttributeKey<AtomicInteger> IN_FLIGHT = AttributeKey
+            .valueOf(ServletBridgeWebapp.class, "inFlight");
+
     private static ServletBridgeWebapp instance;
 
     private WebappConfiguration webappConfig;
 
     private ChannelGroup sharedChannelGroup;
 
+    private UrlPatternMapper<ServletConfiguration> servletMapper;
+
+    private UrlPatternMapper<FilterConfiguration> filterMapper;
+
+    private RouteCache routeCache;
+
+    private Dispatcher dispatcher;
+
+    private Timer timer;
+
+    private ServletBridgeHttpSessionStore sessionStore;
+
+    private final AtomicInteger inFlightRequests = new AtomicInteger();
+
+    private volatile boolean draining;
+
     public static ServletBridgeWebapp get() {
 
         if (instance == null)
@@ -47,16 +87,69 @@ public class ServletBridgeWebapp {
     public void init(WebappConfiguration webapp, ChannelGroup sharedChannelGroup) {
         this.webappConfig = webapp;
         this.sharedChannelGroup = sharedChannelGroup;
+        this.draining = false;
+        this.timer = new HashedWheelTimer();
         this.initServletContext();
+        this.initDispatcher();
         this.initContextListeners();
         this.initFilters();
         this.initServlets();
+        this.initUrlMappings();
+    }
+
+    /**
+     * Stops accepting connections and waits until the in-flight requests are
+     * finished, i.e. their responses are written. Responses written while
+     * draining close their connection, idle keep-alive connections are closed
+     * right away.
+     *
+     * @return <code>true</code> if all in-flight requests finished in time
+     */
+    public boolean drain(long timeoutMillis) throws InterruptedException {
+        this.draining = true;
+
+        if (this.sharedChannelGroup != null) {
+            for (final Channel channel : this.sharedChannelGroup) {
+                if (channel instanceof ServerChannel) {
+                    channel.close();
+                    continue;
+                }
+
+                if (channel.parent() != null)
+                    channel.parent().close();
+
+                // checked on the event loop, so no request is read meanwhile
+                channel.eventLoop().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (inFlightRequests(channel) == 0)
+                            channel.close();
+                    }
+                });
+            }
+        }
+
+        long deadline = System.nanoTime()
+                + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        synchronized (this.inFlightRequests) {
+            while (this.inFlightRequests.get() > 0) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0)
+                    return false;
+
+                TimeUnit.NANOSECONDS.timedWait(this.inFlightRequests,
+                        remaining);
+            }
+        }
+        return true;
     }
 
     public void destroy() {
         this.destroyServlets();
         this.destroyFilters();
         this.destroyContextListeners();
+        this.dispatcher.shutdown();
+        this.timer.stop();
     }
 
     private void initContextListeners() {
@@ -124,34 +217,113 @@ public class ServletBridgeWebapp {
         }
     }
 
-    public FilterChainImpl initializeChain(String uri) {
-        ServletConfiguration servletConfiguration = this.findServlet(uri);
-        FilterChainImpl chain = new FilterChainImpl(servletConfiguration);
+    protected void initUrlMappings() {
+        UrlPatternMapper<ServletConfiguration> servlets = new UrlPatternMapper<ServletConfiguration>();
+        if (webappConfig.hasServletConfigurations()) {
+            for (ServletConfiguration servlet : webappConfig
+                    .getServletConfigurations()) {
+                for (String urlPattern : servlet.getUrlPatterns())
+                    servlets.addMapping(urlPattern, servlet);
+            }
+        }
 
-        if (this.webappConfig.hasFilterConfigurations()) {
-            for (FilterConfiguration s : this.webappConfig
+        UrlPatternMapper<FilterConfiguration> filters = new UrlPatternMapper<FilterConfiguration>();
+        if (webappConfig.hasFilterConfigurations()) {
+            for (FilterConfiguration filter : webappConfig
                     .getFilterConfigurations()) {
-                if (s.matchesUrlPattern(uri))
-                    chain.addFilterConfiguration(s);
+                for (String urlPattern : filter.getUrlPatterns())
+                    filters.addMapping(urlPattern, filter);
+            }
+        }
+
+        this.servletMapper = servlets;
+        this.filterMapper = filters;
+        this.routeCache = webappConfig.getRouteCacheSize() > 0 ? new RouteCache(
+                webappConfig.getRouteCacheSize()) : null;
+    }
+
+    protected void initDispatcher() {
+        Dispatcher dispatcher = new Dispatcher(webappConfig.getDispatchExecutor(),
+                webappConfig.getDispatchMode(),
+                webappConfig.getWorkersPerEventLoop());
+        if (webappConfig.hasServletConfigurations()) {
+            for (ServletConfiguration servlet : webappConfig
+                    .getServletConfigurations()) {
+                dispatcher.addServlet(servlet);
             }
         }
+        dispatcher.setLimiter(webappConfig.getConcurrencyLimiter());
+        dispatcher.setSchedulingPolicy(webappConfig.getSchedulingPolicy());
+        if (webappConfig.getPendingRequestHighWaterMark() > 0)
+            dispatcher.setReadThrottle(new ReadThrottle(webappConfig
+                    .getPendingRequestLowWaterMark(), webappConfig
+                    .getPendingRequestHighWaterMark(), this.sharedChannelGroup));
+        this.dispatcher = dispatcher;
+    }
+
+    public FilterChainImpl initializeChain(String uri) {
+        return this.initializeChain(null, uri);
+    }
 
-        return chain;
+    public FilterChainImpl initializeChain(Channel channel, String uri) {
+        Route route = this.resolveRoute(channel, uri);
+        return new FilterChainImpl(route.getServletMatch(), route.getFilters());
     }
 
-    private ServletConfiguration findServlet(String uri) {
+    /**
+     * Resolves servlet and filters for the given uri. If the route cache is
+     * enabled, the last route of the channel is tried first, as keep-alive
+     * clients tend to repeat the same path, then the shared cache.
+     */
+    public Route resolveRoute(Channel channel, String uri) {
+        RouteCache cache = this.routeCache;
+        int pathLength = UrlPatternMapper.pathLength(uri);
+        if (cache == null)
+            return this.newRoute(uri, pathLength);
 
-        if (!this.webappConfig.hasServletConfigurations()) {
-            return null;
+        Attribute<Route> lastRoute = channel != null ? channel.attr(LAST_ROUTE)
+                : null;
+        Route route = lastRoute != null ? lastRoute.get() : null;
+        if (route != null && route.matchesPath(uri, pathLength)) {
+            cache.recordChannelHit();
+            return route;
         }
 
-        for (ServletConfiguration s : this.webappConfig
-                .getServletConfigurations()) {
-            if (s.matchesUrlPattern(uri))
-                return s;
+        route = cache.get(uri, pathLength);
+        if (route == null) {
+            route = this.newRoute(uri, pathLength);
+            cache.put(route);
         }
 
-        return null;
+        if (lastRoute != null)
+            lastRoute.set(route);
+
+        return route;
+    }
+
+    private Route newRoute(String uri, int pathLength) {
+        return new Route(uri.substring(0, pathLength), this.matchServlet(uri),
+                this.matchFilters(uri));
+    }
+
+    /**
+     * Resolves the servlet mapped to the given uri according to the servlet
+     * specification mapping rules.
+     *
+     * @return the match or <code>null</code> if no servlet is mapped to the uri
+     */
+    public UrlMatch<ServletConfiguration> matchServlet(String uri) {
+        return this.servletMapper != null ? this.servletMapper.match(uri)
+                : null;
+    }
+
+    /**
+     * Resolves the filters mapped to the given uri in declaration order. The
+     * returned array is shared between requests and must not be modified.
+     */
+    public FilterConfiguration[] matchFilters(String uri) {
+        return this.filterMapper != null ? this.filterMapper.matchAll(uri,
+                NO_FILTERS) : NO_FILTERS;
     }
 
     public File getStaticResourcesFolder() {
@@ -162,6 +334,119 @@ public class ServletBridgeWebapp {
         return webappConfig;
     }
 
+    /**
+     * @return the route cache or <code>null</code> if it is disabled
+     */
+    public RouteCache getRouteCache() {
+        return routeCache;
+    }
+
+    public Dispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    /**
+     * @return the timer shared by the webapp, e.g. for asynchronous request
+     * timeouts
+     */
+    public Timer getTimer() {
+        return timer;
+    }
+
+    /**
+     * @return the store sessions are created in, a default store is used if
+     * none was set
+     */
+    public synchronized ServletBridgeHttpSessionStore getSessionStore() {
+        if (sessionStore == null)
+            sessionStore = new DefaultServletBridgeHttpSessionStore();
+
+        return sessionStore;
+    }
+
+    public synchronized void setSessionStore(
+            ServletBridgeHttpSessionStore sessionStore) {
+        this.sessionStore = sessionStore;
+    }
+
+    /**
+     * Counts a request as in flight on the channel until
+     * {@link #requestFinished(Channel)}.
+     */
+    public void requestStarted(Channel channel) {
+        Attribute<AtomicInteger> attr = channel.attr(IN_FLIGHT);
+        AtomicInteger requests = attr.get();
+        if (requests == null) {
+            AtomicInteger created = new AtomicInteger();
+            requests = attr.setIfAbsent(created);
+            if (requests == null)
+                requests = created;
+        }
+
+        requests.incrementAndGet();
+        this.inFlightRequests.incrementAndGet();
+    }
+
+    /**
+     * Counts one request in flight on the channel as finished, once its final
+     * response is written. While draining, the connection is closed after its
+     * last request in flight.
+     */
+    public void requestFinished(Channel channel) {
+        AtomicInteger requests = channel.attr(IN_FLIGHT).get();
+        if (requests == null)
+            return;
+
+        // responses not preceded by requestStarted, e.g. static resources
+        int count;
+        do {
+            count = requests.get();
+            if (count == 0)
+                return;
+        } while (!requests.compareAndSet(count, count - 1));
+
+        if (this.draining && count == 1)
+            channel.close();
+
+        this.finished(1);
+    }
+
+    /**
+     * Counts all requests still in flight on the channel as finished, once it
+     * is closed.
+     */
+    public void channelClosed(Channel channel) {
+        AtomicInteger requests = channel.attr(IN_FLIGHT).getAndRemove();
+        if (requests != null)
+            this.finished(requests.getAndSet(0));
+    }
+
+    private void finished(int requests) {
+        if (requests > 0 && this.inFlightRequests.addAndGet(-requests) == 0
+                && this.draining) {
+            synchronized (this.inFlightRequests) {
+                this.inFlightRequests.notifyAll();
+            }
+        }
+    }
+
+    private static int inFlightRequests(Channel channel) {
+        AtomicInteger requests = channel.attr(IN_FLIGHT).get();
+        return requests != null ? requests.get() : 0;
+    }
+
+    public int getInFlightRequests() {
+        return this.inFlightRequests.get();
+    }
+
+    /**
+     * @return <code>true</code> once {@link #drain(long)} was called, new
+     * connections are refused and responses close their connection
+     */
+    public boolean isDraining() {
+        return draining;
+    }
+
     public ChannelGroup getSharedChannelGroup() {
         return sharedChannelGroup;
     }
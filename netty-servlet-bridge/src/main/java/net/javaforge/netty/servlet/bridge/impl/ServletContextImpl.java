@@ -17,14 +17,13 @@
 package net.javaforge.netty.servlet.bridge.impl;
 
 import net.javaforge.netty.servlet.bridge.config.ServletConfiguration;
+import net.javaforge.netty.servlet.bridge.mapping.UrlMatch;
 import net.javaforge.netty.servlet.bridge.util.Utils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.servlet.RequestDispatcher;
-import javax.servlet.Servlet;
-import javax.servlet.ServletContext;
-import javax.servlet.ServletException;
+import javax.servlet.*;
+import javax.servlet.descriptor.JspConfigDescriptor;
 import javax.servlet.http.HttpServlet;
 import java.io.File;
 import java.io.IOException;
@@ -73,12 +72,22 @@ public class ServletContextImpl extends ConfigAdapter implements ServletContext
 
     @Override
     public int getMajorVersion() {
-        return 2;
+        return 3;
     }
 
     @Override
     public int getMinorVersion() {
-        return 4;
+        return 1;
+    }
+
+    @Override
+    public int getEffectiveMajorVersion() {
+        return getMajorVersion();
+    }
+
+    @Override
+    public int getEffectiveMinorVersion() {
+        return getMinorVersion();
     }
 
     @Override
@@ -201,17 +210,174 @@ public class ServletContextImpl extends ConfigAdapter implements ServletContext
 
     @Override
     public RequestDispatcher getRequestDispatcher(String path) {
-        Collection<ServletConfiguration> colls = ServletBridgeWebapp.get().getWebappConfig().getServletConfigurations();
+        UrlMatch<ServletConfiguration> match = ServletBridgeWebapp.get().matchServlet(path);
         HttpServlet servlet = null;
         String servletName = null;
-        for (ServletConfiguration configuration : colls) {
-            if (configuration.matchesUrlPattern(path)) {
-                servlet = configuration.getHttpComponent();
-                servletName = configuration.getHttpComponent().getServletName();
-            }
+        if (match != null) {
+            servlet = match.getTarget().getHttpComponent();
+            servletName = servlet.getServletName();
         }
 
         return new RequestDispatcherImpl(servletName, path, servlet);
     }
 
+    @Override
+    public boolean setInitParameter(String name, String value) {
+        if (getInitParameter(name) != null)
+            return false;
+
+        addInitParameter(name, value);
+        return true;
+    }
+
+    @Override
+    public ServletRegistration.Dynamic addServlet(String servletName,
+                                                  String className) {
+        throw new IllegalStateException(
+                "Method 'addServlet' not yet implemented!");
+    }
+
+    @Override
+    public ServletRegistration.Dynamic addServlet(String servletName,
+                                                  Servlet servlet) {
+        throw new IllegalStateException(
+                "Method 'addServlet' not yet implemented!");
+    }
+
+    @Override
+    public ServletRegistration.Dynamic addServlet(String servletName,
+                                                  Class<? extends Servlet> servletClass) {
+        throw new IllegalStateException(
+                "Method 'addServlet' not yet implemented!");
+    }
+
+    @Override
+    public <T extends Servlet> T createServlet(Class<T> clazz)
+            throws ServletException {
+        throw new IllegalStateException(
+                "Method 'createServlet' not yet implemented!");
+    }
+
+    @Override
+    public ServletRegistration getServletRegistration(String servletName) {
+        throw new IllegalStateException(
+                "Method 'getServletRegistration' not yet implemented!");
+    }
+
+    @Override
+    public Map<String, ? extends ServletRegistration> getServletRegistrations() {
+        throw new IllegalStateException(
+                "Method 'getServletRegistrations' not yet implemented!");
+    }
+
+    @Override
+    public FilterRegistration.Dynamic addFilter(String filterName,
+                                                String className) {
+        throw new IllegalStateException(
+                "Method 'addFilter' not yet implemented!");
+    }
+
+    @Override
+    public FilterRegistration.Dynamic addFilter(String filterName,
+                                                Filter filter) {
+        throw new IllegalStateException(
+                "Method 'addFilter' not yet implemented!");
+    }
+
+    @Override
+    public FilterRegistration.Dynamic addFilter(String filterName,
+                                                Class<? extends Filter> filterClass) {
+        throw new IllegalStateException(
+                "Method 'addFilter' not yet implemented!");
+    }
+
+    @Override
+    public <T extends Filter> T createFilter(Class<T> clazz)
+            throws ServletException {
+        throw new IllegalStateException(
+                "Method 'createFilter' not yet implemented!");
+    }
+
+    @Override
+    public FilterRegistration getFilterRegistration(String filterName) {
+        throw new IllegalStateException(
+                "Method 'getFilterRegistration' not yet implemented!");
+    }
+
+    @Override
+    public Map<String, ? extends FilterRegistration> getFilterRegistrations() {
+        throw new IllegalStateException(
+                "Method 'getFilterRegistrations' not yet implemented!");
+    }
+
+    @Override
+    public SessionCookieConfig getSessionCookieConfig() {
+        throw new IllegalStateException(
+                "Method 'getSessionCookieConfig' not yet implemented!");
+    }
+
+    @Override
+    public void setSessionTrackingModes(
+            Set<SessionTrackingMode> sessionTrackingModes) {
+        throw new IllegalStateException(
+                "Method 'setSessionTrackingModes' not yet implemented!");
+    }
+
+    @Override
+    public Set<SessionTrackingMode> getDefaultSessionTrackingModes() {
+        return EnumSet.of(SessionTrackingMode.COOKIE);
+    }
+
+    @Override
+    public Set<SessionTrackingMode> getEffectiveSessionTrackingModes() {
+        return getDefaultSessionTrackingModes();
+    }
+
+    @Override
+    public void addListener(String className) {
+        throw new IllegalStateException(
+                "Method 'addListener' not yet implemented!");
+    }
+
+    @Override
+    public <T extends EventListener> void addListener(T t) {
+        throw new IllegalStateException(
+                "Method 'addListener' not yet implemented!");
+    }
+
+    @Override
+    public void addListener(Class<? extends EventListener> listenerClass) {
+        throw new IllegalStateException(
+                "Method 'addListener' not yet implemented!");
+    }
+
+    @Override
+    public <T extends EventListener> T createListener(Class<T> clazz)
+            throws ServletException {
+        throw new IllegalStateException(
+                "Method 'createListener' not yet implemented!");
+    }
+
+    @Override
+    public JspConfigDescriptor getJspConfigDescriptor() {
+        return null;
+    }
+
+    @Override
+    public ClassLoader getClassLoader() {
+        return ServletContextImpl.class.getClassLoader();
+    }
+
+    @Override
+    public void declareRoles(String... roleNames) {
+        throw new IllegalStateException(
+                "Method 'declareRoles' not yet implemented!");
+    }
+
+    @Override
+    public String getVirtualServerName() {
+        throw new IllegalStateException(
+                "Method 'getVirtualServerName' not yet implemented!");
+    }
+
 }
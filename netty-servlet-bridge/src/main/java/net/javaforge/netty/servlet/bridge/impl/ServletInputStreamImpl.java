@@ -16,46 +16,575 @@
 
 package net.javaforge.netty.servlet.bridge.impl;
 
-import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
 import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
 import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaders;
 import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.util.concurrent.EventExecutor;
+import net.javaforge.netty.servlet.bridge.dispatch.Cancellation;
+import net.javaforge.netty.servlet.bridge.util.BodyDecompressor;
+import net.javaforge.netty.servlet.bridge.util.ReadGate;
 
+import javax.servlet.ReadListener;
 import javax.servlet.ServletInputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayDeque;
+import java.util.Queue;
 
+/**
+ * Request body, either the content of an aggregated request or the
+ * {@link HttpContent} messages of a streamed request as they arrive on the
+ * channel, see {@link #offer(HttpContent)}. Streamed chunks are released as
+ * soon as they are read. If bound to a channel, reading from it is suspended
+ * while more than the buffer size is waiting to be read, and resumed once half
+ * of it was read, so the memory held by an upload is bounded. A client
+ * expecting a <code>100 Continue</code> is only asked for the body once it is
+ * read. Compressed bodies may be decompressed as they arrive, see
+ * {@link #setDecompressor(BodyDecompressor)}.
+ * <p/>
+ * Reads block until content arrives, unless a {@link ReadListener} is set: it
+ * is notified on the event loop of the channel whenever content arrives after
+ * {@link #isReady()} returned <code>false</code>. Blocked reads fail once the
+ * request is cancelled, see {@link #setCancellation(Cancellation)}.
+ */
 public class ServletInputStreamImpl extends ServletInputStream {
 
-    private HttpRequest request;
+    private final HttpRequest request;
 
-    private ByteBufInputStream in;
+    private final EventExecutor executor;
 
-    public ServletInputStreamImpl(FullHttpRequest request) {
-        this.request = request;
+    private final Channel channel;
 
-        this.in = new ByteBufInputStream(request.content());
-    }
+    private final int bufferSize;
+
+    private int bufferedBytes;
+
+    private boolean suspended;
+
+    private final boolean streamed;
+
+    private final Queue<ByteBuf> chunks = new ArrayDeque<ByteBuf>(2);
+
+    private boolean last;
+
+    private boolean closed;
+
+    private IOException failure;
+
+    private ReadListener readListener;
+
+    private boolean readListenerArmed;
+
+    private boolean allDataRead;
+
+    private long maxSize;
+
+    private long receivedBytes;
+
+    private boolean continueExpected;
+
+    private boolean oversized;
+
+    private BodyDecompressor decompressor;
+
+    private Cancellation cancellation;
 
     public ServletInputStreamImpl(HttpRequest request) {
+        this(request, null);
+    }
+
+    /**
+     * @param executor the event loop of the channel, read listeners are
+     *                 notified on
+     */
+    public ServletInputStreamImpl(HttpRequest request, EventExecutor executor) {
+        this(request, executor, null, 0);
+    }
+
+    /**
+     * @param channel    the channel of the request, read listeners are notified
+     *                   on its event loop
+     * @param bufferSize the number of bytes waiting to be read above which
+     *                   reading from the channel is suspended, <code>0</code>
+     *                   for no limit
+     */
+    public ServletInputStreamImpl(HttpRequest request, Channel channel,
+                                  int bufferSize) {
+        this(request, channel.eventLoop(), channel, bufferSize);
+    }
+
+    private ServletInputStreamImpl(HttpRequest request, EventExecutor executor,
+                                   Channel channel, int bufferSize) {
         this.request = request;
+        this.executor = executor;
+        this.channel = channel;
+        this.bufferSize = bufferSize;
+        this.streamed = !(request instanceof FullHttpRequest);
+        this.continueExpected = this.streamed && channel != null
+                && HttpHeaders.is100ContinueExpected(request);
+
+        if (!this.streamed) {
+            ByteBuf content = ((FullHttpRequest) request).content();
+            if (content.isReadable())
+                this.chunks.add(content.duplicate());
+            this.last = true;
+        }
+    }
+
+    /**
+     * Appends content of a streamed request, taking over its ownership. Must be
+     * called on the event loop.
+     */
+    public void offer(HttpContent content) {
+        IOException cause = null;
+        synchronized (this) {
+            boolean last = content instanceof LastHttpContent;
+            if (this.closed || !this.streamed || this.failure != null) {
+                this.last |= last;
+                content.release();
+                return;
+            }
 
-        this.in = new ByteBufInputStream(Unpooled.buffer(0));
+            ByteBuf data = content.content();
+            this.receivedBytes += data.readableBytes();
+            if (this.maxSize > 0 && this.receivedBytes > this.maxSize) {
+                this.oversized = true;
+                data.release();
+                cause = new IOException("Request body exceeds " + this.maxSize
+                        + " bytes");
+            } else if (this.decompressor != null) {
+                long size = this.decompressor.getSize();
+                cause = this.decompress(data, last);
+                this.bufferedBytes += (int) (this.decompressor.getSize() - size);
+            } else if (data.isReadable()) {
+                this.chunks.add(data);
+                this.bufferedBytes += data.readableBytes();
+            } else {
+                data.release();
+            }
+
+            if (cause == null) {
+                if (last)
+                    this.last = true;
+                else if (this.bufferedBytes > this.bufferSize && this.bufferSize > 0
+                        && this.channel != null && !this.suspended) {
+                    this.suspended = true;
+                    ReadGate.suspend(this.channel);
+                }
+
+                this.notifyAll();
+            }
+        }
+
+        if (cause != null)
+            this.fail(cause);
+        else
+            this.notifyReadListener();
+    }
+
+    /**
+     * Decompresses the content into chunks.
+     *
+     * @return the failure of the decompression or <code>null</code>
+     */
+    private IOException decompress(ByteBuf data, boolean last) {
+        try {
+            if (this.decompressor.decode(data, this.chunks)
+                    && (!last || this.decompressor.finish(this.chunks)))
+                return null;
+
+            this.oversized = true;
+            return new IOException("Decompressed request body is too large");
+        } catch (IOException e) {
+            return e;
+        }
+    }
+
+    /**
+     * Decompresses the body as it arrives, reads return the decompressed
+     * content. Must be set before content is offered. The content of an
+     * aggregated request is decompressed right away.
+     */
+    public synchronized void setDecompressor(BodyDecompressor decompressor) {
+        this.decompressor = decompressor;
+        if (this.streamed)
+            return;
+
+        ByteBuf content = this.chunks.poll();
+        this.failure = this.decompress(content != null ? content.retain()
+                : Unpooled.EMPTY_BUFFER, true);
     }
 
+    /**
+     * Bounds blocking reads by the deadline of the request and fails them once
+     * the client disconnects.
+     */
+    public void setCancellation(Cancellation cancellation) {
+        synchronized (this) {
+            this.cancellation = cancellation;
+            if (this.last || this.closed)
+                return;
+        }
+
+        cancellation.onDisconnect(new Runnable() {
+            @Override
+            public void run() {
+                fail(new ClosedChannelException());
+            }
+        });
+    }
+
+    /**
+     * Fails pending and future reads, e.g. because the channel was closed
+     * before the request body was received completely.
+     */
+    public void fail(IOException cause) {
+        ReadListener listener;
+        synchronized (this) {
+            if (this.last || this.closed || this.failure != null)
+                return;
+
+            this.failure = cause;
+            this.notifyAll();
+            listener = this.readListener;
+        }
+
+        if (listener != null)
+            listener.onError(cause);
+    }
 
     @Override
     public int read() throws IOException {
-        return this.in.read();
+        synchronized (this) {
+            ByteBuf chunk = this.awaitChunk();
+            if (chunk == null)
+                return -1;
+
+            int b = chunk.readUnsignedByte();
+            this.consumed(chunk, 1);
+            return b;
+        }
     }
 
     @Override
     public int read(byte[] buf) throws IOException {
-        return this.in.read(buf);
+        return this.read(buf, 0, buf.length);
     }
 
     @Override
     public int read(byte[] buf, int offset, int len) throws IOException {
-        return this.in.read(buf, offset, len);
+        if (len == 0)
+            return 0;
+
+        synchronized (this) {
+            ByteBuf chunk = this.awaitChunk();
+            if (chunk == null)
+                return -1;
+
+            int n = Math.min(len, chunk.readableBytes());
+            chunk.readBytes(buf, offset, n);
+            this.consumed(chunk, n);
+            return n;
+        }
+    }
+
+    @Override
+    public synchronized int available() throws IOException {
+        ByteBuf chunk = this.chunks.peek();
+        return chunk != null ? chunk.readableBytes() : 0;
+    }
+
+    /**
+     * Reads the next chunk as it was received, blocking until it arrives.
+     *
+     * @return a read-only view of the chunk, which must be released by the
+     * caller, or <code>null</code> at the end of the body
+     */
+    public ByteBuf readChunk() throws IOException {
+        synchronized (this) {
+            ByteBuf chunk = this.awaitChunk();
+            if (chunk == null)
+                return null;
+
+            int n = chunk.readableBytes();
+            ByteBuf view = Unpooled.unmodifiableBuffer(chunk.retain().slice());
+            chunk.skipBytes(n);
+            this.consumed(chunk, n);
+            return view;
+        }
+    }
+
+    /**
+     * Reads the rest of the body at once, blocking until it was received
+     * completely. The returned buffer is a composite of the received chunks
+     * rather than a copy, it must be released by the caller.
+     */
+    public ByteBuf readContent() throws IOException {
+        CompositeByteBuf content = Unpooled.compositeBuffer(Integer.MAX_VALUE);
+        try {
+            synchronized (this) {
+                ByteBuf chunk;
+                while ((chunk = this.awaitChunk()) != null) {
+                    int n = chunk.readableBytes();
+                    content.addComponent(chunk.retain());
+                    content.writerIndex(content.writerIndex() + n);
+                    chunk.skipBytes(n);
+                    this.consumed(chunk, n);
+                }
+            }
+        } catch (IOException e) {
+            content.release();
+            throw e;
+        }
+        return content;
+    }
+
+    private ByteBuf awaitChunk() throws IOException {
+        while (true) {
+            if (this.failure != null)
+                throw this.failure;
+
+            ByteBuf chunk = this.chunks.peek();
+            if (chunk != null)
+                return chunk;
+
+            if (this.last || this.closed)
+                return null;
+
+            this.sendContinue();
+
+            if (this.readListener != null)
+                throw new IllegalStateException(
+                        "No data available, check isReady() before reading");
+
+            if (this.executor != null && this.executor.inEventLoop())
+                throw new IllegalStateException(
+                        "Blocking read of a streamed request body on the event loop");
+
+            long timeout = this.cancellation != null ? this.cancellation
+                    .getRemainingMillis() : Long.MAX_VALUE;
+            if (timeout == 0) {
+                this.failure = new SocketTimeoutException(
+                        "Deadline exceeded while reading the request body");
+                throw this.failure;
+            }
+
+            try {
+                this.wait(timeout == Long.MAX_VALUE ? 0 : timeout);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+    }
+
+    private void consumed(ByteBuf chunk, int n) {
+        if (this.streamed) {
+            this.bufferedBytes -= n;
+            if (this.suspended && this.bufferedBytes <= this.bufferSize / 2)
+                this.resume();
+        }
+
+        if (chunk.isReadable())
+            return;
+
+        this.chunks.poll();
+        if (this.ownsChunks())
+            chunk.release();
+    }
+
+    /**
+     * @return <code>true</code> if chunks are released once read, i.e. they
+     * were received or decompressed rather than taken from a full request
+     */
+    private boolean ownsChunks() {
+        return this.streamed || this.decompressor != null;
+    }
+
+    private void resume() {
+        this.suspended = false;
+        ReadGate.resume(this.channel);
+    }
+
+    /**
+     * Sets the size above which the body is refused: reads fail and content
+     * arriving later is released right away. <code>0</code> for no limit.
+     */
+    public synchronized void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return <code>true</code> if more than the max size was received, or
+     * the decompressed body outgrew the limit of the decompressor
+     */
+    public synchronized boolean isOversized() {
+        return oversized;
+    }
+
+    /**
+     * Asks a client expecting a <code>100 Continue</code> to send the body,
+     * unless that was done already. The body is requested once it is read
+     * for the first time, so requests refused without reading their body
+     * are not uploaded in vain.
+     */
+    public void sendContinue() {
+        synchronized (this) {
+            if (!this.continueExpected)
+                return;
+
+            this.continueExpected = false;
+        }
+        // a full message, so the encoder expects the actual response next
+        this.channel.writeAndFlush(new DefaultFullHttpResponse(
+                this.request.getProtocolVersion(), HttpResponseStatus.CONTINUE,
+                Unpooled.EMPTY_BUFFER));
+    }
+
+    /**
+     * @return <code>true</code> if the client still waits for a
+     * <code>100 Continue</code> to send the body
+     */
+    public synchronized boolean isContinueWithheld() {
+        return this.continueExpected && !this.last;
+    }
+
+    /**
+     * Gives up on asking for the body, e.g. because the response is written
+     * before the body was read.
+     *
+     * @return <code>true</code> if the client was never asked for the body,
+     * so the connection can not be kept alive
+     */
+    public synchronized boolean cancelContinue() {
+        boolean withheld = this.isContinueWithheld();
+        this.continueExpected = false;
+        return withheld;
+    }
+
+    /**
+     * @return the number of bytes received, but not read yet
+     */
+    public synchronized int getBufferedBytes() {
+        return bufferedBytes;
+    }
+
+    /**
+     * @return <code>true</code> if the body was received completely
+     */
+    public synchronized boolean isLastReceived() {
+        return last;
+    }
+
+    @Override
+    public synchronized boolean isFinished() {
+        return this.chunks.isEmpty() && (this.last || this.closed);
+    }
+
+    @Override
+    public synchronized boolean isReady() {
+        boolean ready = !this.chunks.isEmpty() || this.last || this.closed
+                || this.failure != null;
+        if (!ready) {
+            this.readListenerArmed = true;
+            this.sendContinue();
+        }
+
+        return ready;
+    }
+
+    @Override
+    public void setReadListener(ReadListener readListener) {
+        if (readListener == null)
+            throw new NullPointerException("readListener");
+
+        synchronized (this) {
+            if (this.readListener != null)
+                throw new IllegalStateException("Read listener already set");
+
+            this.readListener = readListener;
+            this.readListenerArmed = true;
+        }
+        this.sendContinue();
+
+        if (this.executor == null || this.executor.inEventLoop()) {
+            this.notifyReadListener();
+        } else {
+            this.executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    notifyReadListener();
+                }
+            });
+        }
+    }
+
+    private void notifyReadListener() {
+        ReadListener listener;
+        boolean dataAvailable;
+        synchronized (this) {
+            listener = this.readListener;
+            if (listener == null || this.allDataRead || this.failure != null)
+                return;
+
+            dataAvailable = this.readListenerArmed && !this.chunks.isEmpty();
+            if (dataAvailable)
+                this.readListenerArmed = false;
+        }
+
+        try {
+            if (dataAvailable)
+                listener.onDataAvailable();
+
+            synchronized (this) {
+                if (this.allDataRead || !this.chunks.isEmpty() || !this.last)
+                    return;
+
+                this.allDataRead = true;
+            }
+            listener.onAllDataRead();
+        } catch (Throwable t) {
+            listener.onError(t);
+        }
+    }
+
+    /**
+     * Discards the unread content, content arriving later is released right
+     * away.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (this.closed)
+                return;
+
+            this.closed = true;
+            if (this.ownsChunks()) {
+                for (ByteBuf chunk : this.chunks)
+                    chunk.release();
+            }
+            this.chunks.clear();
+            if (this.decompressor != null)
+                this.decompressor.close();
+            this.bufferedBytes = 0;
+            if (this.suspended)
+                this.resume();
+            this.notifyAll();
+        }
+    }
+
+    public HttpRequest getRequest() {
+        return request;
     }
 
 }
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2013 by Maxim Kalina
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package net.javaforge.netty.servlet.bridge.impl;
+
+import javax.servlet.UnavailableException;
+import javax.servlet.http.HttpServlet;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fixed set of instances of a servlet which is not thread-safe, each serving
+ * one request at a time (<code>SingleThreadModel</code> semantics). Checking an
+ * instance out and in only takes a CAS while instances are idle, requests
+ * finding no idle instance wait up to the configured timeout.
+ */
+public class ServletInstancePool {
+
+    private final ConcurrentLinkedQueue<HttpServlet> idle = new ConcurrentLinkedQueue<HttpServlet>();
+
+    private final Semaphore available;
+
+    private final int size;
+
+    private final long timeoutMillis;
+
+    private final AtomicLong waitCount = new AtomicLong();
+
+    private final AtomicLong timeoutCount = new AtomicLong();
+
+    public ServletInstancePool(List<HttpServlet> instances, long timeoutMillis) {
+        this.idle.addAll(instances);
+        this.size = instances.size();
+        this.available = new Semaphore(this.size);
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * @return an idle instance, which must be returned by
+     * {@link #checkIn(HttpServlet)}
+     * @throws UnavailableException if no instance got idle within the timeout
+     */
+    public HttpServlet checkOut() throws UnavailableException {
+        if (!this.available.tryAcquire()) {
+            this.waitCount.incrementAndGet();
+            boolean acquired;
+            try {
+                acquired = this.available.tryAcquire(this.timeoutMillis,
+                        TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                acquired = false;
+            }
+
+            if (!acquired) {
+                this.timeoutCount.incrementAndGet();
+                throw new UnavailableException("No idle servlet instance within "
+                        + this.timeoutMillis + " ms", 1);
+            }
+        }
+
+        // a permit guarantees an idle instance
+        return this.idle.poll();
+    }
+
+    public void checkIn(HttpServlet servlet) {
+        this.idle.offer(servlet);
+        this.available.release();
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getIdleCount() {
+        return this.available.availablePermits();
+    }
+
+    /**
+     * @return check outs which had to wait for an instance
+     */
+    public long getWaitCount() {
+        return this.waitCount.get();
+    }
+
+    /**
+     * @return check outs which gave up waiting
+     */
+    public long getTimeoutCount() {
+        return this.timeoutCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "ServletInstancePool[idle=" + getIdleCount() + "/" + this.size
+                + ", waits=" + getWaitCount() + ", timeouts="
+                + getTimeoutCount() + "]";
+    }
+
+}
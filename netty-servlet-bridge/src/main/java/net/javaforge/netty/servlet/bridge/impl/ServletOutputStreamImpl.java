@@ -16,48 +16,343 @@
 
 package net.javaforge.netty.servlet.bridge.impl;
 
-import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.DefaultHttpResponse;
 import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
 
 import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.ClosedChannelException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import static io.netty.handler.codec.http.HttpHeaders.Names.CONNECTION;
+
+/**
+ * Response body. The body is buffered in the content of the full response and
+ * written at once when the request completes, unless the response is
+ * streamed: then the headers are written right away and every write becomes a
+ * chunk of its own. The response is streamed once the servlet flushes it or
+ * the body outgrows the buffer size.
+ * <p/>
+ * Streamed writes honor the writability of the channel: a thread writing off
+ * the event loop blocks while the outbound buffer of the channel is above its
+ * high water mark, so slow clients do not pile the body up in memory.
+ * Writes on the event loop can not block, so servlets dispatched
+ * {@link net.javaforge.netty.servlet.bridge.dispatch.DispatchMode#INLINE} get
+ * no backpressure: their streamed body piles up in the outbound buffer. Such
+ * servlets should keep their responses small or use a write listener.
+ * <p/>
+ * Setting a {@link WriteListener} streams the response without blocking.
+ * {@link #isReady()} then reflects the writability of the channel, the
+ * listener is notified on the event loop once the channel becomes writable
+ * again.
+ */
 public class ServletOutputStreamImpl extends ServletOutputStream {
 
-    private FullHttpResponse response;
+    /**
+     * Default size of the response buffer.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
 
-    private ByteBufOutputStream out;
+    private static final int MAX_CHUNK_SIZE = 64 * 1024;
+
+    private FullHttpResponse response;
 
     private boolean flushed = false;
 
+    private ChannelHandlerContext ctx;
+
+    private boolean keepAlive;
+
+    private boolean chunked;
+
+    private volatile boolean streaming;
+
+    private volatile WriteListener writeListener;
+
+    private final AtomicBoolean writeListenerArmed = new AtomicBoolean();
+
+    private int bufferSize = DEFAULT_BUFFER_SIZE;
+
+    private boolean completing;
+
+    private final Object writability = new Object();
+
+    private volatile IOException failure;
+
     public ServletOutputStreamImpl(FullHttpResponse response) {
         this.response = response;
-        this.out = new ByteBufOutputStream(response.content());
+    }
+
+    /**
+     * Resets the stream for the next response of the channel, it has to be
+     * bound again.
+     */
+    public void reuse(FullHttpResponse response) {
+        this.response = response;
+        this.flushed = false;
+        this.ctx = null;
+        this.streaming = false;
+        this.writeListener = null;
+        this.writeListenerArmed.set(false);
+        this.bufferSize = DEFAULT_BUFFER_SIZE;
+        this.completing = false;
+        this.failure = null;
+    }
+
+    /**
+     * Detaches the stream from its response once the request completed, it
+     * must not be used until it is reused.
+     */
+    public void recycle() {
+        this.response = null;
+        this.writeListener = null;
+    }
+
+    /**
+     * Binds this stream to the channel of the request, so it can be streamed.
+     */
+    public void bind(ChannelHandlerContext ctx, HttpRequest request) {
+        this.ctx = ctx;
+        this.keepAlive = HttpHeaders.isKeepAlive(request)
+                && !ServletBridgeWebapp.get().isDraining();
+        this.chunked = !request.getProtocolVersion().equals(HttpVersion.HTTP_1_0);
     }
 
     @Override
     public void write(int b) throws IOException {
-        this.out.write(b);
+        this.commitIfFull(1);
+        if (this.streaming)
+            this.writeChunk(this.ctx.alloc().buffer(1).writeByte(b));
+        else
+            this.response.content().writeByte(b);
     }
 
     @Override
     public void write(byte[] b) throws IOException {
-        this.out.write(b);
+        this.write(b, 0, b.length);
     }
 
     @Override
     public void write(byte[] b, int offset, int len) throws IOException {
-        this.out.write(b, offset, len);
+        this.commitIfFull(len);
+        if (!this.streaming) {
+            this.response.content().writeBytes(b, offset, len);
+            return;
+        }
+
+        // large writes are sliced, so backpressure applies between the slices
+        while (len > 0) {
+            int size = Math.min(len, MAX_CHUNK_SIZE);
+            this.writeChunk(this.ctx.alloc().buffer(size).writeBytes(b,
+                    offset, size));
+            offset += size;
+            len -= size;
+        }
+    }
+
+    private void commitIfFull(int len) {
+        if (!this.streaming && this.ctx != null
+                && this.response.content().readableBytes() + len > this.bufferSize)
+            this.startStreaming();
+    }
+
+    private void writeChunk(ByteBuf chunk) throws IOException {
+        try {
+            this.awaitWritable();
+        } catch (IOException e) {
+            chunk.release();
+            throw e;
+        }
+
+        this.ctx.channel().writeAndFlush(new DefaultHttpContent(chunk));
+    }
+
+    /**
+     * Blocks while the channel is not writable, unless called on the event loop
+     * or in non-blocking mode, i.e. with a write listener set.
+     */
+    private void awaitWritable() throws IOException {
+        if (!this.ctx.channel().isActive())
+            throw this.failure != null ? this.failure : new ClosedChannelException();
+
+        if (this.writeListener != null || this.ctx.executor().inEventLoop()
+                || this.ctx.channel().isWritable())
+            return;
+
+        synchronized (this.writability) {
+            while (!this.ctx.channel().isWritable()) {
+                if (!this.ctx.channel().isActive())
+                    throw this.failure != null ? this.failure : new ClosedChannelException();
+
+                try {
+                    // timed, the channel may be closed without notice
+                    this.writability.wait(1000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException(
+                            "Interrupted while waiting for the client");
+                }
+            }
+        }
     }
 
+    /**
+     * Commits the response: its headers and the body written so far are sent
+     * to the client, unless the request is completing.
+     */
     @Override
     public void flush() throws IOException {
-//        this.response.setContent(out.buffer());
         this.flushed = true;
+        if (!this.completing && this.ctx != null)
+            this.startStreaming();
+    }
+
+    /**
+     * Marks the body as complete, once the request completes or the writer is
+     * closed. From now on flushing does not commit the response, as the
+     * buffered body is written anyway.
+     */
+    public void complete() {
+        this.completing = true;
+    }
+
+    /**
+     * Writes the headers and the body buffered so far, later writes are
+     * streamed. The body is sent chunked, unless its length is known or the
+     * client speaks HTTP/1.0, in which case the connection is closed at the
+     * end instead.
+     */
+    public synchronized void startStreaming() {
+        if (this.streaming)
+            return;
+
+        if (this.ctx == null)
+            throw new IllegalStateException(
+                    "Response is not bound to a channel");
+
+        HttpResponse head = new DefaultHttpResponse(
+                this.response.getProtocolVersion(), this.response.getStatus());
+        head.headers().set(this.response.headers());
+        if (!HttpHeaders.isContentLengthSet(head)) {
+            if (this.chunked)
+                HttpHeaders.setTransferEncodingChunked(head);
+            else
+                this.keepAlive = false;
+        }
+        head.headers().set(CONNECTION,
+                this.keepAlive ? HttpHeaders.Values.KEEP_ALIVE
+                        : HttpHeaders.Values.CLOSE);
+
+        // the buffered body becomes the first chunk
+        ByteBuf buffered = this.response.content();
+        this.ctx.channel().write(head);
+        if (buffered.isReadable())
+            this.ctx.channel().write(new DefaultHttpContent(buffered));
+        else
+            buffered.release();
+        this.ctx.channel().flush();
+
+        this.streaming = true;
+    }
+
+    /**
+     * Ends a streamed response.
+     */
+    public void finishStreaming() {
+        ChannelFuture future = this.ctx.channel().writeAndFlush(
+                LastHttpContent.EMPTY_LAST_CONTENT);
+        if (!this.keepAlive)
+            future.addListener(ChannelFutureListener.CLOSE);
+    }
+
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    @Override
+    public boolean isReady() {
+        if (!this.streaming || this.ctx.channel().isWritable())
+            return true;
+
+        this.writeListenerArmed.set(true);
+        // the channel may have become writable before the listener was armed
+        return this.ctx.channel().isWritable();
+    }
+
+    @Override
+    public void setWriteListener(final WriteListener writeListener) {
+        if (writeListener == null)
+            throw new NullPointerException("writeListener");
+
+        if (this.writeListener != null)
+            throw new IllegalStateException("Write listener already set");
+
+        this.writeListener = writeListener;
+        this.startStreaming();
+        this.writeListenerArmed.set(true);
+        this.ctx.executor().execute(new Runnable() {
+            @Override
+            public void run() {
+                onWritabilityChanged();
+            }
+        });
+    }
+
+    /**
+     * Notifies the write listener if it waits for the channel to become
+     * writable. Must be called on the event loop.
+     */
+    public void onWritabilityChanged() {
+        if (this.ctx.channel().isWritable()) {
+            synchronized (this.writability) {
+                this.writability.notifyAll();
+            }
+        }
+
+        WriteListener listener = this.writeListener;
+        if (listener == null || !this.ctx.channel().isWritable()
+                || !this.writeListenerArmed.compareAndSet(true, false))
+            return;
+
+        try {
+            listener.onWritePossible();
+        } catch (Throwable t) {
+            listener.onError(t);
+        }
+    }
+
+    /**
+     * Wakes up blocked writers and notifies the write listener that the
+     * channel was closed.
+     */
+    public void fail(IOException cause) {
+        this.failure = cause;
+        synchronized (this.writability) {
+            this.writability.notifyAll();
+        }
+
+        WriteListener listener = this.writeListener;
+        if (listener != null)
+            listener.onError(cause);
     }
 
     public void resetBuffer() {
-        this.out.buffer().clear();
+        if (this.streaming)
+            throw new IllegalStateException("Response already streamed!");
+
+        this.response.content().clear();
     }
 
     public boolean isFlushed() {
@@ -65,6 +360,19 @@ public class ServletOutputStreamImpl extends ServletOutputStream {
     }
 
     public int getBufferSize() {
-        return this.out.buffer().capacity();
+        return this.streaming ? 0 : this.bufferSize;
+    }
+
+    /**
+     * Sets the size the body may grow to before the response is streamed.
+     *
+     * @throws IllegalStateException if content was written already
+     */
+    public void setBufferSize(int bufferSize) {
+        if (this.streaming || this.response.content().isReadable())
+            throw new IllegalStateException(
+                    "Buffer size can not be changed after content was written!");
+
+        this.bufferSize = bufferSize;
     }
 }
@@ -16,11 +16,29 @@
 
 package net.javaforge.netty.servlet.bridge.impl;
 
-
+import net.javaforge.netty.servlet.bridge.config.ServletConfiguration;
+import net.javaforge.netty.servlet.bridge.mapping.UrlMatch;
+import net.javaforge.netty.servlet.bridge.mapping.UrlPatternMapper;
+
+/**
+ * Decomposes the request uri using the offsets resolved while routing. The
+ * parts are only materialized as strings when they are first asked for. The
+ * servlet path and path info are taken from the normalized uri the request
+ * was routed by, while the request uri is kept as it was received, see
+ * {@link UrlPatternMapper#normalize(String)}.
+ */
 public class URIParser {
 
     private FilterChainImpl chain;
 
+    private String receivedUri;
+
+    private String uri;
+
+    private int servletPathLength;
+
+    private int pathLength;
+
     private String servletPath;
 
     private String requestUri;
@@ -33,47 +51,71 @@ public class URIParser {
         this.chain = chain;
     }
 
-    public void parse(String uri) {
+    /**
+     * Parses the uri of a request routed through another chain, so parsers can
+     * be reused.
+     */
+    public void parse(FilterChainImpl chain, String uri) {
+        this.chain = chain;
+        this.parse(uri);
+    }
 
-        int indx = uri.indexOf('?');
-        this.servletPath = this.chain.getServletConfiguration()
-                .getMatchingUrlPattern(uri);
-        if (!this.servletPath.startsWith("/"))
-            this.servletPath = "/" + this.servletPath;
+    public void parse(String uri) {
 
-        if (indx != -1) {
-            this.pathInfo = uri.substring(servletPath.length(), indx);
-            this.queryString = uri.substring(indx + 1);
-            this.requestUri = uri.substring(0, indx);
+        this.receivedUri = uri;
+        uri = UrlPatternMapper.normalize(uri);
+        this.uri = uri;
+        this.servletPath = null;
+        this.requestUri = null;
+        this.pathInfo = null;
+        this.queryString = null;
+
+        UrlMatch<ServletConfiguration> match = this.chain.getServletMatch();
+        if (match == null)
+            match = ServletBridgeWebapp.get().matchServlet(uri);
+
+        if (match != null) {
+            this.servletPathLength = match.getServletPathLength();
+            this.pathLength = match.getPathLength();
         } else {
-            this.pathInfo = uri.substring(servletPath.length());
-            this.requestUri = uri;
+            this.pathLength = UrlPatternMapper.pathLength(uri);
+            this.servletPathLength = 0;
         }
-
-        if (this.requestUri.endsWith("/"))
-            this.requestUri.substring(0, this.requestUri.length() - 1);
-
-        if (this.pathInfo.equals(""))
-            this.pathInfo = null;
-        else if (!this.pathInfo.startsWith("/"))
-            this.pathInfo = "/" + this.pathInfo;
-
     }
 
     public String getServletPath() {
-        return servletPath;
+        if (this.servletPath == null)
+            this.servletPath = this.uri.substring(0, this.servletPathLength);
+
+        return this.servletPath;
     }
 
     public String getQueryString() {
-        return queryString;
+        if (this.queryString == null && this.pathLength < this.uri.length()
+                && this.uri.charAt(this.pathLength) == '?')
+            this.queryString = this.uri.substring(this.pathLength + 1);
+
+        return this.queryString;
     }
 
     public String getPathInfo() {
+        if (this.pathInfo == null && this.servletPathLength < this.pathLength)
+            this.pathInfo = this.uri.substring(this.servletPathLength,
+                    this.pathLength);
+
         return this.pathInfo;
     }
 
     public String getRequestUri() {
-        return requestUri;
+        if (this.requestUri == null) {
+            String uri = this.receivedUri;
+            int pathLength = uri == this.uri ? this.pathLength
+                    : UrlPatternMapper.pathLength(uri);
+            this.requestUri = pathLength == uri.length() ? uri
+                    : uri.substring(0, pathLength);
+        }
+
+        return this.requestUri;
     }
 
 }
@@ -19,26 +19,35 @@ package net.javaforge.netty.servlet.bridge.interceptor;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpResponse;
-import net.javaforge.netty.servlet.bridge.ChannelThreadLocal;
 import net.javaforge.netty.servlet.bridge.ServletBridgeInterceptor;
 
+/**
+ * Binds the channel to the
+ * {@link net.javaforge.netty.servlet.bridge.ChannelThreadLocal} of the thread
+ * running the filter chain.
+ *
+ * @deprecated use
+ * {@link net.javaforge.netty.servlet.bridge.impl.RequestContext#get(io.netty.channel.Channel)}
+ */
+@Deprecated
+@SuppressWarnings("deprecation") // still binds the thread local for old callers
 public class ChannelInterceptor implements ServletBridgeInterceptor {
 
     @Override
     public void onRequestFailed(ChannelHandlerContext ctx, Throwable e,
                                 HttpResponse response) {
-        ChannelThreadLocal.unset();
+        net.javaforge.netty.servlet.bridge.ChannelThreadLocal.unset();
     }
 
     @Override
     public void onRequestReceived(ChannelHandlerContext ctx, HttpRequest e) {
-        ChannelThreadLocal.set(ctx.channel());
+        net.javaforge.netty.servlet.bridge.ChannelThreadLocal.set(ctx.channel());
     }
 
     @Override
     public void onRequestSuccessed(ChannelHandlerContext ctx, HttpRequest e,
                                    HttpResponse response) {
-        ChannelThreadLocal.unset();
+        net.javaforge.netty.servlet.bridge.ChannelThreadLocal.unset();
     }
 
 }
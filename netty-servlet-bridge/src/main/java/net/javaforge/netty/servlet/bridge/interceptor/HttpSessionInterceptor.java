@@ -18,39 +18,49 @@ package net.javaforge.netty.servlet.bridge.interceptor;
 
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.*;
-import net.javaforge.netty.servlet.bridge.HttpSessionThreadLocal;
-import net.javaforge.netty.servlet.bridge.ServletBridgeInterceptor;
+import net.javaforge.netty.servlet.bridge.RequestContextInterceptor;
 import net.javaforge.netty.servlet.bridge.impl.HttpSessionImpl;
+import net.javaforge.netty.servlet.bridge.impl.RequestContext;
+import net.javaforge.netty.servlet.bridge.impl.ServletBridgeWebapp;
 import net.javaforge.netty.servlet.bridge.session.ServletBridgeHttpSessionStore;
 import net.javaforge.netty.servlet.bridge.util.Utils;
 
 import java.util.Collection;
 
-import static io.netty.handler.codec.http.HttpHeaders.Names.SET_COOKIE;
-
-public class HttpSessionInterceptor implements ServletBridgeInterceptor {
+/**
+ * Binds the session named by the session cookie to the
+ * {@link RequestContext} of the request. The cookie of a new session is added
+ * by the request creating it, so it is part of responses streamed before the
+ * servlet returned. The interceptor is shared by all channels, its
+ * per-request state lives in the context passed by the handler, never in the
+ * one current on the channel.
+ */
+public class HttpSessionInterceptor implements RequestContextInterceptor {
 
-    private boolean sessionRequestedByCookie = false;
+    private final ServletBridgeHttpSessionStore sessionStore;
 
     public HttpSessionInterceptor(ServletBridgeHttpSessionStore sessionStore) {
-        HttpSessionThreadLocal.setSessionStore(sessionStore);
+        this.sessionStore = sessionStore;
+        ServletBridgeWebapp.get().setSessionStore(sessionStore);
     }
 
     @Override
     public void onRequestReceived(ChannelHandlerContext ctx, HttpRequest request) {
+        // the handler calls the variant with the context of the request
+    }
 
-        HttpSessionThreadLocal.unset();
+    @Override
+    public void onRequestReceived(ChannelHandlerContext ctx,
+                                  HttpRequest request, RequestContext context) {
 
         Collection<Cookie> cookies = Utils.getCookies(
                 HttpSessionImpl.SESSION_ID_KEY, request);
         if (cookies != null) {
             for (Cookie cookie : cookies) {
                 String jsessionId = cookie.getValue();
-                HttpSessionImpl s = HttpSessionThreadLocal.getSessionStore()
-                        .findSession(jsessionId);
+                HttpSessionImpl s = this.sessionStore.findSession(jsessionId);
                 if (s != null) {
-                    HttpSessionThreadLocal.set(s);
-                    this.sessionRequestedByCookie = true;
+                    context.setSession(s, true);
                     break;
                 }
             }
@@ -60,19 +70,19 @@ public class HttpSessionInterceptor implements ServletBridgeInterceptor {
     @Override
     public void onRequestSuccessed(ChannelHandlerContext ctx, HttpRequest request,
                                    HttpResponse response) {
+        // the handler calls the variant with the context of the request
+    }
 
-        HttpSessionImpl s = HttpSessionThreadLocal.get();
-        if (s != null && !this.sessionRequestedByCookie) {
-            HttpHeaders.addHeader(response, SET_COOKIE, ServerCookieEncoder.encode(HttpSessionImpl.SESSION_ID_KEY, s.getId()));
-        }
-
+    @Override
+    public void onRequestSuccessed(ChannelHandlerContext ctx, HttpRequest request,
+                                   HttpResponse response, RequestContext context) {
+        // the cookie of a new session was added when it was created
     }
 
     @Override
     public void onRequestFailed(ChannelHandlerContext ctx, Throwable e,
                                 HttpResponse response) {
-        this.sessionRequestedByCookie = false;
-        HttpSessionThreadLocal.unset();
+        // nothing to reset, the session is bound to the request context
     }
 
 }
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2013 by Maxim Kalina
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.javaforge.netty.servlet.bridge.mapping;
+
+import net.javaforge.netty.servlet.bridge.config.FilterConfiguration;
+import net.javaforge.netty.servlet.bridge.config.ServletConfiguration;
+
+/**
+ * Immutable result of routing a request path: the servlet mapping and the
+ * filters to apply. A route is valid for every uri with the same path, whatever
+ * the query string is, so it can be shared between requests.
+ */
+public final class Route {
+
+    private final String path;
+
+    private final UrlMatch<ServletConfiguration> servletMatch;
+
+    private final FilterConfiguration[] filters;
+
+    public Route(String path, UrlMatch<ServletConfiguration> servletMatch,
+                 FilterConfiguration[] filters) {
+        this.path = path;
+        this.servletMatch = servletMatch;
+        this.filters = filters;
+    }
+
+    /**
+     * @return <code>true</code> if the path part of the given uri is the path
+     * of this route
+     */
+    public boolean matchesPath(String uri, int pathLength) {
+        return pathLength == this.path.length()
+                && uri.regionMatches(0, this.path, 0, pathLength);
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public UrlMatch<ServletConfiguration> getServletMatch() {
+        return servletMatch;
+    }
+
+    /**
+     * @return the filters in declaration order, the array must not be modified
+     */
+    public FilterConfiguration[] getFilters() {
+        return filters;
+    }
+
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2013 by Maxim Kalina
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.javaforge.netty.servlet.bridge.mapping;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded, concurrent cache of resolved routes keyed by request path, which
+ * must be normalized, see {@link UrlPatternMapper#normalize(String)}, so
+ * variants of a path share an entry. When the
+ * cache is full, entries are evicted in insertion order, but entries hit since
+ * the last eviction pass get a second chance (CLOCK approximation of LRU).
+ */
+public class RouteCache {
+
+    private final int maximumSize;
+
+    private final ConcurrentHashMap<String, Entry> entries;
+
+    private final Queue<Entry> evictionQueue = new ConcurrentLinkedQueue<Entry>();
+
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    private final AtomicLong channelHitCount = new AtomicLong();
+
+    private final AtomicLong missCount = new AtomicLong();
+
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    public RouteCache(int maximumSize) {
+        if (maximumSize <= 0)
+            throw new IllegalArgumentException(
+                    "Route cache size must be positive: " + maximumSize);
+
+        this.maximumSize = maximumSize;
+        this.entries = new ConcurrentHashMap<String, Entry>(Math.min(
+                maximumSize, 1024));
+    }
+
+    /**
+     * @return the cached route for the path of the uri or <code>null</code>
+     */
+    public Route get(String uri, int pathLength) {
+        Entry entry = this.entries.get(pathLength == uri.length() ? uri : uri
+                .substring(0, pathLength));
+        if (entry == null) {
+            this.missCount.incrementAndGet();
+            return null;
+        }
+
+        entry.referenced = true;
+        this.hitCount.incrementAndGet();
+        return entry.route;
+    }
+
+    public void put(Route route) {
+        Entry entry = new Entry(route);
+        if (this.entries.putIfAbsent(route.getPath(), entry) != null)
+            return;
+
+        this.evictionQueue.offer(entry);
+        if (this.size.incrementAndGet() > this.maximumSize)
+            this.evict();
+    }
+
+    /**
+     * Records a route served from the last route of a keep-alive channel
+     * without consulting the cache.
+     */
+    public void recordChannelHit() {
+        this.channelHitCount.incrementAndGet();
+    }
+
+    private void evict() {
+        // bounded, so a burst of referenced entries can not spin forever
+        for (int i = 0; i <= this.maximumSize
+                && this.size.get() > this.maximumSize; i++) {
+            Entry entry = this.evictionQueue.poll();
+            if (entry == null)
+                return;
+
+            if (entry.referenced) {
+                entry.referenced = false;
+                this.evictionQueue.offer(entry);
+                continue;
+            }
+
+            if (this.entries.remove(entry.route.getPath(), entry)) {
+                this.size.decrementAndGet();
+                this.evictionCount.incrementAndGet();
+            }
+        }
+    }
+
+    public void clear() {
+        this.entries.clear();
+        this.evictionQueue.clear();
+        this.size.set(0);
+    }
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    public int getSize() {
+        return this.size.get();
+    }
+
+    public long getHitCount() {
+        return this.hitCount.get();
+    }
+
+    public long getChannelHitCount() {
+        return this.channelHitCount.get();
+    }
+
+    public long getMissCount() {
+        return this.missCount.get();
+    }
+
+    public long getEvictionCount() {
+        return this.evictionCount.get();
+    }
+
+    /**
+     * @return the ratio of lookups served from the channel or the cache, or
+     * <code>0</code> if nothing was looked up yet
+     */
+    public double getHitRate() {
+        long hits = getHitCount() + getChannelHitCount();
+        long total = hits + getMissCount();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public String toString() {
+        return "RouteCache[size=" + getSize() + "/" + this.maximumSize
+                + ", hits=" + getHitCount() + ", channelHits="
+                + getChannelHitCount() + ", misses=" + getMissCount()
+                + ", evictions=" + getEvictionCount() + "]";
+    }
+
+    private static final class Entry {
+
+        private final Route route;
+
+        private volatile boolean referenced;
+
+        Entry(Route route) {
+            this.route = route;
+        }
+    }
+
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2013 by Maxim Kalina
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.javaforge.netty.servlet.bridge.mapping;
+
+/**
+ * Open addressing hash table with string keys, which can be looked up by a
+ * region of another string. This way path segments and extensions of the
+ * request uri are resolved without creating substrings.
+ * <p/>
+ * The table is populated once while the webapp is initialized and is read-only
+ * afterwards.
+ */
+final class SegmentTable<V> {
+
+    private String[] keys = new String[8];
+
+    private Object[] values = new Object[8];
+
+    private int size;
+
+    @SuppressWarnings("unchecked")
+    V get(String s, int start, int end) {
+        int mask = keys.length - 1;
+        int i = hash(s, start, end) & mask;
+        String key;
+        while ((key = keys[i]) != null) {
+            if (key.length() == end - start
+                    && key.regionMatches(0, s, start, end - start))
+                return (V) values[i];
+
+            i = (i + 1) & mask;
+        }
+        return null;
+    }
+
+    V get(String key) {
+        return get(key, 0, key.length());
+    }
+
+    void put(String key, V value) {
+        if ((size + 1) * 2 > keys.length)
+            resize();
+
+        int mask = keys.length - 1;
+        int i = hash(key, 0, key.length()) & mask;
+        while (keys[i] != null) {
+            if (keys[i].equals(key)) {
+                values[i] = value;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+
+        keys[i] = key;
+        values[i] = value;
+        size++;
+    }
+
+    private void resize() {
+        String[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new String[oldKeys.length * 2];
+        values = new Object[oldValues.length * 2];
+
+        int mask = keys.length - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] == null)
+                continue;
+
+            int i = hash(oldKeys[j], 0, oldKeys[j].length()) & mask;
+            while (keys[i] != null)
+                i = (i + 1) & mask;
+
+            keys[i] = oldKeys[j];
+            values[i] = oldValues[j];
+        }
+    }
+
+    private static int hash(String s, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; i++)
+            h = 31 * h + s.charAt(i);
+
+        return h ^ (h >>> 16);
+    }
+
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2013 by Maxim Kalina
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.javaforge.netty.servlet.bridge.mapping;
+
+/**
+ * Result of resolving a request uri against a {@link UrlPatternMapper}. The
+ * servlet path and the path info are kept as offsets into the request uri:
+ * <code>uri[0, servletPathLength)</code> is the servlet path,
+ * <code>uri[servletPathLength, pathLength)</code> is the path info.
+ */
+public final class UrlMatch<T> {
+
+    private final T target;
+
+    private final UrlPattern pattern;
+
+    private final int order;
+
+    private final int servletPathLength;
+
+    private final int pathLength;
+
+    UrlMatch(T target, UrlPattern pattern, int order, int servletPathLength,
+             int pathLength) {
+        this.target = target;
+        this.pattern = pattern;
+        this.order = order;
+        this.servletPathLength = servletPathLength;
+        this.pathLength = pathLength;
+    }
+
+    public T getTarget() {
+        return target;
+    }
+
+    public UrlPattern getPattern() {
+        return pattern;
+    }
+
+    /**
+     * @return the registration order of the mapping
+     */
+    int getOrder() {
+        return order;
+    }
+
+    public int getServletPathLength() {
+        return servletPathLength;
+    }
+
+    public int getPathLength() {
+        return pathLength;
+    }
+
+    public String getServletPath(String uri) {
+        return uri.substring(0, servletPathLength);
+    }
+
+    public String getPathInfo(String uri) {
+        return servletPathLength < pathLength ? uri.substring(
+                servletPathLength, pathLength) : null;
+    }
+
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2013 by Maxim Kalina
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.javaforge.netty.servlet.bridge.mapping;
+
+import java.util.regex.Pattern;
+
+/**
+ * A parsed url pattern as defined by the servlet specification (SRV.11.2).
+ * Patterns which do not follow one of the specification forms are kept as
+ * {@link Type#WILDCARD} patterns and matched with the legacy regex semantics.
+ */
+public final class UrlPattern {
+
+    public enum Type {
+        /**
+         * <code>/foo/bar</code>
+         */
+        EXACT,
+        /**
+         * <code>/foo/*</code> or <code>/*</code>
+         */
+        PREFIX,
+        /**
+         * <code>*.do</code>
+         */
+        EXTENSION,
+        /**
+         * <code>/</code>
+         */
+        DEFAULT,
+        /**
+         * Anything else, e.g. <code>/foo*</code> or <code>/a/&#42;/b</code>
+         */
+        WILDCARD
+    }
+
+    private final String pattern;
+
+    private final Type type;
+
+    private final String value;
+
+    private final Pattern regex;
+
+    private UrlPattern(String pattern, Type type, String value, Pattern regex) {
+        this.pattern = pattern;
+        this.type = type;
+        this.value = value;
+        this.regex = regex;
+    }
+
+    public static UrlPattern parse(String pattern) {
+        if (pattern == null)
+            throw new IllegalArgumentException("Url pattern must be not null!");
+
+        int star = pattern.indexOf('*');
+        boolean singleStar = star != -1 && star == pattern.lastIndexOf('*');
+
+        if (pattern.equals("/"))
+            return new UrlPattern(pattern, Type.DEFAULT, "", null);
+
+        if (pattern.startsWith("/")) {
+            if (star == -1)
+                return new UrlPattern(pattern, Type.EXACT, pattern, null);
+
+            if (singleStar && pattern.endsWith("/*"))
+                return new UrlPattern(pattern, Type.PREFIX, pattern.substring(
+                        0, pattern.length() - 2), null);
+
+        } else if (singleStar && pattern.startsWith("*.")
+                && pattern.indexOf('/') == -1) {
+            return new UrlPattern(pattern, Type.EXTENSION,
+                    pattern.substring(2), null);
+        }
+
+        String sanitized = pattern.replaceAll("\\*", "");
+        if (sanitized.endsWith("/"))
+            sanitized = sanitized.substring(0, sanitized.length() - 1);
+
+        return new UrlPattern(pattern, Type.WILDCARD, sanitized,
+                Pattern.compile(pattern.replaceAll("\\*", ".*")));
+    }
+
+    /**
+     * Legacy matching of a {@link Type#WILDCARD} pattern against the path part
+     * of the request uri.
+     */
+    boolean matchesWildcard(String uri, int pathLength) {
+        String path = uri.substring(0, pathLength);
+        if (!path.endsWith("/"))
+            path += "/";
+
+        return this.regex.matcher(path).matches();
+    }
+
+    public String getPattern() {
+        return pattern;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return the exact path, the prefix without the trailing
+     * <code>/*</code>, the extension without the leading <code>*.</code>
+     * or the literal part of a wildcard pattern
+     */
+    public String getValue() {
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return this.pattern;
+    }
+}
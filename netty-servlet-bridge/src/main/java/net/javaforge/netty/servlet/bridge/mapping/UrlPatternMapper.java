@@ -0,0 +1,454 @@
+/*
+ * Copyright 2013 by Maxim Kalina
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.javaforge.netty.servlet.bridge.mapping;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Resolves request uris to mapped targets following the servlet specification
+ * rules (SRV.11.1): exact match first, then the longest path prefix, then the
+ * extension and finally the default mapping. Exact and prefix patterns are kept
+ * in a path-segment trie, so a lookup is a single walk over the uri.
+ * <p/>
+ * Patterns which can not be expressed in the specification syntax are matched
+ * in registration order after the extension mappings, before the default one.
+ * If a pattern is registered more than once, the first registration wins for
+ * {@link #match(String)}.
+ * <p/>
+ * Mappings are registered while the webapp is initialized, lookups are
+ * thread-safe afterwards.
+ */
+public class UrlPatternMapper<T> {
+
+    private static final Comparator<UrlMatch<?>> REGISTRATION_ORDER = new Comparator<UrlMatch<?>>() {
+        @Override
+        public int compare(UrlMatch<?> o1, UrlMatch<?> o2) {
+            return o1.getOrder() < o2.getOrder() ? -1
+                    : (o1.getOrder() == o2.getOrder() ? 0 : 1);
+        }
+    };
+
+    private final Node<T> root = new Node<T>();
+
+    private final SegmentTable<List<UrlMatch<T>>> extensions = new SegmentTable<List<UrlMatch<T>>>();
+
+    private final List<UrlMatch<T>> wildcards = new ArrayList<UrlMatch<T>>();
+
+    private final List<UrlMatch<T>> defaults = new ArrayList<UrlMatch<T>>();
+
+    private int registrations;
+
+    public UrlPatternMapper<T> addMapping(String urlPattern, T target) {
+        UrlPattern pattern = UrlPattern.parse(urlPattern);
+        UrlMatch<T> mapping = new UrlMatch<T>(target, pattern,
+                registrations++, 0, 0);
+
+        switch (pattern.getType()) {
+            case EXACT:
+                this.nodeFor(pattern.getValue()).addExact(mapping);
+                break;
+            case PREFIX:
+                this.nodeFor(pattern.getValue()).addPrefix(mapping);
+                break;
+            case EXTENSION: {
+                List<UrlMatch<T>> mappings = this.extensions.get(pattern
+                        .getValue());
+                if (mappings == null) {
+                    mappings = new ArrayList<UrlMatch<T>>(1);
+                    this.extensions.put(pattern.getValue(), mappings);
+                }
+                mappings.add(mapping);
+                break;
+            }
+            case DEFAULT:
+                // gives the context root its own trie node, so matchAll()
+                // does not share its memoized result with unmapped paths
+                this.nodeFor("/");
+                this.defaults.add(mapping);
+                break;
+            default:
+                this.wildcards.add(mapping);
+        }
+
+        return this;
+    }
+
+    /**
+     * @return the best matching mapping for the given request uri or
+     * <code>null</code> if nothing matches
+     */
+    public UrlMatch<T> match(String uri) {
+        int pathLength = pathLength(uri);
+
+        Node<T> node = root;
+        UrlMatch<T> prefix = first(root.prefix);
+        int prefixLength = 0;
+        boolean complete = false;
+
+        if (pathLength > 0 && uri.charAt(0) == '/') {
+            int start = 1;
+            while (true) {
+                int end = indexOf(uri, '/', start, pathLength);
+                node = node.child(uri, start, end);
+                if (node == null)
+                    break;
+
+                if (node.prefix != null) {
+                    prefix = node.prefix.get(0);
+                    prefixLength = end;
+                }
+
+                if (end == pathLength) {
+                    complete = true;
+                    break;
+                }
+                start = end + 1;
+            }
+        }
+
+        if (complete && node.exact != null)
+            return resolved(node.exact.get(0), pathLength, pathLength);
+
+        if (prefix != null)
+            return resolved(prefix, prefixLength, pathLength);
+
+        UrlMatch<T> extension = first(this.matchExtension(uri, pathLength));
+        if (extension != null)
+            return resolved(extension, pathLength, pathLength);
+
+        for (UrlMatch<T> wildcard : this.wildcards) {
+            if (wildcard.getPattern().matchesWildcard(uri, pathLength)) {
+                String literal = wildcard.getPattern().getValue();
+                int servletPathLength = literal.length() <= pathLength
+                        && uri.startsWith(literal) ? literal.length() : 0;
+                return resolved(wildcard, servletPathLength, pathLength);
+            }
+        }
+
+        if (!this.defaults.isEmpty())
+            return resolved(this.defaults.get(0), pathLength, pathLength);
+
+        return null;
+    }
+
+    /**
+     * Resolves all targets mapped to the given uri, in registration order, the
+     * way filter mappings are applied. The default pattern <code>/</code>
+     * matches the context root only.
+     * <p/>
+     * Unless wildcard patterns are registered, the result only depends on the
+     * trie node the uri walk ends at and on the extension of the uri, so it is
+     * computed once per such combination and shared afterwards. The returned
+     * array must not be modified.
+     *
+     * @param empty an empty array used to determine the component type of the
+     *              result, like {@link java.util.Collection#toArray(Object[])}
+     */
+    public T[] matchAll(String uri, T[] empty) {
+        int pathLength = pathLength(uri);
+
+        Node<T> terminal = root;
+        boolean complete = false;
+        if (pathLength > 0 && uri.charAt(0) == '/') {
+            int start = 1;
+            while (true) {
+                int end = indexOf(uri, '/', start, pathLength);
+                Node<T> node = terminal.child(uri, start, end);
+                if (node == null)
+                    break;
+
+                terminal = node;
+                if (end == pathLength) {
+                    complete = true;
+                    break;
+                }
+                start = end + 1;
+            }
+        }
+
+        List<UrlMatch<T>> extension = this.matchExtension(uri, pathLength);
+        boolean cacheable = this.wildcards.isEmpty();
+
+        if (cacheable) {
+            T[] cached = terminal.cached(complete, extension);
+            if (cached != null)
+                return cached;
+        }
+
+        T[] result = this.collectAll(uri, pathLength, complete, extension,
+                empty);
+        if (cacheable)
+            terminal.cache(complete, extension, result);
+
+        return result;
+    }
+
+    private T[] collectAll(String uri, int pathLength, boolean complete,
+                           List<UrlMatch<T>> extension, T[] empty) {
+        List<UrlMatch<T>> found = new ArrayList<UrlMatch<T>>();
+
+        Node<T> node = root;
+        addAll(found, root.prefix);
+        if (pathLength > 0 && uri.charAt(0) == '/') {
+            int start = 1;
+            while (true) {
+                int end = indexOf(uri, '/', start, pathLength);
+                node = node.child(uri, start, end);
+                if (node == null)
+                    break;
+
+                addAll(found, node.prefix);
+                if (end == pathLength)
+                    break;
+
+                start = end + 1;
+            }
+        }
+
+        if (complete)
+            addAll(found, node.exact);
+
+        addAll(found, extension);
+
+        for (UrlMatch<T> wildcard : this.wildcards) {
+            if (wildcard.getPattern().matchesWildcard(uri, pathLength))
+                found.add(wildcard);
+        }
+
+        if (pathLength == 1 && uri.charAt(0) == '/')
+            addAll(found, this.defaults);
+
+        Collections.sort(found, REGISTRATION_ORDER);
+
+        Map<T, Boolean> targets = new IdentityHashMap<T, Boolean>();
+        List<T> result = new ArrayList<T>(found.size());
+        for (UrlMatch<T> mapping : found) {
+            if (targets.put(mapping.getTarget(), Boolean.TRUE) == null)
+                result.add(mapping.getTarget());
+        }
+
+        return result.toArray(empty);
+    }
+
+    private List<UrlMatch<T>> matchExtension(String uri, int pathLength) {
+        for (int i = pathLength - 1; i >= 0; i--) {
+            char c = uri.charAt(i);
+            if (c == '/')
+                return null;
+
+            if (c == '.')
+                return this.extensions.get(uri, i + 1, pathLength);
+        }
+        return null;
+    }
+
+    private Node<T> nodeFor(String path) {
+        Node<T> node = root;
+        if (path.length() == 0)
+            return node;
+
+        int start = 1;
+        while (true) {
+            int end = indexOf(path, '/', start, path.length());
+            node = node.getOrCreateChild(path.substring(start, end));
+            if (end == path.length())
+                return node;
+
+            start = end + 1;
+        }
+    }
+
+    private static <T> UrlMatch<T> resolved(UrlMatch<T> mapping,
+                                            int servletPathLength, int pathLength) {
+        return new UrlMatch<T>(mapping.getTarget(), mapping.getPattern(),
+                mapping.getOrder(), servletPathLength, pathLength);
+    }
+
+    private static <T> UrlMatch<T> first(List<UrlMatch<T>> mappings) {
+        return mappings != null && !mappings.isEmpty() ? mappings.get(0)
+                : null;
+    }
+
+    private static <T> void addAll(List<UrlMatch<T>> to,
+                                   List<UrlMatch<T>> mappings) {
+        if (mappings != null)
+            to.addAll(mappings);
+    }
+
+    /**
+     * @return the length of the path part of the uri, i.e. the index of the
+     * query string or fragment delimiter
+     */
+    public static int pathLength(String uri) {
+        for (int i = 0; i < uri.length(); i++) {
+            char c = uri.charAt(i);
+            if (c == '?' || c == '#')
+                return i;
+        }
+        return uri.length();
+    }
+
+    /**
+     * Normalizes the path of the uri the way it is mapped: path parameters
+     * such as <code>;jsessionid=</code> are stripped, empty and
+     * <code>.</code> segments are dropped and <code>..</code> segments remove
+     * the segment before them. The query string is kept as it is.
+     *
+     * @return the normalized uri, the given uri itself if it is normalized
+     * already or does not start with a slash
+     */
+    public static String normalize(String uri) {
+        int pathLength = pathLength(uri);
+        if (!uri.startsWith("/") || isNormalized(uri, pathLength))
+            return uri;
+
+        // the path ends with a slash before each segment
+        StringBuilder path = new StringBuilder(uri.length());
+        path.append('/');
+        int start = 1;
+        while (start <= pathLength) {
+            int end = indexOf(uri, '/', start, pathLength);
+            int segmentEnd = indexOf(uri, ';', start, end);
+            int length = segmentEnd - start;
+            if (length == 2 && uri.charAt(start) == '.'
+                    && uri.charAt(start + 1) == '.') {
+                if (path.length() > 1)
+                    path.setLength(path.lastIndexOf("/", path.length() - 2) + 1);
+            } else if (length > 0
+                    && !(length == 1 && uri.charAt(start) == '.')) {
+                path.append(uri, start, segmentEnd);
+                if (end < pathLength)
+                    path.append('/');
+            }
+            start = end + 1;
+        }
+
+        return path.append(uri, pathLength, uri.length()).toString();
+    }
+
+    private static boolean isNormalized(String uri, int pathLength) {
+        for (int i = 0; i < pathLength; i++) {
+            char c = uri.charAt(i);
+            if (c == ';')
+                return false;
+            if (c != '/' || i + 1 == pathLength)
+                continue;
+
+            char next = uri.charAt(i + 1);
+            if (next == '/')
+                return false;
+            if (next == '.' && isDotSegmentEnd(uri, i + 2, pathLength))
+                return false;
+            if (next == '.' && i + 2 < pathLength && uri.charAt(i + 2) == '.'
+                    && isDotSegmentEnd(uri, i + 3, pathLength))
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean isDotSegmentEnd(String uri, int i, int pathLength) {
+        return i == pathLength || uri.charAt(i) == '/';
+    }
+
+    private static int indexOf(String s, char c, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (s.charAt(i) == c)
+                return i;
+        }
+        return end;
+    }
+
+    private static final class Node<T> {
+
+        private SegmentTable<Node<T>> children;
+
+        private List<UrlMatch<T>> exact;
+
+        private List<UrlMatch<T>> prefix;
+
+        private volatile Memo<T> completeMemo;
+
+        private volatile Memo<T> partialMemo;
+
+        Node<T> child(String uri, int start, int end) {
+            return children != null ? children.get(uri, start, end) : null;
+        }
+
+        Node<T> getOrCreateChild(String segment) {
+            if (children == null)
+                children = new SegmentTable<Node<T>>();
+
+            Node<T> child = children.get(segment);
+            if (child == null) {
+                child = new Node<T>();
+                children.put(segment, child);
+            }
+            return child;
+        }
+
+        void addExact(UrlMatch<T> mapping) {
+            if (exact == null)
+                exact = new ArrayList<UrlMatch<T>>(1);
+
+            exact.add(mapping);
+        }
+
+        void addPrefix(UrlMatch<T> mapping) {
+            if (prefix == null)
+                prefix = new ArrayList<UrlMatch<T>>(1);
+
+            prefix.add(mapping);
+        }
+
+        T[] cached(boolean complete, List<UrlMatch<T>> extension) {
+            for (Memo<T> m = complete ? completeMemo : partialMemo; m != null; m = m.next) {
+                if (m.extension == extension)
+                    return m.result;
+            }
+            return null;
+        }
+
+        void cache(boolean complete, List<UrlMatch<T>> extension, T[] result) {
+            // racing writers may drop an entry, which is only recomputed later
+            if (complete)
+                completeMemo = new Memo<T>(extension, result, completeMemo);
+            else
+                partialMemo = new Memo<T>(extension, result, partialMemo);
+        }
+    }
+
+    private static final class Memo<T> {
+
+        private final List<UrlMatch<T>> extension;
+
+        private final T[] result;
+
+        private final Memo<T> next;
+
+        Memo(List<UrlMatch<T>> extension, T[] result, Memo<T> next) {
+            this.extension = extension;
+            this.result = result;
+            this.next = next;
+        }
+    }
+
+}
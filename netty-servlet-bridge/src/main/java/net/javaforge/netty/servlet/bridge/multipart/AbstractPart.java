@@ -0,0 +1,89 @@
+/*
+ * Copyright 2013 by Maxim Kalina
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package net.javaforge.netty.servlet.bridge.multipart;
+
+import javax.servlet.http.Part;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Headers of a part of a multipart body.
+ */
+public abstract class AbstractPart implements Part {
+
+    private final Map<String, List<String>> headers;
+
+    private final String name;
+
+    private final String submittedFileName;
+
+    protected AbstractPart(Map<String, List<String>> headers) {
+        this.headers = headers;
+
+        String disposition = this.getHeader("Content-Disposition");
+        this.name = MultipartRequest.getHeaderParameter(disposition, "name");
+        this.submittedFileName = MultipartRequest.getHeaderParameter(
+                disposition, "filename");
+    }
+
+    @Override
+    public String getContentType() {
+        return this.getHeader("Content-Type");
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the file name sent by the client or <code>null</code> if the part
+     * is a form field
+     */
+    @Override
+    public String getSubmittedFileName() {
+        return submittedFileName;
+    }
+
+    @Override
+    public String getHeader(String name) {
+        List<String> values = this.headers.get(name);
+        return values != null ? values.get(0) : null;
+    }
+
+    @Override
+    public Collection<String> getHeaders(String name) {
+        List<String> values = this.headers.get(name);
+        return values != null ? Collections.unmodifiableList(values)
+                : Collections.<String>emptyList();
+    }
+
+    @Override
+    public Collection<String> getHeaderNames() {
+        return Collections.unmodifiableSet(this.headers.keySet());
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[name=" + name + ", fileName="
+                + submittedFileName + ", contentType=" + getContentType()
+                + ", size=" + getSize() + "]";
+    }
+}
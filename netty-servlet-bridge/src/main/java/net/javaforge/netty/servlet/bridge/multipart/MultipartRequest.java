@@ -0,0 +1,366 @@
+/*
+ * Copyright 2013 by Maxim Kalina
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package net.javaforge.netty.servlet.bridge.multipart;
+
+import net.javaforge.netty.servlet.bridge.impl.HttpServletRequestImpl;
+
+import javax.servlet.MultipartConfigElement;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.http.Part;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The parts of a multipart request, read in one of two modes:
+ * <ul>
+ * <li>streamed by {@link #nextPart()}, one part at a time right from the
+ * request body, without buffering</li>
+ * <li>spooled by {@link #getParts()}: all parts are read, each kept in memory
+ * up to the size threshold of the multipart configuration and spilled to a
+ * temporary file above it</li>
+ * </ul>
+ * The limits of the multipart configuration apply to both modes: exceeding
+ * them fails with an {@link IllegalStateException}. Temporary files are
+ * deleted once the request is done.
+ */
+public class MultipartRequest implements Closeable {
+
+    /**
+     * Size threshold above which parts are spilled to disk, unless configured.
+     */
+    public static final int DEFAULT_FILE_SIZE_THRESHOLD = 16 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final MultipartStream stream;
+
+    private final Charset charset;
+
+    private final File location;
+
+    private final long maxFileSize;
+
+    private final int fileSizeThreshold;
+
+    private List<SpooledPart> parts;
+
+    private Exception failure;
+
+    private boolean streaming;
+
+    private boolean closed;
+
+    /**
+     * @param body        the request body
+     * @param contentType the content type of the request, carrying the
+     *                    boundary
+     * @param encoding    the character encoding of the request, used for
+     *                    headers and form fields, or <code>null</code> for
+     *                    UTF-8
+     * @param config      the multipart configuration of the servlet or
+     *                    <code>null</code> for no limits
+     * @throws ServletException if the content type has no boundary
+     */
+    public MultipartRequest(InputStream body, String contentType,
+                            String encoding, MultipartConfigElement config) throws ServletException {
+        String boundary = getHeaderParameter(contentType, "boundary");
+        if (boundary == null || boundary.length() == 0)
+            throw new ServletException("Multipart request without boundary: "
+                    + contentType);
+
+        if (config == null)
+            config = new MultipartConfigElement("", -1, -1,
+                    DEFAULT_FILE_SIZE_THRESHOLD);
+
+        String location = config.getLocation();
+        this.location = new File(location != null && location.length() > 0 ? location
+                : System.getProperty("java.io.tmpdir"));
+        this.maxFileSize = config.getMaxFileSize();
+        this.fileSizeThreshold = config.getFileSizeThreshold();
+        this.charset = encoding != null ? Charset.forName(encoding) : UTF_8;
+
+        if (config.getMaxRequestSize() > 0)
+            body = new LimitedInputStream(body, config.getMaxRequestSize());
+        this.stream = new MultipartStream(body, boundary, this.charset, 8192);
+    }
+
+    /**
+     * @return <code>true</code> if the content type denotes a multipart body
+     */
+    public static boolean isMultipart(String contentType) {
+        return contentType != null
+                && contentType.regionMatches(true, 0, "multipart/", 0, 10);
+    }
+
+    /**
+     * @return the multipart request of the bridge request wrapped by the
+     * request, or <code>null</code> if it is not a multipart request
+     * @throws IllegalArgumentException if the request does not wrap a request
+     *                                  of the bridge
+     */
+    public static MultipartRequest get(ServletRequest request)
+            throws ServletException {
+        return HttpServletRequestImpl.unwrap(request).getMultipartRequest();
+    }
+
+    /**
+     * Reads the next part right from the request body, skipping what is left
+     * of the previous one.
+     *
+     * @return the next part or <code>null</code> if there are no more parts
+     * @throws IllegalStateException if the parts were spooled already
+     */
+    public synchronized Part nextPart() throws IOException {
+        if (this.parts != null)
+            throw new IllegalStateException("Parts were read already");
+
+        this.checkOpen();
+        this.checkFailure();
+        this.streaming = true;
+
+        Map<String, List<String>> headers = this.stream.nextPart();
+        if (headers == null)
+            return null;
+
+        return new StreamedPart(headers, new LimitedInputStream(
+                this.stream.getPartInputStream(), this.maxFileSize),
+                this.location);
+    }
+
+    /**
+     * Reads all parts, spooling large ones to disk. If reading fails, the
+     * parts spooled so far are deleted and every later call fails as well.
+     *
+     * @throws IllegalStateException if the parts are streamed or reading them
+     *                               failed before
+     */
+    public synchronized Collection<Part> getParts() throws IOException {
+        if (this.parts == null) {
+            if (this.streaming)
+                throw new IllegalStateException("Parts are streamed");
+
+            this.checkOpen();
+            this.checkFailure();
+            List<SpooledPart> parts = new ArrayList<SpooledPart>();
+            try {
+                Map<String, List<String>> headers;
+                while ((headers = this.stream.nextPart()) != null)
+                    parts.add(this.spool(headers,
+                            this.stream.getPartInputStream()));
+            } catch (IOException e) {
+                throw this.fail(parts, e);
+            } catch (RuntimeException e) {
+                throw this.fail(parts, e);
+            }
+            this.parts = parts;
+        }
+
+        return Collections.<Part>unmodifiableList(this.parts);
+    }
+
+    /**
+     * @return the first part of the given name or <code>null</code>
+     */
+    public Part getPart(String name) throws IOException {
+        for (Part part : this.getParts()) {
+            if (name.equals(part.getName()))
+                return part;
+        }
+        return null;
+    }
+
+    private SpooledPart spool(Map<String, List<String>> headers,
+                              InputStream content) throws IOException {
+        ByteArrayOutputStream memory = new ByteArrayOutputStream();
+        OutputStream out = memory;
+        File file = null;
+        long size = 0;
+        boolean spooled = false;
+        try {
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = content.read(buf)) != -1) {
+                size += n;
+                if (this.maxFileSize > 0 && size > this.maxFileSize)
+                    throw new IllegalStateException("Part exceeds "
+                            + this.maxFileSize + " bytes");
+
+                if (file == null && size > this.fileSizeThreshold) {
+                    file = File.createTempFile("multipart", ".tmp",
+                            this.location);
+                    out = new FileOutputStream(file);
+                    memory.writeTo(out);
+                    memory = null;
+                }
+                out.write(buf, 0, n);
+            }
+            spooled = true;
+        } finally {
+            if (file != null) {
+                out.close();
+                if (!spooled)
+                    file.delete();
+            }
+        }
+
+        return file != null ? new SpooledPart(headers, file, size,
+                this.location) : new SpooledPart(headers,
+                memory.toByteArray(), this.location);
+    }
+
+    private <E extends Exception> E fail(List<SpooledPart> parts, E e) {
+        this.failure = e;
+        for (SpooledPart part : parts)
+            part.delete();
+        return e;
+    }
+
+    private void checkOpen() {
+        if (this.closed)
+            throw new IllegalStateException("Request is done");
+    }
+
+    private void checkFailure() {
+        if (this.failure != null)
+            throw new IllegalStateException("Reading the parts failed",
+                    this.failure);
+    }
+
+    /**
+     * @return <code>true</code> once parts were read by {@link #nextPart()}
+     */
+    public synchronized boolean isStreaming() {
+        return streaming;
+    }
+
+    /**
+     * @return the charset of headers and form fields
+     */
+    public Charset getCharset() {
+        return charset;
+    }
+
+    /**
+     * Deletes the temporary files of the spooled parts, called once the
+     * request is done.
+     */
+    @Override
+    public synchronized void close() {
+        this.closed = true;
+        if (this.parts != null) {
+            for (SpooledPart part : this.parts)
+                part.delete();
+        }
+    }
+
+    /**
+     * @return the value of a parameter of a header like
+     * <code>Content-Disposition</code>, unquoted, or <code>null</code>
+     */
+    static String getHeaderParameter(String header, String name) {
+        if (header == null)
+            return null;
+
+        int i = header.indexOf(';');
+        while (i >= 0 && i < header.length()) {
+            int eq = header.indexOf('=', i);
+            if (eq < 0)
+                return null;
+
+            String key = header.substring(i + 1, eq).trim();
+            int start = eq + 1;
+            while (start < header.length() && header.charAt(start) == ' ')
+                start++;
+
+            String value;
+            int next;
+            if (start < header.length() && header.charAt(start) == '"') {
+                StringBuilder quoted = new StringBuilder();
+                int j = start + 1;
+                for (; j < header.length() && header.charAt(j) != '"'; j++) {
+                    char c = header.charAt(j);
+                    if (c == '\\' && j + 1 < header.length())
+                        c = header.charAt(++j);
+                    quoted.append(c);
+                }
+                value = quoted.toString();
+                next = header.indexOf(';', j);
+            } else {
+                next = header.indexOf(';', start);
+                value = header.substring(start, next >= 0 ? next
+                        : header.length()).trim();
+            }
+
+            if (key.equalsIgnoreCase(name))
+                return value;
+            i = next;
+        }
+        return null;
+    }
+
+    /**
+     * Fails reads beyond a limit.
+     */
+    private static final class LimitedInputStream extends FilterInputStream {
+
+        private final long limit;
+
+        private long count;
+
+        LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.limit = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1)
+                this.count(1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0)
+                this.count(n);
+            return n;
+        }
+
+        private void count(int n) {
+            this.count += n;
+            if (this.limit > 0 && this.count > this.limit)
+                throw new IllegalStateException("Multipart content exceeds "
+                        + this.limit + " bytes");
+        }
+    }
+}
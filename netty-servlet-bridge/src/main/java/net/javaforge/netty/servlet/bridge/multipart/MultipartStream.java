@@ -0,0 +1,277 @@
+/*
+ * Copyright 2013 by Maxim Kalina
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package net.javaforge.netty.servlet.bridge.multipart;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Parses a multipart body read from an input stream, one part at a time and
+ * without buffering more than a fixed buffer: the content of a part is read
+ * through {@link #getPartInputStream()} right from the body, up to the next
+ * delimiter.
+ */
+public class MultipartStream {
+
+    private static final int MAX_HEADER_SIZE = 10 * 1024;
+
+    private final InputStream in;
+
+    private final byte[] delimiter;
+
+    private final byte[] buffer;
+
+    private final Charset headerCharset;
+
+    private int head;
+
+    private int tail;
+
+    /**
+     * Absolute index of the next delimiter in the buffer, <code>-1</code> if
+     * there is none, <code>-2</code> if the buffer was not searched yet.
+     */
+    private int delimiterIndex = -2;
+
+    private PartInputStream current;
+
+    private boolean finished;
+
+    public MultipartStream(InputStream in, String boundary,
+                           Charset headerCharset, int bufferSize) {
+        byte[] b = boundary.getBytes(headerCharset);
+        this.in = in;
+        this.headerCharset = headerCharset;
+        this.delimiter = new byte[b.length + 4];
+        this.delimiter[0] = '\r';
+        this.delimiter[1] = '\n';
+        this.delimiter[2] = '-';
+        this.delimiter[3] = '-';
+        System.arraycopy(b, 0, this.delimiter, 4, b.length);
+        this.buffer = new byte[Math.max(bufferSize, this.delimiter.length * 2)];
+
+        // the first delimiter is not preceded by a line break, the preamble
+        // before it is skipped like a part
+        this.buffer[0] = '\r';
+        this.buffer[1] = '\n';
+        this.tail = 2;
+        this.current = new PartInputStream();
+    }
+
+    /**
+     * Skips what is left of the current part and reads the headers of the next
+     * one.
+     *
+     * @return the headers of the next part, by case insensitive name, or
+     * <code>null</code> if there are no more parts
+     */
+    public Map<String, List<String>> nextPart() throws IOException {
+        if (this.finished)
+            return null;
+
+        this.current.skip();
+
+        int b1 = this.readByte();
+        int b2 = this.readByte();
+        if (b1 == '-' && b2 == '-') {
+            this.finished = true;
+            return null;
+        }
+
+        // transport padding may follow the delimiter
+        while (b1 == ' ' || b1 == '\t') {
+            b1 = b2;
+            b2 = this.readByte();
+        }
+        if (b1 != '\r' || b2 != '\n')
+            throw new IOException("Malformed multipart body: invalid delimiter");
+
+        Map<String, List<String>> headers = this.readHeaders();
+        this.current = new PartInputStream();
+        return headers;
+    }
+
+    /**
+     * @return the content of the current part, which ends once the next part
+     * is requested
+     */
+    public InputStream getPartInputStream() {
+        return current;
+    }
+
+    private Map<String, List<String>> readHeaders() throws IOException {
+        Map<String, List<String>> headers = new TreeMap<String, List<String>>(
+                String.CASE_INSENSITIVE_ORDER);
+        ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+        String name = null;
+        int size = 0;
+        while (true) {
+            line.reset();
+            int b;
+            while ((b = this.readByte()) != '\n') {
+                if (++size > MAX_HEADER_SIZE)
+                    throw new IOException(
+                            "Malformed multipart body: part headers exceed "
+                                    + MAX_HEADER_SIZE + " bytes");
+                if (b != '\r')
+                    line.write(b);
+            }
+
+            String header = new String(line.toByteArray(), this.headerCharset);
+            if (header.length() == 0)
+                return headers;
+
+            // folded lines continue the previous header
+            if (name != null
+                    && (header.charAt(0) == ' ' || header.charAt(0) == '\t')) {
+                List<String> values = headers.get(name);
+                int last = values.size() - 1;
+                values.set(last, values.get(last) + ' ' + header.trim());
+                continue;
+            }
+
+            int colon = header.indexOf(':');
+            if (colon <= 0)
+                throw new IOException("Malformed multipart body: invalid header "
+                        + header);
+
+            name = header.substring(0, colon).trim();
+            List<String> values = headers.get(name);
+            if (values == null) {
+                values = new ArrayList<String>(1);
+                headers.put(name, values);
+            }
+            values.add(header.substring(colon + 1).trim());
+        }
+    }
+
+    private int readByte() throws IOException {
+        if (this.head == this.tail && !this.fill())
+            throw new IOException("Malformed multipart body: unexpected end");
+
+        return this.buffer[this.head++] & 0xff;
+    }
+
+    /**
+     * Moves the unread bytes to the start of the buffer and reads more.
+     *
+     * @return <code>false</code> if the body ended
+     */
+    private boolean fill() throws IOException {
+        if (this.head > 0) {
+            System.arraycopy(this.buffer, this.head, this.buffer, 0, this.tail
+                    - this.head);
+            this.tail -= this.head;
+            this.head = 0;
+        }
+        this.delimiterIndex = -2;
+
+        int n = this.in.read(this.buffer, this.tail, this.buffer.length
+                - this.tail);
+        if (n <= 0)
+            return false;
+
+        this.tail += n;
+        return true;
+    }
+
+    private int findDelimiter() {
+        if (this.delimiterIndex != -2)
+            return this.delimiterIndex;
+
+        int last = this.tail - this.delimiter.length;
+        outer:
+        for (int i = this.head; i <= last; i++) {
+            for (int j = 0; j < this.delimiter.length; j++) {
+                if (this.buffer[i + j] != this.delimiter[j])
+                    continue outer;
+            }
+            return this.delimiterIndex = i;
+        }
+        return this.delimiterIndex = -1;
+    }
+
+    private final class PartInputStream extends InputStream {
+
+        private boolean done;
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return this.read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (this.done)
+                return -1;
+            if (len == 0)
+                return 0;
+
+            while (true) {
+                int available = this.available();
+                if (available > 0) {
+                    int n = Math.min(len, available);
+                    System.arraycopy(buffer, head, b, off, n);
+                    head += n;
+                    return n;
+                }
+
+                if (findDelimiter() == head) {
+                    head += delimiter.length;
+                    delimiterIndex = -2;
+                    this.done = true;
+                    return -1;
+                }
+
+                if (!fill())
+                    throw new IOException(
+                            "Malformed multipart body: unexpected end");
+            }
+        }
+
+        /**
+         * @return the bytes which are surely content, a delimiter may start
+         * within the last bytes of the buffer
+         */
+        @Override
+        public int available() {
+            if (this.done)
+                return 0;
+
+            int index = findDelimiter();
+            if (index >= 0)
+                return index - head;
+
+            return Math.max(0, tail - head - delimiter.length + 1);
+        }
+
+        void skip() throws IOException {
+            byte[] skipped = new byte[4096];
+            while (this.read(skipped, 0, skipped.length) != -1) {
+                // skipped
+            }
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2013 by Maxim Kalina
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package net.javaforge.netty.servlet.bridge.multipart;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Part read completely, kept in memory or, above the size threshold of the
+ * multipart configuration, in a temporary file. Temporary files are deleted
+ * once the request is done.
+ */
+public class SpooledPart extends AbstractPart {
+
+    private final File location;
+
+    private final long size;
+
+    private byte[] data;
+
+    private File file;
+
+    private boolean temporary;
+
+    SpooledPart(Map<String, List<String>> headers, byte[] data, File location) {
+        super(headers);
+        this.location = location;
+        this.data = data;
+        this.size = data.length;
+    }
+
+    SpooledPart(Map<String, List<String>> headers, File file, long size,
+                File location) {
+        super(headers);
+        this.location = location;
+        this.file = file;
+        this.size = size;
+        this.temporary = true;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        if (this.data != null)
+            return new ByteArrayInputStream(this.data);
+        if (this.file != null)
+            return new FileInputStream(this.file);
+
+        throw new IOException("Part was deleted");
+    }
+
+    @Override
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return <code>true</code> if the content was spilled to a file
+     */
+    public boolean isInMemory() {
+        return data != null;
+    }
+
+    /**
+     * @return the content decoded with the charset
+     */
+    public String getString(Charset charset) throws IOException {
+        if (this.data != null)
+            return new String(this.data, charset);
+
+        InputStream in = this.getInputStream();
+        try {
+            byte[] content = new byte[(int) Math.min(this.size, Integer.MAX_VALUE)];
+            int read = 0;
+            int n;
+            while (read < content.length
+                    && (n = in.read(content, read, content.length - read)) != -1)
+                read += n;
+            return new String(content, 0, read, charset);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes the content to the file, relative to the location of the
+     * multipart configuration unless absolute. A temporary file is moved if
+     * possible, the part is read from the written file afterwards.
+     */
+    @Override
+    public void write(String fileName) throws IOException {
+        File target = new File(fileName);
+        if (!target.isAbsolute())
+            target = new File(this.location, fileName);
+
+        if (this.temporary && this.file.renameTo(target)) {
+            this.file = target;
+            this.temporary = false;
+            return;
+        }
+
+        InputStream in = this.getInputStream();
+        try {
+            OutputStream out = new FileOutputStream(target);
+            try {
+                byte[] buf = new byte[8192];
+                int n;
+                while ((n = in.read(buf)) != -1)
+                    out.write(buf, 0, n);
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Drops the content, deleting its temporary file. A file the part was
+     * written to is left alone.
+     */
+    @Override
+    public void delete() {
+        this.data = null;
+        if (this.temporary) {
+            this.temporary = false;
+            this.file.delete();
+        }
+        this.file = null;
+    }
+}
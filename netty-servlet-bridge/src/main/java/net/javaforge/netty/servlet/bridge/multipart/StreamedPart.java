@@ -0,0 +1,86 @@
+/*
+ * Copyright 2013 by Maxim Kalina
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package net.javaforge.netty.servlet.bridge.multipart;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Part read right from the request body. Its content can be read once, and
+ * only until the next part is requested.
+ */
+public class StreamedPart extends AbstractPart {
+
+    private final InputStream content;
+
+    private final File location;
+
+    StreamedPart(Map<String, List<String>> headers, InputStream content,
+                 File location) {
+        super(headers);
+        this.content = content;
+        this.location = location;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return content;
+    }
+
+    /**
+     * @return <code>-1</code>, the size is not known before the content was
+     * read
+     */
+    @Override
+    public long getSize() {
+        return -1;
+    }
+
+    /**
+     * Writes the unread content to the file, relative to the location of the
+     * multipart configuration unless absolute.
+     */
+    @Override
+    public void write(String fileName) throws IOException {
+        File file = new File(fileName);
+        if (!file.isAbsolute())
+            file = new File(this.location, fileName);
+
+        OutputStream out = new FileOutputStream(file);
+        try {
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = this.content.read(buf)) != -1)
+                out.write(buf, 0, n);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Does nothing, a streamed part is never stored.
+     */
+    @Override
+    public void delete() {
+    }
+}
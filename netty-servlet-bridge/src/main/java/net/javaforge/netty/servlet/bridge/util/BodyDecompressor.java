@@ -0,0 +1,159 @@
+/*
+ * Copyright 2013 by Maxim Kalina
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.javaforge.netty.servlet.bridge.util;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.compression.JdkZlibDecoder;
+import io.netty.handler.codec.compression.ZlibWrapper;
+
+import java.io.IOException;
+import java.util.Queue;
+
+/**
+ * Decompresses a gzip or deflate encoded request body chunk by chunk, using
+ * the JDK based zlib decoder of Netty. The compressed input is fed to the
+ * decoder in small slices, so a highly compressed chunk can not inflate into
+ * a huge buffer before the limit on the decompressed size is checked.
+ */
+public final class BodyDecompressor {
+
+    private static final int SLICE_SIZE = 1024;
+
+    private final EmbeddedChannel decoder;
+
+    private final long maxSize;
+
+    private long size;
+
+    private BodyDecompressor(ZlibWrapper wrapper, long maxSize) {
+        // not the factory, it falls back to the optional jzlib if it
+        // misjudges the java version
+        this.decoder = new EmbeddedChannel(new JdkZlibDecoder(wrapper));
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @param contentEncoding the Content-Encoding of the request
+     * @param maxSize         the size the decompressed body may not exceed,
+     *                        <code>0</code> for no limit
+     * @return a decompressor for the encoding, or <code>null</code> if the
+     * body is not encoded or the encoding is not supported
+     */
+    public static BodyDecompressor forEncoding(String contentEncoding,
+                                               long maxSize) {
+        if (contentEncoding == null)
+            return null;
+
+        String encoding = contentEncoding.trim();
+        if ("gzip".equalsIgnoreCase(encoding)
+                || "x-gzip".equalsIgnoreCase(encoding))
+            return new BodyDecompressor(ZlibWrapper.GZIP, maxSize);
+        if ("deflate".equalsIgnoreCase(encoding)
+                || "x-deflate".equalsIgnoreCase(encoding))
+            return new BodyDecompressor(ZlibWrapper.ZLIB, maxSize);
+
+        return null;
+    }
+
+    /**
+     * Decompresses a chunk of the body, taking over its ownership.
+     *
+     * @param out receives the decompressed buffers
+     * @return <code>false</code> if the decompressed body exceeds the max
+     * size, in which case the rest of the chunk is discarded
+     * @throws IOException if the body is not properly compressed
+     */
+    public boolean decode(ByteBuf in, Queue<ByteBuf> out) throws IOException {
+        try {
+            while (in.isReadable()) {
+                int n = Math.min(in.readableBytes(), SLICE_SIZE);
+                this.write(in.readSlice(n).retain());
+                if (!this.drain(out))
+                    return false;
+            }
+            return true;
+        } finally {
+            in.release();
+        }
+    }
+
+    /**
+     * Ends the body, after its last chunk was decoded.
+     *
+     * @return <code>false</code> if the decompressed body exceeds the max size
+     * @throws IOException if the body was truncated
+     */
+    public boolean finish(Queue<ByteBuf> out) throws IOException {
+        try {
+            this.decoder.finish();
+        } catch (RuntimeException e) {
+            throw new IOException("Malformed compressed body", e);
+        }
+        return this.drain(out);
+    }
+
+    /**
+     * Releases the state of the decoder and decompressed buffers not taken
+     * yet.
+     */
+    public void close() {
+        try {
+            this.decoder.finish();
+        } catch (RuntimeException e) {
+            // closed before the body was complete
+        }
+
+        Object buffer;
+        while ((buffer = this.decoder.readInbound()) != null)
+            ((ByteBuf) buffer).release();
+    }
+
+    /**
+     * @return the number of decompressed bytes so far
+     */
+    public long getSize() {
+        return size;
+    }
+
+    private void write(ByteBuf slice) throws IOException {
+        try {
+            this.decoder.writeInbound(slice);
+        } catch (RuntimeException e) {
+            throw new IOException("Malformed compressed body", e);
+        }
+    }
+
+    private boolean drain(Queue<ByteBuf> out) {
+        ByteBuf buffer;
+        while ((buffer = this.decoder.readInbound()) != null) {
+            if (!buffer.isReadable()) {
+                buffer.release();
+                continue;
+            }
+
+            this.size += buffer.readableBytes();
+            if (this.maxSize > 0 && this.size > this.maxSize) {
+                buffer.release();
+                return false;
+            }
+            out.add(buffer);
+        }
+        return true;
+    }
+
+}
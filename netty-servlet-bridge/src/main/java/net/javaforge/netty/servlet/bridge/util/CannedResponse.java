@@ -0,0 +1,75 @@
+/*
+ * Copyright 2013 by Maxim Kalina
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.javaforge.netty.servlet.bridge.util;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.util.CharsetUtil;
+
+import static io.netty.handler.codec.http.HttpHeaders.Names.*;
+import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
+
+/**
+ * Error response built once and written many times, e.g. to shed load. The
+ * body is encoded up front into an unreleasable buffer, each written response
+ * is a cheap duplicate of the template.
+ */
+public final class CannedResponse {
+
+    private final FullHttpResponse template;
+
+    /**
+     * @param headers additional header names and values, alternating
+     */
+    public CannedResponse(HttpResponseStatus status, CharSequence... headers) {
+        ByteBuf body = Unpooled.unreleasableBuffer(Unpooled.copiedBuffer(
+                "Failure: " + status + "\r\n", CharsetUtil.UTF_8));
+
+        this.template = new DefaultFullHttpResponse(HTTP_1_1, status, body);
+        HttpHeaders h = this.template.headers();
+        h.set(CONTENT_TYPE, "text/plain;charset=utf-8");
+        h.set(CACHE_CONTROL, "no-cache");
+        h.set(CONTENT_LENGTH, body.readableBytes());
+        for (int i = 0; i + 1 < headers.length; i += 2)
+            h.set(headers[i], headers[i + 1]);
+    }
+
+    public static CannedResponse serviceUnavailable(int retryAfterSeconds) {
+        return new CannedResponse(HttpResponseStatus.SERVICE_UNAVAILABLE,
+                RETRY_AFTER, String.valueOf(retryAfterSeconds));
+    }
+
+    public HttpResponseStatus getStatus() {
+        return this.template.getStatus();
+    }
+
+    /**
+     * @return a new response sharing status, headers and body of the template
+     */
+    public FullHttpResponse newResponse(boolean keepAlive) {
+        FullHttpResponse response = this.template.duplicate();
+        response.headers().set(CONNECTION,
+                keepAlive ? HttpHeaders.Values.KEEP_ALIVE
+                        : HttpHeaders.Values.CLOSE);
+        return response;
+    }
+
+}
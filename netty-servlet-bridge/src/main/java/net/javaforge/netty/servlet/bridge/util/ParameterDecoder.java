@@ -0,0 +1,182 @@
+/*
+ * Copyright 2013 by Maxim Kalina
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.javaforge.netty.servlet.bridge.util;
+
+import io.netty.buffer.ByteBuf;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Decodes <code>application/x-www-form-urlencoded</code> parameters, i.e.
+ * query strings and form bodies, into a multimap of names and their values in
+ * the order they appear. Bodies are decoded straight from their buffer, names
+ * and values without escapes are not copied before being turned into strings.
+ * <p/>
+ * Malformed escapes are kept as they are, pairs without a name are skipped.
+ */
+public final class ParameterDecoder {
+
+    private ParameterDecoder() {
+    }
+
+    /**
+     * Decodes the parameters of a query string.
+     */
+    public static void decode(String query, Charset charset,
+                              Map<String, String[]> parameters) {
+        int length = query.length();
+        int start = 0;
+        while (start < length) {
+            int end = query.indexOf('&', start);
+            if (end < 0)
+                end = length;
+
+            int separator = query.indexOf('=', start);
+            if (separator < 0 || separator > end)
+                separator = end;
+
+            if (separator > start)
+                add(parameters, decode(query, start, separator, charset),
+                        separator < end ? decode(query, separator + 1, end,
+                                charset) : "");
+
+            start = end + 1;
+        }
+    }
+
+    /**
+     * Decodes the parameters of a form body, without consuming the buffer.
+     */
+    public static void decode(ByteBuf content, Charset charset,
+                              Map<String, String[]> parameters) {
+        int limit = content.writerIndex();
+        int start = content.readerIndex();
+        byte[] buf = null;
+        while (start < limit) {
+            int end = content.indexOf(start, limit, (byte) '&');
+            if (end < 0)
+                end = limit;
+
+            int separator = content.indexOf(start, end, (byte) '=');
+            if (separator < 0)
+                separator = end;
+
+            if (separator > start) {
+                if (buf == null)
+                    buf = new byte[Math.min(limit - start, 1024)];
+                String name = decode(content, start, separator, charset, buf);
+                add(parameters, name, separator < end ? decode(content,
+                        separator + 1, end, charset, buf) : "");
+            }
+
+            start = end + 1;
+        }
+    }
+
+    /**
+     * Adds a value to the values of a parameter.
+     */
+    public static void add(Map<String, String[]> parameters, String name,
+                           String value) {
+        String[] values = parameters.get(name);
+        if (values == null) {
+            values = new String[]{value};
+        } else {
+            // parameters rarely repeat, growing by one keeps arrays tight
+            values = Arrays.copyOf(values, values.length + 1);
+            values[values.length - 1] = value;
+        }
+        parameters.put(name, values);
+    }
+
+    private static String decode(String s, int from, int to, Charset charset) {
+        int i = from;
+        while (i < to && s.charAt(i) != '%' && s.charAt(i) != '+')
+            i++;
+        if (i == to)
+            return s.substring(from, to);
+
+        byte[] buf = new byte[to - from];
+        int n = 0;
+        for (i = from; i < to; ) {
+            char c = s.charAt(i);
+            int b = c == '%' && i + 2 < to ? unhex(s.charAt(i + 1),
+                    s.charAt(i + 2)) : -1;
+            if (b >= 0) {
+                buf[n++] = (byte) b;
+                i += 3;
+            } else if (c == '+') {
+                buf[n++] = ' ';
+                i++;
+            } else if (c < 0x80) {
+                buf[n++] = (byte) c;
+                i++;
+            } else {
+                // raw characters beyond ascii, encoded as the escapes are
+                int end = i + 1;
+                while (end < to && s.charAt(end) >= 0x80)
+                    end++;
+                byte[] encoded = s.substring(i, end).getBytes(charset);
+                if (n + encoded.length + to - end > buf.length)
+                    buf = Arrays.copyOf(buf, n + encoded.length + to - end);
+                System.arraycopy(encoded, 0, buf, n, encoded.length);
+                n += encoded.length;
+                i = end;
+            }
+        }
+        return new String(buf, 0, n, charset);
+    }
+
+    private static String decode(ByteBuf content, int from, int to,
+                                 Charset charset, byte[] buf) {
+        int i = from;
+        while (i < to) {
+            byte c = content.getByte(i);
+            if (c == '%' || c == '+')
+                break;
+            i++;
+        }
+        if (i == to)
+            return content.toString(from, to - from, charset);
+
+        if (buf.length < to - from)
+            buf = new byte[to - from];
+        int n = 0;
+        for (i = from; i < to; ) {
+            byte c = content.getByte(i);
+            int b = c == '%' && i + 2 < to ? unhex(content.getByte(i + 1),
+                    content.getByte(i + 2)) : -1;
+            if (b >= 0) {
+                buf[n++] = (byte) b;
+                i += 3;
+            } else {
+                buf[n++] = c == '+' ? (byte) ' ' : c;
+                i++;
+            }
+        }
+        return new String(buf, 0, n, charset);
+    }
+
+    private static int unhex(int high, int low) {
+        int h = Character.digit(high, 16);
+        int l = Character.digit(low, 16);
+        return h < 0 || l < 0 ? -1 : h << 4 | l;
+    }
+
+}
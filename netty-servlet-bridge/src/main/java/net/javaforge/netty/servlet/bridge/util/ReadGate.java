@@ -0,0 +1,86 @@
+/*
+ * Copyright 2013 by Maxim Kalina
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package net.javaforge.netty.servlet.bridge.util;
+
+import io.netty.channel.Channel;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Suspends reading from a channel by turning its auto read off. Suspensions
+ * are counted, so several parties may suspend a channel independently: it is
+ * read again once all of them resumed it.
+ */
+public final class ReadGate {
+
+    private static final AttributeKey<AtomicInteger> SUSPENSIONS = AttributeKey
+            .valueOf(ReadGate.class, "suspensions");
+
+    private ReadGate() {
+    }
+
+    public static void suspend(Channel channel) {
+        if (suspensions(channel).incrementAndGet() == 1) {
+            // takes effect right away, even if the event loop is busy reading
+            channel.config().setAutoRead(false);
+            apply(channel);
+        }
+    }
+
+    public static void resume(Channel channel) {
+        if (suspensions(channel).decrementAndGet() == 0)
+            apply(channel);
+    }
+
+    public static boolean isSuspended(Channel channel) {
+        AtomicInteger suspensions = channel.attr(SUSPENSIONS).get();
+        return suspensions != null && suspensions.get() > 0;
+    }
+
+    private static AtomicInteger suspensions(Channel channel) {
+        Attribute<AtomicInteger> attr = channel.attr(SUSPENSIONS);
+        AtomicInteger suspensions = attr.get();
+        if (suspensions == null) {
+            AtomicInteger created = new AtomicInteger();
+            suspensions = attr.setIfAbsent(created);
+            if (suspensions == null)
+                suspensions = created;
+        }
+        return suspensions;
+    }
+
+    /**
+     * Applies the current count on the event loop, so concurrent transitions
+     * can not leave the channel in the wrong state.
+     */
+    private static void apply(final Channel channel) {
+        if (channel.eventLoop().inEventLoop()) {
+            channel.config().setAutoRead(!isSuspended(channel));
+            return;
+        }
+
+        channel.eventLoop().execute(new Runnable() {
+            @Override
+            public void run() {
+                channel.config().setAutoRead(!isSuspended(channel));
+            }
+        });
+    }
+}
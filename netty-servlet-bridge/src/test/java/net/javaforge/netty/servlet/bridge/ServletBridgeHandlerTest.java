@@ -0,0 +1,703 @@
+/*
+ * Copyright 2013 by Maxim Kalina
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.javaforge.netty.servlet.bridge;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerAdapter;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.DefaultLastHttpContent;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.util.CharsetUtil;
+import io.netty.util.concurrent.DefaultEventExecutor;
+import net.javaforge.netty.servlet.bridge.config.ServletConfiguration;
+import net.javaforge.netty.servlet.bridge.config.WebappConfiguration;
+import net.javaforge.netty.servlet.bridge.dispatch.DispatchMode;
+import net.javaforge.netty.servlet.bridge.impl.ServletBridgeWebapp;
+import net.javaforge.netty.servlet.bridge.util.ReadGate;
+import org.junit.After;
+import org.junit.Test;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static io.netty.handler.codec.http.HttpHeaders.Names.CONNECTION;
+import static io.netty.handler.codec.http.HttpHeaders.Names.CONTENT_LENGTH;
+import static io.netty.handler.codec.http.HttpHeaders.Names.CONTENT_TYPE;
+import static io.netty.handler.codec.http.HttpHeaders.Names.EXPECT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ServletBridgeHandlerTest {
+
+    private final Queue<Runnable> workers = new ArrayDeque<Runnable>();
+
+    /**
+     * Holds the dispatched servlets until the test runs them.
+     */
+    private final Executor executor = new Executor() {
+        @Override
+        public void execute(Runnable task) {
+            workers.add(task);
+        }
+    };
+
+    @After
+    public void tearDown() {
+        ServletBridgeWebapp.get().destroy();
+    }
+
+    private static void init(WebappConfiguration config) {
+        ServletBridgeWebapp.get().init(config,
+                new DefaultChannelGroup(new DefaultEventExecutor()));
+    }
+
+    private void init(HttpServlet servlet, DispatchMode mode) {
+        this.init(new WebappConfiguration(), new ServletConfiguration(servlet,
+                "/*").setDispatchMode(mode));
+    }
+
+    private void init(WebappConfiguration config, ServletConfiguration servlet) {
+        init(config.setDispatchExecutor(this.executor)
+                .addServletConfigurations(servlet));
+    }
+
+    private void runWorkers() {
+        Runnable task;
+        while ((task = this.workers.poll()) != null)
+            task.run();
+    }
+
+    private static EmbeddedChannel newChannel() {
+        return new EmbeddedChannel(newHandler());
+    }
+
+    private static ServletBridgeHandler newHandler() {
+        return new ServletBridgeHandler() {
+            @Override
+            public void channelRegistered(ChannelHandlerContext ctx) {
+                // the embedded event loop can not schedule the idle timeouts
+                ctx.fireChannelRegistered();
+            }
+        };
+    }
+
+    private static HttpRequest get(String uri) {
+        return new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET,
+                uri);
+    }
+
+    private static HttpRequest post(long contentLength) {
+        HttpRequest request = new DefaultHttpRequest(HttpVersion.HTTP_1_1,
+                HttpMethod.POST, "/upload");
+        HttpHeaders.setContentLength(request, contentLength);
+        return request;
+    }
+
+    private static HttpContent content(String content) {
+        return new DefaultHttpContent(Unpooled.copiedBuffer(content,
+                CharsetUtil.UTF_8));
+    }
+
+    private static LastHttpContent lastContent(String content) {
+        return new DefaultLastHttpContent(Unpooled.copiedBuffer(content,
+                CharsetUtil.UTF_8));
+    }
+
+    private static FullHttpResponse readResponse(EmbeddedChannel channel) {
+        Object msg = channel.readOutbound();
+        assertTrue("not a full response: " + msg,
+                msg instanceof FullHttpResponse);
+        return (FullHttpResponse) msg;
+    }
+
+    private static String readContent(FullHttpResponse response) {
+        String content = response.content().toString(CharsetUtil.UTF_8);
+        response.release();
+        return content;
+    }
+
+    @Test
+    public void inlineServletRunsOnTheEventLoop() {
+        init(new EchoUriServlet(), DispatchMode.INLINE);
+        EmbeddedChannel channel = newChannel();
+
+        channel.writeInbound(get("/inline?x=1"));
+
+        assertTrue(this.workers.isEmpty());
+        FullHttpResponse response = readResponse(channel);
+        assertEquals(200, response.getStatus().code());
+        assertEquals("keep-alive", response.headers().get(CONNECTION));
+        assertEquals("11", response.headers().get(CONTENT_LENGTH));
+        assertEquals("/inline?x=1", readContent(response));
+    }
+
+    @Test
+    public void workerServletRunsOnTheExecutor() {
+        init(new EchoUriServlet(), DispatchMode.WORKER);
+        EmbeddedChannel channel = newChannel();
+
+        channel.writeInbound(get("/worker"));
+        assertNull(channel.readOutbound());
+        assertEquals(1, this.workers.size());
+
+        runWorkers();
+        assertEquals("/worker", readContent(readResponse(channel)));
+    }
+
+    @Test
+    public void rejectedRequestIsAnsweredWith503() {
+        init(new WebappConfiguration().setDispatchExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException("full");
+            }
+        }).addServletConfigurations(new ServletConfiguration(
+                new EchoUriServlet(), "/*")));
+        EmbeddedChannel channel = newChannel();
+
+        channel.writeInbound(get("/rejected"));
+
+        FullHttpResponse response = readResponse(channel);
+        assertEquals(503, response.getStatus().code());
+        response.release();
+    }
+
+    @Test
+    public void pipelinedResponsesKeepTheRequestOrder() {
+        init(new EchoUriServlet(), DispatchMode.WORKER);
+        EmbeddedChannel channel = newChannel();
+
+        channel.writeInbound(get("/first"), get("/second"));
+
+        // the second request waits for the response to the first one
+        assertEquals(1, this.workers.size());
+        assertTrue(ReadGate.isSuspended(channel));
+
+        this.workers.poll().run();
+        assertEquals("/first", readContent(readResponse(channel)));
+        assertFalse(ReadGate.isSuspended(channel));
+        assertEquals(1, this.workers.size());
+
+        this.workers.poll().run();
+        assertEquals("/second", readContent(readResponse(channel)));
+        assertNull(channel.readOutbound());
+    }
+
+    @Test
+    public void requestKeepsTheUriAsReceived() {
+        init(new WebappConfiguration(), new ServletConfiguration(
+                new EchoPathsServlet(), "/app/*").setDispatchMode(
+                DispatchMode.INLINE));
+        EmbeddedChannel channel = newChannel();
+
+        channel.writeInbound(get("/x/../app;jsessionid=1/./b?q=1"));
+
+        assertEquals("/x/../app;jsessionid=1/./b /app /b q=1",
+                readContent(readResponse(channel)));
+    }
+
+    @Test
+    public void drainClosesIdleConnections() throws Exception {
+        init(new EchoUriServlet(), DispatchMode.INLINE);
+        EmbeddedChannel channel = newChannel();
+
+        assertTrue(ServletBridgeWebapp.get().drain(0));
+        channel.runPendingTasks();
+
+        assertFalse(channel.isOpen());
+    }
+
+    @Test
+    public void drainWaitsForRequestsInFlight() throws Exception {
+        init(new EchoUriServlet(), DispatchMode.WORKER);
+        EmbeddedChannel channel = newChannel();
+        channel.writeInbound(get("/slow"));
+        assertEquals(1, ServletBridgeWebapp.get().getInFlightRequests());
+
+        assertFalse(ServletBridgeWebapp.get().drain(10));
+        channel.runPendingTasks();
+        assertTrue(channel.isOpen());
+
+        runWorkers();
+        FullHttpResponse response = readResponse(channel);
+        assertEquals("close", response.headers().get(CONNECTION));
+        response.release();
+        assertFalse(channel.isOpen());
+        assertEquals(0, ServletBridgeWebapp.get().getInFlightRequests());
+        assertTrue(ServletBridgeWebapp.get().drain(10));
+    }
+
+    @Test
+    public void drainRefusesNewConnections() throws Exception {
+        init(new EchoUriServlet(), DispatchMode.INLINE);
+        ServletBridgeWebapp.get().drain(0);
+
+        assertFalse(newChannel().isOpen());
+    }
+
+    @Test
+    public void responseWithinTheBufferIsSentWhole() {
+        init(new WebappConfiguration().setResponseBufferSize(16),
+                new ServletConfiguration(new WritingServlet(16), "/*")
+                        .setDispatchMode(DispatchMode.INLINE));
+        EmbeddedChannel channel = newChannel();
+
+        channel.writeInbound(get("/"));
+
+        FullHttpResponse response = readResponse(channel);
+        assertEquals("16", response.headers().get(CONTENT_LENGTH));
+        assertEquals(16, readContent(response).length());
+    }
+
+    @Test
+    public void closedWriterResponseIsSentWhole() {
+        init(new ClosingWriterServlet(), DispatchMode.INLINE);
+        EmbeddedChannel channel = newChannel();
+
+        channel.writeInbound(get("/"));
+
+        FullHttpResponse response = readResponse(channel);
+        assertEquals("5", response.headers().get(CONTENT_LENGTH));
+        assertEquals("hello", readContent(response));
+    }
+
+    @Test
+    public void responseOutgrowingTheBufferIsStreamed() {
+        init(new WebappConfiguration().setResponseBufferSize(16),
+                new ServletConfiguration(new WritingServlet(40), "/*")
+                        .setDispatchMode(DispatchMode.INLINE));
+        EmbeddedChannel channel = newChannel();
+
+        channel.writeInbound(get("/"));
+
+        HttpResponse head = (HttpResponse) channel.readOutbound();
+        assertFalse(head instanceof FullHttpResponse);
+        assertTrue(HttpHeaders.isTransferEncodingChunked(head));
+        assertEquals(40, readStreamedContent(channel));
+    }
+
+    /**
+     * @return the number of bytes streamed up to the last content
+     */
+    private static int readStreamedContent(EmbeddedChannel channel) {
+        int length = 0;
+        Object msg;
+        do {
+            msg = channel.readOutbound();
+            assertTrue("not a content: " + msg, msg instanceof HttpContent);
+            length += ((HttpContent) msg).content().readableBytes();
+            ((HttpContent) msg).release();
+        } while (!(msg instanceof LastHttpContent));
+        return length;
+    }
+
+    @Test
+    public void writeListenerWaitsForTheChannelToBeWritable() {
+        NonBlockingServlet servlet = new NonBlockingServlet(4, 32);
+        init(new WebappConfiguration().setWriteBufferWaterMarks(8, 16),
+                new ServletConfiguration(servlet, "/*")
+                        .setDispatchMode(DispatchMode.INLINE));
+        FlushValve valve = new FlushValve();
+        EmbeddedChannel channel = new EmbeddedChannel(valve,
+                newHandler());
+
+        channel.writeInbound(get("/"));
+        channel.runPendingTasks();
+
+        // the client does not read, so only part of the body is written
+        assertFalse(channel.isWritable());
+        assertEquals(1, servlet.notifications.get());
+        assertTrue(servlet.written < 4 * 32);
+
+        valve.open();
+        channel.runPendingTasks();
+
+        assertEquals(4 * 32, servlet.written);
+        assertTrue(servlet.notifications.get() > 1);
+        assertTrue(channel.readOutbound() instanceof HttpResponse);
+        assertEquals(4 * 32, readStreamedContent(channel));
+    }
+
+    @Test
+    public void smallBodyIsReceivedBeforeDispatch() {
+        init(new EchoBodyServlet(), DispatchMode.WORKER);
+        EmbeddedChannel channel = newChannel();
+
+        channel.writeInbound(post(10), content("hello"));
+        assertTrue(this.workers.isEmpty());
+
+        channel.writeInbound(lastContent("world"));
+        assertEquals(1, this.workers.size());
+
+        runWorkers();
+        assertEquals("helloworld", readContent(readResponse(channel)));
+    }
+
+    @Test
+    public void largeBodyIsStreamedWhileTheServletRuns() {
+        init(new WebappConfiguration(), new ServletConfiguration(
+                new EchoBodyServlet(), "/*").setAggregatedBodySize(4));
+        EmbeddedChannel channel = newChannel();
+
+        channel.writeInbound(post(10));
+        assertEquals(1, this.workers.size());
+
+        channel.writeInbound(content("hello"), lastContent("world"));
+        runWorkers();
+        assertEquals("helloworld", readContent(readResponse(channel)));
+    }
+
+    @Test
+    public void unreadBodySuspendsReading() {
+        init(new WebappConfiguration().setRequestBodyBufferSize(8),
+                new ServletConfiguration(new EchoBodyServlet(), "/*")
+                        .setAggregatedBodySize(0));
+        EmbeddedChannel channel = newChannel();
+
+        channel.writeInbound(post(12), content("0123456789"));
+        assertTrue(ReadGate.isSuspended(channel));
+        assertFalse(channel.config().isAutoRead());
+
+        channel.writeInbound(lastContent("ab"));
+        runWorkers();
+        channel.runPendingTasks();
+
+        assertFalse(ReadGate.isSuspended(channel));
+        assertTrue(channel.config().isAutoRead());
+        assertEquals("0123456789ab", readContent(readResponse(channel)));
+    }
+
+    @Test
+    public void oversizedBodyIsRefused() {
+        init(new WebappConfiguration(), new ServletConfiguration(
+                new EchoBodyServlet(), "/*").setMaxRequestBodySize(8));
+        EmbeddedChannel channel = newChannel();
+
+        channel.writeInbound(post(10));
+
+        assertRefused(channel, 413);
+    }
+
+    @Test
+    public void formBodyIsDecoded() {
+        init(new EchoParameterServlet(), DispatchMode.WORKER);
+        EmbeddedChannel channel = newChannel();
+        HttpRequest request = post(7);
+        request.headers().set(CONTENT_TYPE, "application/x-www-form-urlencoded");
+
+        channel.writeInbound(request, lastContent("a=b%20c"));
+        runWorkers();
+
+        assertEquals("b c", readContent(readResponse(channel)));
+    }
+
+    @Test
+    public void unreadableFormBodyFailsTheRequest() {
+        init(new WebappConfiguration(), new ServletConfiguration(
+                new EchoParameterServlet(), "/*").setMaxRequestBodySize(8)
+                .setAggregatedBodySize(0));
+        EmbeddedChannel channel = newChannel();
+        HttpRequest request = post(4);
+        request.headers().set(CONTENT_TYPE, "application/x-www-form-urlencoded");
+
+        // the client sends more than it announced
+        channel.writeInbound(request, lastContent("a=0123456789"));
+        runWorkers();
+        channel.runPendingTasks();
+
+        FullHttpResponse response = readResponse(channel);
+        assertEquals(500, response.getStatus().code());
+        response.release();
+    }
+
+    @Test
+    public void oversizedHeadersAreRefused() {
+        init(new WebappConfiguration(), new ServletConfiguration(
+                new EchoUriServlet(), "/*").setMaxRequestHeaderSize(64));
+        EmbeddedChannel channel = newChannel();
+        HttpRequest request = get("/");
+        request.headers().set("X-Large", new String(new char[64]));
+
+        channel.writeInbound(request);
+
+        assertRefused(channel, 431);
+    }
+
+    @Test
+    public void longUriIsRefused() {
+        init(new WebappConfiguration(), new ServletConfiguration(
+                new EchoUriServlet(), "/*").setMaxRequestUriLength(8));
+        EmbeddedChannel channel = newChannel();
+
+        channel.writeInbound(get("/a/b/c/d/e"));
+
+        assertRefused(channel, 414);
+    }
+
+    @Test
+    public void uriLengthIsCheckedAsReceived() {
+        init(new WebappConfiguration(), new ServletConfiguration(
+                new EchoUriServlet(), "/*").setMaxRequestUriLength(8));
+        EmbeddedChannel channel = newChannel();
+
+        // normalized to "/a/b"
+        channel.writeInbound(get("/a/./././b"));
+
+        assertRefused(channel, 414);
+    }
+
+    private void assertRefused(EmbeddedChannel channel, int status) {
+        FullHttpResponse response = readResponse(channel);
+        assertEquals(status, response.getStatus().code());
+        response.release();
+        assertFalse(channel.isOpen());
+        assertTrue(this.workers.isEmpty());
+    }
+
+    @Test
+    public void continueIsSentOnceTheBodyIsRead() {
+        init(new EchoBodyServlet(), DispatchMode.WORKER);
+        EmbeddedChannel channel = newChannel();
+        HttpRequest request = post(5);
+        request.headers().set(EXPECT, HttpHeaders.Values.CONTINUE);
+
+        channel.writeInbound(request);
+        assertEquals(1, this.workers.size());
+        assertNull(channel.readOutbound());
+
+        // the client sends the body once it got the 100 Continue
+        channel.writeInbound(lastContent("hello"));
+        runWorkers();
+
+        assertEquals(100, readResponse(channel).getStatus().code());
+        FullHttpResponse response = readResponse(channel);
+        assertEquals("hello", readContent(response));
+        assertTrue(channel.isOpen());
+    }
+
+    @Test
+    public void unrequestedBodyClosesTheConnection() {
+        init(new EchoUriServlet(), DispatchMode.WORKER);
+        EmbeddedChannel channel = newChannel();
+        HttpRequest request = post(5);
+        request.headers().set(EXPECT, HttpHeaders.Values.CONTINUE);
+
+        channel.writeInbound(request);
+        runWorkers();
+
+        FullHttpResponse response = readResponse(channel);
+        assertEquals(200, response.getStatus().code());
+        assertEquals("close", response.headers().get(CONNECTION));
+        response.release();
+        channel.runPendingTasks();
+        assertFalse(channel.isOpen());
+    }
+
+    /**
+     * Writes the uri of the request.
+     */
+    private static final class EchoUriServlet extends HttpServlet {
+
+        @Override
+        protected void service(HttpServletRequest req, HttpServletResponse resp)
+                throws IOException {
+            String uri = req.getRequestURI();
+            if (req.getQueryString() != null)
+                uri += "?" + req.getQueryString();
+            resp.getOutputStream().write(uri.getBytes(CharsetUtil.UTF_8));
+        }
+    }
+
+    /**
+     * Writes the request uri, servlet path, path info and query string.
+     */
+    private static final class EchoPathsServlet extends HttpServlet {
+
+        @Override
+        protected void service(HttpServletRequest req, HttpServletResponse resp)
+                throws IOException {
+            String paths = req.getRequestURI() + " " + req.getServletPath()
+                    + " " + req.getPathInfo() + " " + req.getQueryString();
+            resp.getOutputStream().write(paths.getBytes(CharsetUtil.UTF_8));
+        }
+    }
+
+    /**
+     * Writes the value of the parameter <code>a</code>.
+     */
+    private static final class EchoParameterServlet extends HttpServlet {
+
+        @Override
+        protected void service(HttpServletRequest req, HttpServletResponse resp)
+                throws IOException {
+            String value = String.valueOf(req.getParameter("a"));
+            resp.getOutputStream().write(value.getBytes(CharsetUtil.UTF_8));
+        }
+    }
+
+    /**
+     * Writes the body of the request.
+     */
+    private static final class EchoBodyServlet extends HttpServlet {
+
+        @Override
+        protected void service(HttpServletRequest req, HttpServletResponse resp)
+                throws IOException {
+            InputStream in = req.getInputStream();
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            byte[] buf = new byte[4];
+            int n;
+            while ((n = in.read(buf)) != -1)
+                body.write(buf, 0, n);
+            resp.getOutputStream().write(body.toByteArray());
+        }
+    }
+
+    /**
+     * Writes the given number of bytes.
+     */
+    private static final class WritingServlet extends HttpServlet {
+
+        private final int length;
+
+        WritingServlet(int length) {
+            this.length = length;
+        }
+
+        @Override
+        protected void service(HttpServletRequest req, HttpServletResponse resp)
+                throws IOException {
+            ServletOutputStream out = resp.getOutputStream();
+            for (int i = 0; i < this.length; i++)
+                out.write('x');
+        }
+    }
+
+    /**
+     * Writes a body by the writer and closes it, as many servlets do.
+     */
+    private static final class ClosingWriterServlet extends HttpServlet {
+
+        @Override
+        protected void service(HttpServletRequest req, HttpServletResponse resp)
+                throws IOException {
+            PrintWriter writer = resp.getWriter();
+            writer.print("hello");
+            writer.close();
+        }
+    }
+
+    /**
+     * Writes chunks asynchronously as long as the stream is ready.
+     */
+    private static final class NonBlockingServlet extends HttpServlet {
+
+        private final int chunks;
+
+        private final int chunkSize;
+
+        private final AtomicInteger notifications = new AtomicInteger();
+
+        private volatile int written;
+
+        NonBlockingServlet(int chunks, int chunkSize) {
+            this.chunks = chunks;
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        protected void service(HttpServletRequest req, HttpServletResponse resp)
+                throws IOException {
+            final AsyncContext async = req.startAsync();
+            final ServletOutputStream out = resp.getOutputStream();
+            out.setWriteListener(new WriteListener() {
+                @Override
+                public void onWritePossible() throws IOException {
+                    notifications.incrementAndGet();
+                    while (out.isReady()) {
+                        if (written == chunks * chunkSize) {
+                            async.complete();
+                            return;
+                        }
+                        out.write(new byte[chunkSize]);
+                        written += chunkSize;
+                    }
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                    async.complete();
+                }
+            });
+        }
+    }
+
+    /**
+     * Holds back flushes like a client which does not read, so written
+     * messages pile up in the outbound buffer of the channel.
+     */
+    private static final class FlushValve extends ChannelHandlerAdapter {
+
+        private ChannelHandlerContext ctx;
+
+        private boolean open;
+
+        @Override
+        public void handlerAdded(ChannelHandlerContext ctx) {
+            this.ctx = ctx;
+        }
+
+        @Override
+        public void flush(ChannelHandlerContext ctx) {
+            if (this.open)
+                ctx.flush();
+        }
+
+        void open() {
+            this.open = true;
+            this.ctx.flush();
+        }
+    }
+
+}
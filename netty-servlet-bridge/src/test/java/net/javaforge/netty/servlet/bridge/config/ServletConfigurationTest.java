@@ -0,0 +1,76 @@
+/*
+ * Copyright 2013 by Maxim Kalina
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.javaforge.netty.servlet.bridge.config;
+
+import org.junit.Test;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class ServletConfigurationTest {
+
+    @Test
+    public void failingPoolInitDestroysTheInitializedInstances()
+            throws Exception {
+        FailingServlet.initialized = 0;
+        FailingServlet.destroyed = 0;
+        ServletConfiguration servlet = new ServletConfiguration(
+                FailingServlet.class, "/*").setPoolSize(4);
+
+        try {
+            servlet.doInit();
+            fail();
+        } catch (ServletException e) {
+            // expected
+        }
+        assertEquals(3, FailingServlet.initialized);
+        assertEquals(2, FailingServlet.destroyed);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsANegativeDeadline() {
+        new ServletConfiguration(new HttpServlet() {
+        }).setDeadline(-1);
+    }
+
+    /**
+     * Fails to initialize its third instance.
+     */
+    public static class FailingServlet extends HttpServlet {
+
+        static int initialized;
+
+        static int destroyed;
+
+        @Override
+        public void init(ServletConfig config) throws ServletException {
+            if (++initialized == 3)
+                throw new ServletException("third instance");
+            super.init(config);
+        }
+
+        @Override
+        public void destroy() {
+            destroyed++;
+        }
+    }
+
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2013 by Maxim Kalina
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.javaforge.netty.servlet.bridge.dispatch;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveLimiterTest {
+
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * Runs rounds of requests using the whole limit, all with the given round
+     * trip time.
+     */
+    private static void saturate(AdaptiveLimiter limiter, int rounds,
+                                 long rttNanos) {
+        for (int round = 0; round < rounds; round++) {
+            int admitted = 0;
+            while (limiter.tryAcquire())
+                admitted++;
+            for (int i = 0; i < admitted; i++)
+                limiter.release(rttNanos);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInitialLimitOutOfBounds() {
+        new AdaptiveLimiter(100, 1, 10);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonPositiveMinLimit() {
+        new AdaptiveLimiter(1, 0, 10);
+    }
+
+    @Test
+    public void admitsUpToTheLimit() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(3, 1, 10);
+
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+        assertEquals(3, limiter.getInFlight());
+        assertEquals(1, limiter.getRejectedCount());
+
+        limiter.release(-1);
+        assertEquals(2, limiter.getInFlight());
+        assertTrue(limiter.tryAcquire());
+    }
+
+    @Test
+    public void unexecutedRequestsAreNoSamples() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(10, 1, 100);
+        for (int i = 0; i < 100; i++) {
+            while (limiter.tryAcquire()) {
+                // fill the limit
+            }
+            while (limiter.getInFlight() > 0)
+                limiter.release(-1);
+        }
+
+        assertEquals(10, limiter.getLimit());
+        assertEquals(0, limiter.getLongRttMillis(), 0);
+    }
+
+    @Test
+    public void growsWhileLatencyIsSteady() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(10, 1, 1000);
+
+        saturate(limiter, 20, MILLIS);
+
+        assertTrue(limiter.getLimit() > 10);
+        assertEquals(1, limiter.getLongRttMillis(), 0.01);
+    }
+
+    @Test
+    public void doesNotGrowBeyondTheLoad() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(10, 1, 1000);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(limiter.tryAcquire());
+            limiter.release(MILLIS);
+        }
+
+        assertEquals(10, limiter.getLimit());
+    }
+
+    @Test
+    public void shrinksWhenLatencyGrows() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(100, 5, 1000);
+        for (int i = 0; i < 50; i++) {
+            assertTrue(limiter.tryAcquire());
+            limiter.release(MILLIS);
+        }
+
+        saturate(limiter, 1, 20 * MILLIS);
+
+        int limit = limiter.getLimit();
+        assertTrue("limit " + limit, limit < 100);
+        assertTrue("limit " + limit, limit >= 5);
+    }
+
+    @Test
+    public void staysWithinItsBounds() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(10, 8, 10);
+
+        saturate(limiter, 20, MILLIS);
+        assertEquals(10, limiter.getLimit());
+
+        saturate(limiter, 20, 1000 * MILLIS);
+        assertEquals(8, limiter.getLimit());
+    }
+
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2013 by Maxim Kalina
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.javaforge.netty.servlet.bridge.dispatch;
+
+import org.junit.Test;
+
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BulkheadTest {
+
+    private static Runnable task() {
+        return new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonPositiveConcurrency() {
+        new Bulkhead("b", 0, 1, 1);
+    }
+
+    @Test
+    public void queuesBeyondTheConcurrencyThenRejects() {
+        Bulkhead bulkhead = new Bulkhead("b", 2, 1, 1);
+
+        assertTrue(bulkhead.acquire(task()));
+        assertTrue(bulkhead.acquire(task()));
+        assertFalse(bulkhead.acquire(task()));
+        assertEquals(2, bulkhead.getActiveCount());
+        assertEquals(1, bulkhead.getQueuedCount());
+
+        try {
+            bulkhead.acquire(task());
+            fail();
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+        assertEquals(1, bulkhead.getRejectedCount());
+    }
+
+    @Test
+    public void releaseHandsThePermitToTheNextQueuedTask() {
+        Bulkhead bulkhead = new Bulkhead("b", 1, 2, 1);
+        Runnable first = task();
+        Runnable second = task();
+        assertTrue(bulkhead.acquire(task()));
+        assertFalse(bulkhead.acquire(first));
+        assertFalse(bulkhead.acquire(second));
+
+        assertSame(first, bulkhead.release());
+        assertSame(second, bulkhead.release());
+        assertEquals(1, bulkhead.getActiveCount());
+
+        assertNull(bulkhead.release());
+        assertEquals(0, bulkhead.getActiveCount());
+        assertTrue(bulkhead.acquire(task()));
+    }
+
+    @Test
+    public void negativeQueueDepthMeansNoQueue() {
+        Bulkhead bulkhead = new Bulkhead("b", 1, -1, 1);
+
+        assertEquals(0, bulkhead.getMaxQueueDepth());
+        assertTrue(bulkhead.acquire(task()));
+        try {
+            bulkhead.acquire(task());
+            fail();
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+    }
+
+}
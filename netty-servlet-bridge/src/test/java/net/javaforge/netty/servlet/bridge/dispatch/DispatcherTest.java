@@ -0,0 +1,50 @@
+/*
+ * Copyright 2013 by Maxim Kalina
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.javaforge.netty.servlet.bridge.dispatch;
+
+import net.javaforge.netty.servlet.bridge.config.ServletConfiguration;
+import org.junit.Test;
+
+import javax.servlet.http.HttpServlet;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class DispatcherTest {
+
+    private static final Executor EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Test
+    public void pooledServletRunsOnWorkersWithoutChangingItsConfiguration() {
+        Dispatcher dispatcher = new Dispatcher(EXECUTOR, DispatchMode.INLINE);
+        ServletConfiguration servlet = new ServletConfiguration(
+                new HttpServlet() {
+                }, "/*").setPoolSize(2);
+
+        dispatcher.addServlet(servlet);
+
+        assertEquals(DispatchMode.WORKER, dispatcher.getDispatchMode(servlet));
+        assertNull(servlet.getDispatchMode());
+    }
+
+}
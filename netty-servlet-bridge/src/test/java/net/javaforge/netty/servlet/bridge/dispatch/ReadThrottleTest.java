@@ -0,0 +1,140 @@
+/*
+ * Copyright 2013 by Maxim Kalina
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.javaforge.netty.servlet.bridge.dispatch;
+
+import io.netty.channel.Channel;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.util.concurrent.DefaultEventExecutor;
+import net.javaforge.netty.servlet.bridge.util.ReadGate;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ReadThrottleTest {
+
+    private ChannelGroup channels;
+
+    private EmbeddedChannel first;
+
+    private EmbeddedChannel second;
+
+    private ReadThrottle throttle;
+
+    @Before
+    public void setUp() {
+        this.channels = new DefaultChannelGroup(new DefaultEventExecutor());
+        this.first = new EmbeddedChannel();
+        this.second = new EmbeddedChannel();
+        this.channels.add(this.first);
+        this.channels.add(this.second);
+        this.throttle = new ReadThrottle(1, 3, this.channels);
+    }
+
+    private static boolean reading(Channel channel) {
+        return channel.config().isAutoRead();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsLowAboveHighWaterMark() {
+        new ReadThrottle(4, 3, null);
+    }
+
+    @Test
+    public void suspendsAllChannelsAtTheHighWaterMark() {
+        this.throttle.onDispatched(this.first, 2);
+        assertFalse(this.throttle.isThrottling());
+        assertTrue(reading(this.first));
+
+        this.throttle.onDispatched(this.first, 3);
+        assertTrue(this.throttle.isThrottling());
+        assertFalse(reading(this.first));
+        assertFalse(reading(this.second));
+        assertEquals(1, this.throttle.getThrottleCount());
+    }
+
+    @Test
+    public void resumesAtTheLowWaterMark() {
+        this.throttle.onDispatched(this.first, 3);
+
+        this.throttle.onDequeued(2);
+        assertFalse(reading(this.second));
+
+        this.throttle.onDequeued(1);
+        assertFalse(this.throttle.isThrottling());
+        assertTrue(reading(this.first));
+        assertTrue(reading(this.second));
+    }
+
+    @Test
+    public void suspendsChannelsBecomingActiveWhileThrottling() {
+        EmbeddedChannel late = new EmbeddedChannel();
+        this.throttle.onChannelActive(late);
+        assertTrue(reading(late));
+
+        this.throttle.onDispatched(this.first, 3);
+        EmbeddedChannel later = new EmbeddedChannel();
+        this.throttle.onChannelActive(later);
+        assertFalse(reading(later));
+
+        this.throttle.onDequeued(0);
+        assertTrue(reading(later));
+    }
+
+    @Test
+    public void leavesOtherSuspensionsInPlace() {
+        ReadGate.suspend(this.second);
+        this.throttle.onDispatched(this.first, 3);
+
+        this.throttle.onDequeued(0);
+        assertTrue(reading(this.first));
+        assertFalse(reading(this.second));
+    }
+
+    @Test
+    public void neverSuspendsChannelsReceivingABody() {
+        this.throttle.onBodyStarted(this.first);
+
+        this.throttle.onDispatched(this.second, 3);
+        assertTrue(reading(this.first));
+        assertFalse(reading(this.second));
+
+        // suspended with its next request once the body is received
+        this.throttle.onBodyReceived(this.first);
+        this.throttle.onDispatched(this.first, 3);
+        assertFalse(reading(this.first));
+    }
+
+    @Test
+    public void resumesChannelsStartingABodyWhileSuspended() {
+        this.throttle.onDispatched(this.first, 3);
+        assertFalse(reading(this.second));
+
+        this.throttle.onBodyStarted(this.second);
+        assertTrue(reading(this.second));
+
+        // resumed once only when the throttle is lifted
+        this.throttle.onDequeued(0);
+        assertTrue(reading(this.second));
+        assertTrue(reading(this.first));
+    }
+
+}
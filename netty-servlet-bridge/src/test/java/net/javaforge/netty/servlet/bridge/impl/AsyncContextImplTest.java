@@ -0,0 +1,228 @@
+/*
+ * Copyright 2013 by Maxim Kalina
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.javaforge.netty.servlet.bridge.impl;
+
+import io.netty.util.HashedWheelTimer;
+import org.junit.After;
+import org.junit.Test;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletException;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AsyncContextImplTest {
+
+    private final AtomicInteger completions = new AtomicInteger();
+
+    private final Runnable completion = new Runnable() {
+        @Override
+        public void run() {
+            completions.incrementAndGet();
+        }
+    };
+
+    private final HashedWheelTimer timer = new HashedWheelTimer(10,
+            TimeUnit.MILLISECONDS);
+
+    @After
+    public void tearDown() {
+        this.timer.stop();
+    }
+
+    private AsyncContextImpl newContext(long timeout) {
+        return new AsyncContextImpl(null, null, true, this.completion,
+                this.timer, timeout);
+    }
+
+    @Test
+    public void completedBeforeTheDispatchReturned() {
+        AsyncContextImpl context = newContext(0);
+
+        context.complete();
+        assertEquals(0, this.completions.get());
+
+        context.dispatchReturned();
+        assertEquals(1, this.completions.get());
+    }
+
+    @Test
+    public void completedAfterTheDispatchReturned() {
+        AsyncContextImpl context = newContext(0);
+
+        context.dispatchReturned();
+        assertEquals(0, this.completions.get());
+
+        context.complete();
+        context.complete();
+        assertEquals(1, this.completions.get());
+        assertTrue(context.isCompleted());
+    }
+
+    @Test
+    public void racingCompletionFinishesOnce() throws Exception {
+        final CyclicBarrier barrier = new CyclicBarrier(2);
+        for (int i = 0; i < 1000; i++) {
+            final AsyncContextImpl context = newContext(0);
+            Thread completer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        barrier.await();
+                    } catch (Exception e) {
+                        return;
+                    }
+                    context.complete();
+                }
+            });
+            completer.start();
+
+            barrier.await();
+            context.dispatchReturned();
+            completer.join();
+
+            assertEquals(i + 1, this.completions.get());
+        }
+    }
+
+    @Test
+    public void listenersAreNotifiedOnComplete() {
+        AsyncContextImpl context = newContext(0);
+        RecordingListener listener = new RecordingListener();
+        context.addListener(listener);
+
+        context.dispatchReturned();
+        context.complete();
+
+        assertEquals(1, listener.completed.get());
+        assertSame(context, listener.event.getAsyncContext());
+    }
+
+    @Test
+    public void failNotifiesListenersAndCompletes() {
+        AsyncContextImpl context = newContext(0);
+        RecordingListener listener = new RecordingListener();
+        context.addListener(listener);
+        context.dispatchReturned();
+
+        IOException cause = new IOException("disconnected");
+        context.fail(cause);
+
+        assertEquals(1, listener.errors.get());
+        assertEquals(1, listener.completed.get());
+        assertEquals(1, this.completions.get());
+        assertSame(cause, listener.cause);
+    }
+
+    @Test
+    public void timeoutNotifiesListeners() throws Exception {
+        AsyncContextImpl context = newContext(20);
+        final CountDownLatch timedOut = new CountDownLatch(1);
+        context.addListener(new RecordingListener() {
+            @Override
+            public void onTimeout(AsyncEvent event) {
+                event.getAsyncContext().complete();
+                timedOut.countDown();
+            }
+        });
+
+        context.dispatchReturned();
+
+        assertTrue(timedOut.await(5, TimeUnit.SECONDS));
+        assertEquals(1, this.completions.get());
+    }
+
+    @Test
+    public void completionCancelsTheTimeout() throws Exception {
+        AsyncContextImpl context = newContext(20);
+        RecordingListener listener = new RecordingListener();
+        context.addListener(listener);
+
+        context.dispatchReturned();
+        context.complete();
+        Thread.sleep(100);
+
+        assertEquals(0, listener.timeouts.get());
+        assertEquals(1, this.completions.get());
+    }
+
+    @Test
+    public void createListenerUsesTheNoArgConstructor() throws Exception {
+        assertTrue(newContext(0).createListener(RecordingListener.class) instanceof RecordingListener);
+    }
+
+    @Test
+    public void createListenerReportsTheConstructorFailure() {
+        try {
+            newContext(0).createListener(FailingListener.class);
+            fail();
+        } catch (ServletException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    public static class RecordingListener implements AsyncListener {
+
+        final AtomicInteger completed = new AtomicInteger();
+
+        final AtomicInteger timeouts = new AtomicInteger();
+
+        final AtomicInteger errors = new AtomicInteger();
+
+        volatile AsyncEvent event;
+
+        volatile Throwable cause;
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            this.event = event;
+            this.completed.incrementAndGet();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            this.timeouts.incrementAndGet();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            this.cause = event.getThrowable();
+            this.errors.incrementAndGet();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+
+    public static class FailingListener extends RecordingListener {
+
+        public FailingListener() {
+            throw new IllegalStateException("not now");
+        }
+    }
+
+}
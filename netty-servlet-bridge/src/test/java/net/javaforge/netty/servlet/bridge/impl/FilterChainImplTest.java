@@ -0,0 +1,122 @@
+/*
+ * Copyright 2013 by Maxim Kalina
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.javaforge.netty.servlet.bridge.impl;
+
+import net.javaforge.netty.servlet.bridge.config.FilterConfiguration;
+import net.javaforge.netty.servlet.bridge.config.ServletConfiguration;
+import org.junit.Test;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServlet;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FilterChainImplTest {
+
+    private final List<String> calls = new ArrayList<String>();
+
+    private FilterConfiguration filter(final String name, final boolean proceed) {
+        return new FilterConfiguration(new Filter() {
+            @Override
+            public void init(FilterConfig filterConfig) {
+            }
+
+            @Override
+            public void doFilter(ServletRequest request,
+                                 ServletResponse response, FilterChain chain)
+                    throws IOException, ServletException {
+                calls.add(name);
+                if (proceed)
+                    chain.doFilter(request, response);
+            }
+
+            @Override
+            public void destroy() {
+            }
+        });
+    }
+
+    private ServletConfiguration servlet() {
+        return new ServletConfiguration(new HttpServlet() {
+            @Override
+            public void service(ServletRequest req, ServletResponse res) {
+                calls.add("servlet");
+            }
+        });
+    }
+
+    @Test
+    public void runsFiltersInOrderThenTheServlet() throws Exception {
+        FilterConfiguration[] filters = {filter("a", true), filter("b", true)};
+
+        new FilterChainImpl(servlet(), filters).doFilter(null, null);
+
+        assertEquals(Arrays.asList("a", "b", "servlet"), calls);
+    }
+
+    @Test
+    public void filterCanStopTheChain() throws Exception {
+        FilterConfiguration[] filters = {filter("a", false), filter("b", true)};
+
+        new FilterChainImpl(servlet(), filters).doFilter(null, null);
+
+        assertEquals(Arrays.asList("a"), calls);
+    }
+
+    @Test
+    public void chainsShareTheirFilters() throws Exception {
+        ServletConfiguration servlet = servlet();
+        FilterConfiguration[] filters = {filter("a", true)};
+
+        new FilterChainImpl(servlet, filters).doFilter(null, null);
+        new FilterChainImpl(servlet, filters).doFilter(null, null);
+
+        assertEquals(Arrays.asList("a", "servlet", "a", "servlet"), calls);
+    }
+
+    @Test
+    public void addingFiltersCopiesTheSharedArray() throws Exception {
+        FilterConfiguration[] filters = {filter("a", true)};
+        FilterChainImpl chain = new FilterChainImpl(servlet(), filters);
+
+        chain.addFilterConfiguration(filter("b", true));
+
+        assertEquals(1, filters.length);
+        chain.doFilter(null, null);
+        assertEquals(Arrays.asList("a", "b", "servlet"), calls);
+    }
+
+    @Test
+    public void chainWithoutServletOrFiltersIsInvalid() {
+        assertFalse(new FilterChainImpl((ServletConfiguration) null)
+                .isValid());
+        assertTrue(new FilterChainImpl((ServletConfiguration) null,
+                new FilterConfiguration[]{filter("a", true)}).isValid());
+    }
+
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2013 by Maxim Kalina
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.javaforge.netty.servlet.bridge.impl;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.concurrent.DefaultEventExecutor;
+import net.javaforge.netty.servlet.bridge.config.FilterConfiguration;
+import net.javaforge.netty.servlet.bridge.config.ServletConfiguration;
+import net.javaforge.netty.servlet.bridge.config.WebappConfiguration;
+import org.junit.After;
+import org.junit.Test;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RequestRecyclerTest {
+
+    @After
+    public void tearDown() {
+        ServletBridgeWebapp.get().destroy();
+    }
+
+    private static void init(RecycleMode mode) {
+        ServletBridgeWebapp.get().init(
+                new WebappConfiguration().setRecycleMode(mode),
+                new DefaultChannelGroup(new DefaultEventExecutor()));
+    }
+
+    private static HttpServletRequestImpl newRequest() {
+        return new HttpServletRequestImpl(new DefaultFullHttpRequest(
+                HttpVersion.HTTP_1_1, HttpMethod.GET, "/a?x=1"),
+                new FilterChainImpl((ServletConfiguration) null,
+                        new FilterConfiguration[0]));
+    }
+
+    private static HttpServletResponseImpl newResponse() {
+        return new HttpServletResponseImpl(new DefaultFullHttpResponse(
+                HttpVersion.HTTP_1_1, HttpResponseStatus.OK));
+    }
+
+    @Test
+    public void noRecyclerWithoutRecycling() {
+        init(RecycleMode.NONE);
+
+        assertNull(RequestRecycler.get(new EmbeddedChannel()));
+    }
+
+    @Test
+    public void channelKeepsItsRecycler() {
+        init(RecycleMode.CHANNEL);
+        EmbeddedChannel channel = new EmbeddedChannel();
+
+        assertSame(RequestRecycler.get(channel), RequestRecycler.get(channel));
+        assertNotSame(RequestRecycler.get(channel),
+                RequestRecycler.get(new EmbeddedChannel()));
+    }
+
+    @Test
+    public void recycledResponseIsReused() {
+        init(RecycleMode.CHANNEL);
+        RequestRecycler recycler = RequestRecycler.get(new EmbeddedChannel());
+        HttpServletRequestImpl req = newRequest();
+        HttpServletResponseImpl resp = newResponse();
+        assertSame(req, recycler.facade(req));
+        assertSame(resp, recycler.facade(resp));
+
+        recycler.recycle(req, resp);
+        assertTrue(req.isRecycled());
+        assertTrue(resp.isRecycled());
+
+        DefaultFullHttpResponse next = new DefaultFullHttpResponse(
+                HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+        assertSame(resp, recycler.reuseResponse(next));
+        assertFalse(resp.isRecycled());
+        assertSame(next, resp.getOriginalResponse());
+
+        // taken by the request in progress
+        assertNull(recycler.reuseResponse(next));
+    }
+
+    @Test
+    public void recycledRequestForgetsItsState() {
+        init(RecycleMode.CHANNEL);
+        RequestRecycler recycler = RequestRecycler.get(new EmbeddedChannel());
+        HttpServletRequestImpl req = newRequest();
+        req.setAttribute("a", "b");
+
+        recycler.recycle(req, newResponse());
+
+        assertNull(req.getOriginalRequest());
+        assertFalse(req.getAttributeNames().hasMoreElements());
+    }
+
+    @Test
+    public void debugModeFailsUseAfterCompletion() {
+        init(RecycleMode.DEBUG);
+        RequestRecycler recycler = RequestRecycler.get(new EmbeddedChannel());
+        HttpServletRequestImpl req = newRequest();
+        HttpServletResponseImpl resp = newResponse();
+        HttpServletRequest request = recycler.facade(req);
+        HttpServletResponse response = recycler.facade(resp);
+
+        request.setAttribute("a", "b");
+        assertEquals("b", request.getAttribute("a"));
+        response.setStatus(HttpServletResponse.SC_ACCEPTED);
+
+        recycler.recycle(req, resp);
+
+        try {
+            request.getAttribute("a");
+            fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        try {
+            response.setStatus(HttpServletResponse.SC_OK);
+            fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        // debug mode never hands out recycled objects
+        assertNull(recycler.reuseResponse(new DefaultFullHttpResponse(
+                HttpVersion.HTTP_1_1, HttpResponseStatus.OK)));
+    }
+
+}
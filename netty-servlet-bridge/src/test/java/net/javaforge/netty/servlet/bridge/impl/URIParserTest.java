@@ -0,0 +1,130 @@
+/*
+ * Copyright 2013 by Maxim Kalina
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.javaforge.netty.servlet.bridge.impl;
+
+import net.javaforge.netty.servlet.bridge.config.FilterConfiguration;
+import net.javaforge.netty.servlet.bridge.config.ServletConfiguration;
+import net.javaforge.netty.servlet.bridge.mapping.UrlPatternMapper;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.servlet.http.HttpServlet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class URIParserTest {
+
+    private UrlPatternMapper<ServletConfiguration> mapper;
+
+    @Before
+    public void setUp() {
+        this.mapper = new UrlPatternMapper<ServletConfiguration>()
+                .addMapping("/app/*", new ServletConfiguration(
+                        new HttpServlet() {
+                        }, "/app/*"))
+                .addMapping("*.do", new ServletConfiguration(
+                        new HttpServlet() {
+                        }, "*.do"));
+    }
+
+    private URIParser parse(String uri) {
+        URIParser parser = new URIParser(chain(uri));
+        parser.parse(uri);
+        return parser;
+    }
+
+    private FilterChainImpl chain(String uri) {
+        return new FilterChainImpl(this.mapper.match(uri),
+                new FilterConfiguration[0]);
+    }
+
+    @Test
+    public void splitsPrefixMappedUri() {
+        URIParser parser = parse("/app/a/b?x=1&y=2");
+
+        assertEquals("/app", parser.getServletPath());
+        assertEquals("/a/b", parser.getPathInfo());
+        assertEquals("x=1&y=2", parser.getQueryString());
+        assertEquals("/app/a/b", parser.getRequestUri());
+    }
+
+    @Test
+    public void splitsExtensionMappedUri() {
+        URIParser parser = parse("/a/b.do");
+
+        assertEquals("/a/b.do", parser.getServletPath());
+        assertNull(parser.getPathInfo());
+        assertNull(parser.getQueryString());
+    }
+
+    @Test
+    public void requestUriWithoutQueryIsTheUri() {
+        String uri = "/app/a";
+        assertSame(uri, parse(uri).getRequestUri());
+    }
+
+    @Test
+    public void fragmentIsNoQueryString() {
+        URIParser parser = parse("/app/a#top");
+
+        assertEquals("/app/a", parser.getRequestUri());
+        assertNull(parser.getQueryString());
+    }
+
+    @Test
+    public void emptyQueryString() {
+        assertEquals("", parse("/app?").getQueryString());
+    }
+
+    @Test
+    public void partsAreMaterializedOnce() {
+        URIParser parser = parse("/app/a?x");
+
+        assertSame(parser.getServletPath(), parser.getServletPath());
+        assertSame(parser.getPathInfo(), parser.getPathInfo());
+        assertSame(parser.getQueryString(), parser.getQueryString());
+    }
+
+    @Test
+    public void reparsingResetsTheParts() {
+        URIParser parser = parse("/app/a?x");
+        parser.getPathInfo();
+        parser.getQueryString();
+
+        parser.parse("/app/b");
+        assertEquals("/app", parser.getServletPath());
+        assertEquals("/b", parser.getPathInfo());
+        assertNull(parser.getQueryString());
+        assertEquals("/app/b", parser.getRequestUri());
+    }
+
+    @Test
+    public void reparsingThroughAnotherChain() {
+        URIParser parser = parse("/app/a?x");
+        parser.getPathInfo();
+        parser.getQueryString();
+
+        parser.parse(chain("/b.do"), "/b.do");
+        assertEquals("/b.do", parser.getServletPath());
+        assertNull(parser.getPathInfo());
+        assertNull(parser.getQueryString());
+        assertEquals("/b.do", parser.getRequestUri());
+    }
+
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2013 by Maxim Kalina
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.javaforge.netty.servlet.bridge.mapping;
+
+import net.javaforge.netty.servlet.bridge.config.FilterConfiguration;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RouteCacheTest {
+
+    private static Route route(String path) {
+        return new Route(path, null, new FilterConfiguration[0]);
+    }
+
+    private static Route get(RouteCache cache, String uri) {
+        return cache.get(uri, UrlPatternMapper.pathLength(uri));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonPositiveSize() {
+        new RouteCache(0);
+    }
+
+    @Test
+    public void queryVariantsShareTheirRoute() {
+        RouteCache cache = new RouteCache(10);
+        Route route = route("/a/b");
+        cache.put(route);
+
+        assertSame(route, get(cache, "/a/b"));
+        assertSame(route, get(cache, "/a/b?x=1"));
+        assertNull(get(cache, "/a/c?x=1"));
+
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(2d / 3, cache.getHitRate(), 0.0001);
+    }
+
+    @Test
+    public void firstPutWins() {
+        RouteCache cache = new RouteCache(10);
+        Route first = route("/a");
+        cache.put(first);
+        cache.put(route("/a"));
+
+        assertSame(first, get(cache, "/a"));
+        assertEquals(1, cache.getSize());
+    }
+
+    @Test
+    public void evictsInInsertionOrder() {
+        RouteCache cache = new RouteCache(2);
+        cache.put(route("/a"));
+        cache.put(route("/b"));
+        cache.put(route("/c"));
+
+        assertEquals(2, cache.getSize());
+        assertEquals(1, cache.getEvictionCount());
+        assertNull(get(cache, "/a"));
+        assertNotNull(get(cache, "/b"));
+        assertNotNull(get(cache, "/c"));
+    }
+
+    @Test
+    public void referencedEntriesGetASecondChance() {
+        RouteCache cache = new RouteCache(2);
+        cache.put(route("/a"));
+        cache.put(route("/b"));
+        assertNotNull(get(cache, "/a"));
+
+        cache.put(route("/c"));
+        assertNull(get(cache, "/b"));
+        assertNotNull(get(cache, "/a"));
+        assertNotNull(get(cache, "/c"));
+
+        // both hit again, so the newcomer is the one not referenced
+        cache.put(route("/d"));
+        assertEquals(2, cache.getSize());
+        assertNull(get(cache, "/d"));
+
+        // the second chances were used up by the last eviction pass
+        cache.put(route("/e"));
+        assertNull(get(cache, "/c"));
+        assertNotNull(get(cache, "/a"));
+        assertNotNull(get(cache, "/e"));
+    }
+
+    @Test
+    public void staysBoundedWhenEverythingIsReferenced() {
+        RouteCache cache = new RouteCache(4);
+        for (int i = 0; i < 100; i++) {
+            cache.put(route("/p" + i));
+            for (int j = 0; j <= i; j++)
+                get(cache, "/p" + j);
+        }
+
+        assertTrue(cache.getSize() <= 4);
+        assertEquals(96, cache.getEvictionCount());
+    }
+
+    @Test
+    public void countsChannelHits() {
+        RouteCache cache = new RouteCache(2);
+        cache.recordChannelHit();
+        get(cache, "/a");
+
+        assertEquals(1, cache.getChannelHitCount());
+        assertEquals(0.5, cache.getHitRate(), 0.0001);
+    }
+
+    @Test
+    public void clearDropsEntries() {
+        RouteCache cache = new RouteCache(2);
+        cache.put(route("/a"));
+        cache.clear();
+
+        assertEquals(0, cache.getSize());
+        assertNull(get(cache, "/a"));
+    }
+
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright 2013 by Maxim Kalina
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.javaforge.netty.servlet.bridge.mapping;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class UrlPatternMapperTest {
+
+    private static final String[] NONE = new String[0];
+
+    @Test
+    public void exactMatchWinsOverPrefix() {
+        UrlPatternMapper<String> mapper = new UrlPatternMapper<String>()
+                .addMapping("/app/*", "prefix")
+                .addMapping("/app/exact", "exact");
+
+        UrlMatch<String> match = mapper.match("/app/exact");
+        assertEquals("exact", match.getTarget());
+        assertEquals("/app/exact", match.getServletPath("/app/exact"));
+        assertNull(match.getPathInfo("/app/exact"));
+
+        assertEquals("prefix", mapper.match("/app/exact/more").getTarget());
+    }
+
+    @Test
+    public void longestPrefixWins() {
+        UrlPatternMapper<String> mapper = new UrlPatternMapper<String>()
+                .addMapping("/*", "root")
+                .addMapping("/a/*", "a")
+                .addMapping("/a/b/*", "ab");
+
+        String uri = "/a/b/c/d?x=1";
+        UrlMatch<String> match = mapper.match(uri);
+        assertEquals("ab", match.getTarget());
+        assertEquals("/a/b", match.getServletPath(uri));
+        assertEquals("/c/d", match.getPathInfo(uri));
+
+        match = mapper.match("/a/bc");
+        assertEquals("a", match.getTarget());
+        assertEquals("/bc", match.getPathInfo("/a/bc"));
+
+        match = mapper.match("/other");
+        assertEquals("root", match.getTarget());
+        assertEquals("", match.getServletPath("/other"));
+        assertEquals("/other", match.getPathInfo("/other"));
+    }
+
+    @Test
+    public void prefixMatchesItsOwnPath() {
+        UrlPatternMapper<String> mapper = new UrlPatternMapper<String>()
+                .addMapping("/app/*", "app");
+
+        UrlMatch<String> match = mapper.match("/app?x=1");
+        assertEquals("app", match.getTarget());
+        assertEquals("/app", match.getServletPath("/app?x=1"));
+        assertNull(match.getPathInfo("/app?x=1"));
+    }
+
+    @Test
+    public void extensionMatchesAfterPrefixes() {
+        UrlPatternMapper<String> mapper = new UrlPatternMapper<String>()
+                .addMapping("*.do", "do")
+                .addMapping("/static/*", "static");
+
+        UrlMatch<String> match = mapper.match("/a/b.do?x");
+        assertEquals("do", match.getTarget());
+        assertEquals("/a/b.do", match.getServletPath("/a/b.do?x"));
+        assertNull(match.getPathInfo("/a/b.do?x"));
+
+        assertEquals("static", mapper.match("/static/b.do").getTarget());
+        assertNull(mapper.match("/a.do/b"));
+    }
+
+    @Test
+    public void defaultMatchesWhatIsLeft() {
+        UrlPatternMapper<String> mapper = new UrlPatternMapper<String>()
+                .addMapping("/", "default")
+                .addMapping("/app/*", "app");
+
+        UrlMatch<String> match = mapper.match("/unmapped/path");
+        assertEquals("default", match.getTarget());
+        assertEquals("/unmapped/path", match.getServletPath("/unmapped/path"));
+        assertNull(match.getPathInfo("/unmapped/path"));
+    }
+
+    @Test
+    public void wildcardMatchesBeforeDefault() {
+        UrlPatternMapper<String> mapper = new UrlPatternMapper<String>()
+                .addMapping("/", "default")
+                .addMapping("/files*", "wildcard");
+
+        assertEquals("wildcard", mapper.match("/files123").getTarget());
+        assertEquals("default", mapper.match("/other").getTarget());
+    }
+
+    @Test
+    public void firstRegistrationWins() {
+        UrlPatternMapper<String> mapper = new UrlPatternMapper<String>()
+                .addMapping("/app/*", "first")
+                .addMapping("/app/*", "second");
+
+        assertEquals("first", mapper.match("/app/x").getTarget());
+    }
+
+    @Test
+    public void nothingMatches() {
+        UrlPatternMapper<String> mapper = new UrlPatternMapper<String>()
+                .addMapping("/app/*", "app");
+
+        assertNull(mapper.match("/other"));
+        assertNull(mapper.match("relative"));
+    }
+
+    @Test
+    public void matchAllKeepsRegistrationOrder() {
+        UrlPatternMapper<String> mapper = new UrlPatternMapper<String>()
+                .addMapping("*.jsp", "jsp")
+                .addMapping("/a/*", "a")
+                .addMapping("/*", "all")
+                .addMapping("/a/b.jsp", "exact")
+                .addMapping("/b/*", "b");
+
+        assertArrayEquals(new String[]{"jsp", "a", "all", "exact"},
+                mapper.matchAll("/a/b.jsp", NONE));
+        assertArrayEquals(new String[]{"a", "all"},
+                mapper.matchAll("/a/c", NONE));
+        assertArrayEquals(new String[]{"all"}, mapper.matchAll("/c", NONE));
+    }
+
+    @Test
+    public void matchAllReportsTargetsOnce() {
+        UrlPatternMapper<String> mapper = new UrlPatternMapper<String>()
+                .addMapping("/a/*", "filter")
+                .addMapping("/*", "filter");
+
+        assertArrayEquals(new String[]{"filter"},
+                mapper.matchAll("/a/b", NONE));
+    }
+
+    @Test
+    public void matchAllAppliesDefaultToContextRootOnly() {
+        UrlPatternMapper<String> mapper = new UrlPatternMapper<String>()
+                .addMapping("/", "default");
+
+        assertArrayEquals(new String[]{"default"}, mapper.matchAll("/", NONE));
+        assertArrayEquals(NONE, mapper.matchAll("/a", NONE));
+    }
+
+    @Test
+    public void matchAllIsMemoizedPerPath() {
+        UrlPatternMapper<String> mapper = new UrlPatternMapper<String>()
+                .addMapping("/a/*", "a")
+                .addMapping("*.do", "do");
+
+        String[] first = mapper.matchAll("/a/x", NONE);
+        assertSame(first, mapper.matchAll("/a/y?q", NONE));
+        assertArrayEquals(new String[]{"a", "do"},
+                mapper.matchAll("/a/x.do", NONE));
+        assertSame(mapper.matchAll("/a/x.do", NONE),
+                mapper.matchAll("/a/y.do", NONE));
+    }
+
+    @Test
+    public void pathLengthStopsAtQueryOrFragment() {
+        assertEquals(4, UrlPatternMapper.pathLength("/a/b?c=d"));
+        assertEquals(4, UrlPatternMapper.pathLength("/a/b#top"));
+        assertEquals(4, UrlPatternMapper.pathLength("/a/b"));
+    }
+
+    @Test
+    public void normalizeKeepsNormalizedUris() {
+        String uri = "/a/b/?x=/../";
+        assertSame(uri, UrlPatternMapper.normalize(uri));
+
+        String relative = "a/../b";
+        assertSame(relative, UrlPatternMapper.normalize(relative));
+
+        String dots = "/a/.b/..c";
+        assertSame(dots, UrlPatternMapper.normalize(dots));
+    }
+
+    @Test
+    public void normalizeDropsEmptyAndDotSegments() {
+        assertEquals("/a/b", UrlPatternMapper.normalize("/a//b"));
+        assertEquals("/a/b", UrlPatternMapper.normalize("//a/./b"));
+        assertEquals("/a/b/", UrlPatternMapper.normalize("/a//b/"));
+        assertEquals("/a/", UrlPatternMapper.normalize("/a/."));
+    }
+
+    @Test
+    public void normalizeResolvesParentSegments() {
+        assertEquals("/a/c", UrlPatternMapper.normalize("/a/b/../c"));
+        assertEquals("/a/", UrlPatternMapper.normalize("/a/b/.."));
+        assertEquals("/c", UrlPatternMapper.normalize("/../../c"));
+        assertEquals("/secret?x=1",
+                UrlPatternMapper.normalize("/public/../secret?x=1"));
+    }
+
+    @Test
+    public void normalizeStripsPathParameters() {
+        assertEquals("/app/page?q=a;b",
+                UrlPatternMapper.normalize("/app;jsessionid=42/page?q=a;b"));
+        assertEquals("/app/page",
+                UrlPatternMapper.normalize("/app/page;v=1"));
+    }
+
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2013 by Maxim Kalina
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.javaforge.netty.servlet.bridge.multipart;
+
+import org.junit.Test;
+
+import javax.servlet.MultipartConfigElement;
+import javax.servlet.ServletException;
+import javax.servlet.http.Part;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.Iterator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MultipartRequestTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String CONTENT_TYPE = "multipart/form-data; boundary=\"b0und\"";
+
+    private static String body(String file) {
+        return "--b0und\r\n"
+                + "Content-Disposition: form-data; name=\"field\"\r\n"
+                + "\r\n"
+                + "value\r\n"
+                + "--b0und\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"f.bin\"\r\n"
+                + "Content-Type: application/octet-stream\r\n"
+                + "\r\n"
+                + file + "\r\n"
+                + "--b0und--\r\n";
+    }
+
+    private static String repeat(char c, int count) {
+        StringBuilder s = new StringBuilder(count);
+        for (int i = 0; i < count; i++)
+            s.append(c);
+        return s.toString();
+    }
+
+    private static MultipartRequest request(String body,
+                                            MultipartConfigElement config) throws ServletException {
+        return new MultipartRequest(new ByteArrayInputStream(body
+                .getBytes(UTF_8)), CONTENT_TYPE, null, config);
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[1024];
+        int n;
+        while ((n = in.read(buf)) != -1)
+            out.write(buf, 0, n);
+        in.close();
+        return new String(out.toByteArray(), UTF_8);
+    }
+
+    @Test
+    public void detectsMultipartContentTypes() {
+        assertTrue(MultipartRequest.isMultipart("Multipart/Form-Data; boundary=x"));
+        assertFalse(MultipartRequest.isMultipart("application/x-www-form-urlencoded"));
+        assertFalse(MultipartRequest.isMultipart(null));
+    }
+
+    @Test(expected = ServletException.class)
+    public void requiresABoundary() throws ServletException {
+        new MultipartRequest(new ByteArrayInputStream(new byte[0]),
+                "multipart/form-data", null, null);
+    }
+
+    @Test
+    public void parsesHeaderParameters() {
+        String header = "form-data; name=\"a \\\"quoted\\\" name\"; filename=plain.txt ;x=\"\"";
+
+        assertEquals("a \"quoted\" name",
+                MultipartRequest.getHeaderParameter(header, "name"));
+        assertEquals("plain.txt",
+                MultipartRequest.getHeaderParameter(header, "FILENAME"));
+        assertEquals("", MultipartRequest.getHeaderParameter(header, "x"));
+        assertNull(MultipartRequest.getHeaderParameter(header, "missing"));
+        assertNull(MultipartRequest.getHeaderParameter(null, "name"));
+    }
+
+    @Test
+    public void spoolsSmallPartsInMemory() throws Exception {
+        MultipartRequest request = request(body("small"), null);
+
+        Collection<Part> parts = request.getParts();
+        assertEquals(2, parts.size());
+
+        Iterator<Part> it = parts.iterator();
+        SpooledPart field = (SpooledPart) it.next();
+        assertEquals("field", field.getName());
+        assertNull(field.getSubmittedFileName());
+        assertEquals("value", field.getString(UTF_8));
+        assertTrue(field.isInMemory());
+
+        Part file = request.getPart("file");
+        assertEquals("f.bin", file.getSubmittedFileName());
+        assertEquals("application/octet-stream", file.getContentType());
+        assertEquals(5, file.getSize());
+        assertEquals("small", read(file.getInputStream()));
+
+        request.close();
+    }
+
+    @Test
+    public void spillsLargePartsToDisk() throws Exception {
+        String content = repeat('x', 5000);
+        MultipartRequest request = request(body(content),
+                new MultipartConfigElement("", -1, -1, 1024));
+
+        SpooledPart file = (SpooledPart) request.getPart("file");
+        assertFalse(file.isInMemory());
+        assertEquals(5000, file.getSize());
+        assertEquals(content, read(file.getInputStream()));
+        assertTrue(((SpooledPart) request.getPart("field")).isInMemory());
+
+        request.close();
+        try {
+            file.getInputStream();
+            fail();
+        } catch (IOException e) {
+            // the temporary file is gone
+        }
+    }
+
+    @Test
+    public void streamsParts() throws Exception {
+        MultipartRequest request = request(body("streamed"), null);
+
+        Part field = request.nextPart();
+        assertEquals("field", field.getName());
+        Part file = request.nextPart();
+        assertEquals("streamed", read(file.getInputStream()));
+        assertNull(request.nextPart());
+        assertTrue(request.isStreaming());
+
+        try {
+            request.getParts();
+            fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void streamingIsRefusedOnceSpooled() throws Exception {
+        MultipartRequest request = request(body("x"), null);
+        request.getParts();
+
+        try {
+            request.nextPart();
+            fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void enforcesTheMaxFileSize() throws Exception {
+        request(body(repeat('x', 2000)),
+                new MultipartConfigElement("", 1000, -1, 0)).getParts();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void enforcesTheMaxFileSizeWhileStreaming() throws Exception {
+        MultipartRequest request = request(body(repeat('x', 2000)),
+                new MultipartConfigElement("", 1000, -1, 0));
+        request.nextPart();
+        read(request.nextPart().getInputStream());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void enforcesTheMaxRequestSize() throws Exception {
+        request(body(repeat('x', 2000)),
+                new MultipartConfigElement("", -1, 1000, 0)).getParts();
+    }
+
+    @Test
+    public void failedSpoolingDeletesTheSpooledParts() throws Exception {
+        File location = File.createTempFile("multipart", "");
+        assertTrue(location.delete() && location.mkdir());
+
+        String body = "--b0und\r\n"
+                + "Content-Disposition: form-data; name=\"a\"; filename=\"a.bin\"\r\n"
+                + "\r\n"
+                + repeat('x', 500) + "\r\n"
+                + body(repeat('y', 2000)).substring(2);
+        MultipartRequest request = request(body, new MultipartConfigElement(
+                location.getPath(), 1000, -1, 100));
+
+        try {
+            request.getParts();
+            fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertEquals(0, location.list().length);
+
+        try {
+            request.getParts();
+            fail();
+        } catch (IllegalStateException e) {
+            assertNotNull(e.getCause());
+        }
+        try {
+            request.nextPart();
+            fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertTrue(location.delete());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void closedRequestHasNoParts() throws Exception {
+        MultipartRequest request = request(body("x"), null);
+        request.close();
+        request.getParts();
+    }
+
+}
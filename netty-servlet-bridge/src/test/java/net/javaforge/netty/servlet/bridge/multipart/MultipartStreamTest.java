@@ -0,0 +1,187 @@
+/*
+ * Copyright 2013 by Maxim Kalina
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.javaforge.netty.servlet.bridge.multipart;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class MultipartStreamTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String BODY = "preamble\r\n"
+            + "--xyz\r\n"
+            + "Content-Disposition: form-data; name=\"a\"\r\n"
+            + "\r\n"
+            + "first value\r\n"
+            + "--xyz\r\n"
+            + "content-disposition: form-data; name=\"b\"; filename=\"b.txt\"\r\n"
+            + "Content-Type: text/plain\r\n"
+            + "\r\n"
+            + "line one\r\n--xy not a delimiter\r\n\r\n"
+            + "--xyz--\r\n"
+            + "epilogue";
+
+    private static MultipartStream stream(String body, int maxRead,
+                                          int bufferSize) {
+        InputStream in = new TrickleInputStream(new ByteArrayInputStream(body
+                .getBytes(UTF_8)), maxRead);
+        return new MultipartStream(in, "xyz", UTF_8, bufferSize);
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[7];
+        int n;
+        while ((n = in.read(buf)) != -1)
+            out.write(buf, 0, n);
+        return new String(out.toByteArray(), UTF_8);
+    }
+
+    private static void assertParts(MultipartStream stream) throws IOException {
+        Map<String, List<String>> headers = stream.nextPart();
+        assertEquals(Arrays.asList("form-data; name=\"a\""),
+                headers.get("content-disposition"));
+        assertEquals("first value", read(stream.getPartInputStream()));
+
+        headers = stream.nextPart();
+        assertEquals(Arrays.asList("text/plain"), headers.get("CONTENT-TYPE"));
+        assertEquals("line one\r\n--xy not a delimiter\r\n",
+                read(stream.getPartInputStream()));
+
+        assertNull(stream.nextPart());
+        assertNull(stream.nextPart());
+    }
+
+    @Test
+    public void readsPartsBetweenPreambleAndEpilogue() throws IOException {
+        assertParts(stream(BODY, Integer.MAX_VALUE, 8192));
+    }
+
+    @Test
+    public void readsPartsDeliveredByteByByte() throws IOException {
+        assertParts(stream(BODY, 1, 8192));
+    }
+
+    @Test
+    public void readsPartsThroughASmallBuffer() throws IOException {
+        // the buffer is as small as it gets, twice the delimiter
+        assertParts(stream(BODY, 3, 1));
+    }
+
+    @Test
+    public void skipsUnreadParts() throws IOException {
+        MultipartStream stream = stream(BODY, 5, 16);
+
+        stream.nextPart();
+        Map<String, List<String>> headers = stream.nextPart();
+        assertEquals(Arrays.asList("text/plain"), headers.get("Content-Type"));
+        assertNull(stream.nextPart());
+    }
+
+    @Test
+    public void acceptsTransportPaddingAndFoldedHeaders() throws IOException {
+        MultipartStream stream = stream("--xyz  \r\n"
+                + "X-Folded: one\r\n"
+                + "\ttwo\r\n"
+                + "\r\n"
+                + "content\r\n"
+                + "--xyz--", Integer.MAX_VALUE, 8192);
+
+        Map<String, List<String>> headers = stream.nextPart();
+        assertEquals(Arrays.asList("one two"), headers.get("x-folded"));
+        assertEquals("content", read(stream.getPartInputStream()));
+        assertNull(stream.nextPart());
+    }
+
+    @Test
+    public void emptyPart() throws IOException {
+        MultipartStream stream = stream("--xyz\r\n\r\n\r\n--xyz--",
+                Integer.MAX_VALUE, 8192);
+
+        assertEquals(0, stream.nextPart().size());
+        assertEquals("", read(stream.getPartInputStream()));
+        assertNull(stream.nextPart());
+    }
+
+    @Test
+    public void failsOnTruncatedBody() throws IOException {
+        MultipartStream stream = stream("--xyz\r\n\r\nno end",
+                Integer.MAX_VALUE, 8192);
+        stream.nextPart();
+        try {
+            read(stream.getPartInputStream());
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void failsOnInvalidDelimiter() {
+        try {
+            stream("--xyzabc\r\n\r\n--xyz--", Integer.MAX_VALUE, 8192)
+                    .nextPart();
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void failsOnInvalidHeader() {
+        try {
+            stream("--xyz\r\nno colon\r\n\r\n--xyz--", Integer.MAX_VALUE, 8192)
+                    .nextPart();
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Returns at most a few bytes per read, like a body arriving in chunks.
+     */
+    private static final class TrickleInputStream extends FilterInputStream {
+
+        private final int maxRead;
+
+        TrickleInputStream(InputStream in, int maxRead) {
+            super(in);
+            this.maxRead = maxRead;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return super.read(b, off, Math.min(len, this.maxRead));
+        }
+    }
+
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2013 by Maxim Kalina
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.javaforge.netty.servlet.bridge.util;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BodyDecompressorTest {
+
+    private final Queue<ByteBuf> out = new ArrayDeque<ByteBuf>();
+
+    @After
+    public void tearDown() {
+        ByteBuf buffer;
+        while ((buffer = this.out.poll()) != null)
+            buffer.release();
+    }
+
+    private static byte[] body(int size) {
+        byte[] body = new byte[size];
+        for (int i = 0; i < size; i++)
+            body[i] = (byte) ('a' + i % 26);
+        return body;
+    }
+
+    private static byte[] gzip(byte[] body) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        OutputStream out = new GZIPOutputStream(bytes);
+        out.write(body);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] deflate(byte[] body) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        OutputStream out = new DeflaterOutputStream(bytes);
+        out.write(body);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private byte[] decompressed() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (ByteBuf buffer : this.out) {
+            byte[] chunk = new byte[buffer.readableBytes()];
+            buffer.getBytes(buffer.readerIndex(), chunk);
+            bytes.write(chunk, 0, chunk.length);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Feeds the compressed body in chunks of the given size.
+     */
+    private boolean decode(BodyDecompressor decompressor, byte[] compressed,
+                           int chunkSize) throws IOException {
+        for (int i = 0; i < compressed.length; i += chunkSize) {
+            ByteBuf chunk = Unpooled.copiedBuffer(compressed, i, Math.min(
+                    chunkSize, compressed.length - i));
+            if (!decompressor.decode(chunk, this.out))
+                return false;
+        }
+        return decompressor.finish(this.out);
+    }
+
+    @Test
+    public void supportsGzipAndDeflate() {
+        assertNull(BodyDecompressor.forEncoding(null, 0));
+        assertNull(BodyDecompressor.forEncoding("identity", 0));
+        assertNull(BodyDecompressor.forEncoding("br", 0));
+
+        for (String encoding : new String[]{"gzip", " GZIP ", "x-gzip",
+                "deflate", "x-deflate"}) {
+            BodyDecompressor decompressor = BodyDecompressor.forEncoding(
+                    encoding, 0);
+            assertNotNull(encoding, decompressor);
+            decompressor.close();
+        }
+    }
+
+    @Test
+    public void decompressesGzipAcrossChunks() throws IOException {
+        byte[] body = body(100000);
+        BodyDecompressor decompressor = BodyDecompressor.forEncoding("gzip", 0);
+
+        assertTrue(decode(decompressor, gzip(body), 777));
+        assertArrayEquals(body, decompressed());
+        assertEquals(body.length, decompressor.getSize());
+        decompressor.close();
+    }
+
+    @Test
+    public void decompressesDeflate() throws IOException {
+        byte[] body = body(5000);
+        BodyDecompressor decompressor = BodyDecompressor.forEncoding(
+                "deflate", 0);
+
+        assertTrue(decode(decompressor, deflate(body), 100000));
+        assertArrayEquals(body, decompressed());
+        decompressor.close();
+    }
+
+    @Test
+    public void stopsAtTheDecompressedSizeLimit() throws IOException {
+        // a megabyte of zeros compresses to about a kilobyte
+        byte[] bomb = gzip(new byte[1024 * 1024]);
+        BodyDecompressor decompressor = BodyDecompressor.forEncoding("gzip",
+                64 * 1024);
+
+        ByteBuf chunk = Unpooled.copiedBuffer(bomb);
+        assertFalse(decompressor.decode(chunk, this.out));
+        assertEquals("the chunk is released", 0, chunk.refCnt());
+
+        int kept = 0;
+        for (ByteBuf buffer : this.out)
+            kept += buffer.readableBytes();
+        assertTrue(kept <= 64 * 1024);
+        decompressor.close();
+    }
+
+    @Test
+    public void bodyOfTheLimitSizeIsAccepted() throws IOException {
+        byte[] body = body(4096);
+        BodyDecompressor decompressor = BodyDecompressor.forEncoding("gzip",
+                body.length);
+
+        assertTrue(decode(decompressor, gzip(body), 512));
+        assertArrayEquals(body, decompressed());
+        decompressor.close();
+    }
+
+    @Test
+    public void malformedBodyFails() {
+        BodyDecompressor decompressor = BodyDecompressor.forEncoding("gzip", 0);
+        ByteBuf chunk = Unpooled.copiedBuffer(body(100));
+        try {
+            decompressor.decode(chunk, this.out);
+            fail();
+        } catch (IOException e) {
+            // expected
+        } finally {
+            decompressor.close();
+        }
+        assertEquals(0, chunk.refCnt());
+    }
+
+}
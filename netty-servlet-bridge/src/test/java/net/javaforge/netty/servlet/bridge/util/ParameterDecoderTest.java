@@ -0,0 +1,140 @@
+/*
+ * Copyright 2013 by Maxim Kalina
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.javaforge.netty.servlet.bridge.util;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class ParameterDecoderTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    private static Map<String, String[]> decode(String query, Charset charset) {
+        Map<String, String[]> parameters = new LinkedHashMap<String, String[]>();
+        ParameterDecoder.decode(query, charset, parameters);
+        return parameters;
+    }
+
+    private static Map<String, String[]> decodeBody(String body,
+                                                    Charset charset) {
+        Map<String, String[]> parameters = new LinkedHashMap<String, String[]>();
+        ByteBuf content = Unpooled.copiedBuffer(body, charset);
+        ParameterDecoder.decode(content, charset, parameters);
+        assertEquals("the buffer must not be consumed", 0,
+                content.readerIndex());
+        return parameters;
+    }
+
+    @Test
+    public void keepsRepeatedValuesInOrder() {
+        Map<String, String[]> parameters = decode("a=1&b=2&a=3", UTF_8);
+
+        assertArrayEquals(new String[]{"a", "b"}, parameters.keySet()
+                .toArray());
+        assertArrayEquals(new String[]{"1", "3"}, parameters.get("a"));
+        assertArrayEquals(new String[]{"2"}, parameters.get("b"));
+    }
+
+    @Test
+    public void decodesEscapesAndPlus() {
+        Map<String, String[]> parameters = decode(
+                "q=a+b%20c&%E2%82%AC=%C3%A9", UTF_8);
+
+        assertArrayEquals(new String[]{"a b c"}, parameters.get("q"));
+        assertArrayEquals(new String[]{"\u00e9"}, parameters.get("\u20ac"));
+    }
+
+    @Test
+    public void decodesWithTheGivenCharset() {
+        assertArrayEquals(new String[]{"\u00e9"},
+                decode("e=%E9", ISO_8859_1).get("e"));
+    }
+
+    @Test
+    public void encodesRawCharactersLikeEscapes() {
+        assertArrayEquals(new String[]{"\u00e9 \u00e8"},
+                decode("e=\u00e9+%C3%A8", UTF_8).get("e"));
+    }
+
+    @Test
+    public void keepsMalformedEscapes() {
+        Map<String, String[]> parameters = decode("a=%zz&b=%4&c=100%", UTF_8);
+
+        assertArrayEquals(new String[]{"%zz"}, parameters.get("a"));
+        assertArrayEquals(new String[]{"%4"}, parameters.get("b"));
+        assertArrayEquals(new String[]{"100%"}, parameters.get("c"));
+    }
+
+    @Test
+    public void valuesMayBeMissingButNamesMayNot() {
+        Map<String, String[]> parameters = decode("=1&&flag&e=&x=a=b", UTF_8);
+
+        assertArrayEquals(new String[]{"flag", "e", "x"}, parameters.keySet()
+                .toArray());
+        assertArrayEquals(new String[]{""}, parameters.get("flag"));
+        assertArrayEquals(new String[]{""}, parameters.get("e"));
+        assertArrayEquals(new String[]{"a=b"}, parameters.get("x"));
+    }
+
+    @Test
+    public void decodesBodies() {
+        Map<String, String[]> parameters = decodeBody(
+                "name=J%C3%BCrgen+M&tag=a&tag=b&empty=&&=x", UTF_8);
+
+        assertArrayEquals(new String[]{"J\u00fcrgen M"},
+                parameters.get("name"));
+        assertArrayEquals(new String[]{"a", "b"}, parameters.get("tag"));
+        assertArrayEquals(new String[]{""}, parameters.get("empty"));
+        assertEquals(3, parameters.size());
+    }
+
+    @Test
+    public void decodesBodiesFromTheReaderIndex() {
+        Map<String, String[]> parameters = new LinkedHashMap<String, String[]>();
+        ByteBuf content = Unpooled.copiedBuffer("skipped&a=1", UTF_8);
+        content.readerIndex(8);
+
+        ParameterDecoder.decode(content, UTF_8, parameters);
+
+        assertEquals(1, parameters.size());
+        assertArrayEquals(new String[]{"1"}, parameters.get("a"));
+    }
+
+    @Test
+    public void decodesLargeEscapedBodyValues() {
+        StringBuilder body = new StringBuilder("v=");
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            body.append("%41+");
+            expected.append("A ");
+        }
+
+        assertArrayEquals(new String[]{expected.toString()},
+                decodeBody(body.toString(), UTF_8).get("v"));
+    }
+
+}
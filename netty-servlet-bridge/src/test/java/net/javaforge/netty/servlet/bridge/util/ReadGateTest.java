@@ -0,0 +1,56 @@
+/*
+ * Copyright 2013 by Maxim Kalina
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package net.javaforge.netty.servlet.bridge.util;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ReadGateTest {
+
+    @Test
+    public void suspensionsAreCounted() {
+        EmbeddedChannel channel = new EmbeddedChannel();
+
+        ReadGate.suspend(channel);
+        ReadGate.suspend(channel);
+        assertTrue(ReadGate.isSuspended(channel));
+        assertFalse(channel.config().isAutoRead());
+
+        ReadGate.resume(channel);
+        assertTrue(ReadGate.isSuspended(channel));
+        assertFalse(channel.config().isAutoRead());
+
+        ReadGate.resume(channel);
+        assertFalse(ReadGate.isSuspended(channel));
+        assertTrue(channel.config().isAutoRead());
+    }
+
+    @Test
+    public void channelsAreSuspendedIndependently() {
+        EmbeddedChannel suspended = new EmbeddedChannel();
+        EmbeddedChannel other = new EmbeddedChannel();
+
+        ReadGate.suspend(suspended);
+
+        assertFalse(ReadGate.isSuspended(other));
+        assertTrue(other.config().isAutoRead());
+    }
+
+}
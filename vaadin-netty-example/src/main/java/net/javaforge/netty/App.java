@@ -42,7 +42,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import net.javaforge.netty.servlet.bridge.impl.ServletBridgeWebapp;
-import net.javaforge.netty.servlet.bridge.interceptor.ChannelInterceptor;
 import net.javaforge.netty.servlet.bridge.interceptor.HttpSessionInterceptor;
 import net.javaforge.netty.servlet.bridge.session.DefaultServletBridgeHttpSessionStore;
 import net.javaforge.netty.servlet.bridge.session.ServletBridgeHttpSessionStore;
@@ -128,7 +127,6 @@ public class App {
 
         protected ServletBridgeHandler getServletBridgeHandler() {
             ServletBridgeHandler bridge = new ServletBridgeHandler();
-            bridge.addInterceptor(new ChannelInterceptor());
             bridge.addInterceptor(new HttpSessionInterceptor(
                     new DefaultServletBridgeHttpSessionStore()));
             return bridge;